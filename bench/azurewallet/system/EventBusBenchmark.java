@@ -0,0 +1,166 @@
+package azurewallet.system;
+
+import java.io.File;
+import java.util.*;
+import azurewallet.models.UserAccount;
+import azurewallet.storage.AccountStore;
+import azurewallet.storage.LogStore;
+import azurewallet.storage.Storage;
+
+// Caller-side latency of a deposit with its side effects run inline versus published to an
+// EventBus. Both runs use a scratch instance of the configured storage backend in a temporary
+// directory: a transaction log append, points accrual with its points log line, rank, and an
+// account write-back. Inline pays all of it per operation; on the bus the operation only moves
+// the balance and publishes, and subscribers batch the appends and the write-back.
+//
+// java -Dazure.storage=text|memory|mmap -cp <classes> azurewallet.system.EventBusBenchmark [operations]
+public class EventBusBenchmark {
+    private static final int ACCOUNTS = 100;
+
+    public record Result(String mode, int operations, long p50Nanos, long p99Nanos, long maxNanos, long callerMillis, long totalMillis) {
+        public double opsPerSecond() {
+            return totalMillis == 0 ? operations : operations * 1000.0 / totalMillis;
+        }
+    }
+
+    private final int operations;
+    private final File scratch;
+
+    public EventBusBenchmark(int operations) {
+        this.operations = operations;
+        this.scratch = new File(System.getProperty("java.io.tmpdir"), "azure-bus-bench-" + System.nanoTime());
+    }
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        System.out.println("Running " + operations + " deposits on a scratch " + System.getProperty("azure.storage", "text")
+            + " store, inline then on the bus...");
+        for (Result r : new EventBusBenchmark(operations).run()) {
+            System.out.printf("%-7s p50 %,8.1f us  p99 %,8.1f us  max %,10.1f us  caller %,6d ms  total %,6d ms (%,.0f ops/sec)%n",
+                r.mode(), r.p50Nanos() / 1000.0, r.p99Nanos() / 1000.0, r.maxNanos() / 1000.0,
+                r.callerMillis(), r.totalMillis(), r.opsPerSecond());
+        }
+    }
+
+    public List<Result> run() {
+        try {
+            return List.of(runInline(), runBus());
+        } finally {
+            delete(scratch);
+        }
+    }
+
+    private Storage open(String mode) {
+        String dir = new File(scratch, mode).getPath() + "/";
+        return Storage.open(System.getProperty("azure.storage", "text"), dir, new ShardRouter(dir, 1));
+    }
+
+    private static List<UserAccount> accounts() {
+        List<UserAccount> accounts = new ArrayList<>(ACCOUNTS);
+        for (int i = 0; i < ACCOUNTS; i++) accounts.add(new UserAccount("bench" + i, "0000", "09000000000"));
+        return accounts;
+    }
+
+    private static String line(long id, String username, String body) {
+        return java.time.LocalDateTime.now() + " - " + TxnIds.format(id) + " - " + username + body;
+    }
+
+    // ====================== INLINE ======================
+
+    private Result runInline() {
+        Storage storage = open("inline");
+        LogStore logs = storage.logStore();
+        AccountStore store = storage.accountStores().get(0);
+        List<UserAccount> accounts = accounts();
+        long[] latencies = new long[operations];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            UserAccount acc = accounts.get(i % ACCOUNTS);
+            double amount = 1000 + i % 5000;
+            long t0 = System.nanoTime();
+            acc.deposit(amount);
+            logs.append("transactions.txt", acc.getUsername(), line(i, acc.getUsername(), ": Deposit - PHP " + amount));
+            acc.addTotalTransacted(amount);
+            int points = (int) (amount / 1000);
+            acc.addPoints(points);
+            logs.append("points_log.txt", acc.getUsername(), line(i, acc.getUsername(), " earned " + points + " points (from deposit)"));
+            store.write(acc);
+            acc.markClean();
+            latencies[i] = System.nanoTime() - t0;
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        return result("inline", latencies, millis, millis);
+    }
+
+    // ====================== BUS ======================
+
+    private Result runBus() {
+        Storage storage = open("bus");
+        LogStore logs = storage.logStore();
+        AccountStore store = storage.accountStores().get(0);
+        List<UserAccount> accounts = accounts();
+        long[] latencies = new long[operations];
+
+        EventBus bus = new EventBus(Integer.getInteger("azure.events.size", 4096));
+        List<LogStore.LogLine> pendingTxns = new ArrayList<>();
+        List<LogStore.LogLine> pendingPoints = new ArrayList<>();
+        Set<UserAccount> dirty = new HashSet<>();
+
+        EventBus.Subscriber logging = bus.subscribe("logging", (e, end) -> {
+            pendingTxns.add(new LogStore.LogLine(e.getUsername(), line(e.getTxnId(), e.getUsername(), ": Deposit - PHP " + e.getAmount())));
+            if (end) {
+                logs.appendAll("transactions.txt", pendingTxns);
+                pendingTxns.clear();
+            }
+        });
+        EventBus.Subscriber points = bus.subscribe("points", (e, end) -> {
+            int pts = (int) (e.getAmount() / 1000);
+            e.getAccount().addPoints(pts);
+            pendingPoints.add(new LogStore.LogLine(e.getUsername(), line(e.getTxnId(), e.getUsername(), " earned " + pts + " points (from deposit)")));
+            if (end) {
+                logs.appendAll("points_log.txt", pendingPoints);
+                pendingPoints.clear();
+            }
+        });
+        EventBus.Subscriber rank = bus.subscribe("rank", (e, end) -> e.getAccount().addTotalTransacted(e.getAmount()));
+        bus.subscribe("persistence", (e, end) -> {
+            dirty.add(e.getAccount());
+            if (!end) return;
+            for (UserAccount acc : dirty) {
+                synchronized (acc) {
+                    store.write(acc);
+                    acc.markClean();
+                }
+            }
+            dirty.clear();
+        }, logging, points, rank);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            UserAccount acc = accounts.get(i % ACCOUNTS);
+            double amount = 1000 + i % 5000;
+            long t0 = System.nanoTime();
+            acc.deposit(amount);
+            bus.publish(EventBus.Kind.DEPOSITED, acc, null, amount, 0, i);
+            latencies[i] = System.nanoTime() - t0;
+        }
+        long callerMillis = (System.nanoTime() - start) / 1_000_000;
+        bus.close();
+        long totalMillis = (System.nanoTime() - start) / 1_000_000;
+        return result("bus", latencies, callerMillis, totalMillis);
+    }
+
+    private Result result(String mode, long[] latencies, long callerMillis, long totalMillis) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        return new Result(mode, n, sorted[n / 2], sorted[Math.min(n - 1, (int) (n * 0.99))], sorted[n - 1], callerMillis, totalMillis);
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) delete(c);
+        f.delete();
+    }
+}
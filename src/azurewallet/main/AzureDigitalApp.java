@@ -1,25 +1,40 @@
 package azurewallet.main;
 
+import azurewallet.models.ActivityWindows;
 import azurewallet.models.UserAccount;
 import azurewallet.models.VoucherSystem;
+import azurewallet.system.AccountCache;
+import azurewallet.system.AdmissionControl;
 import azurewallet.system.FileManager;
+import azurewallet.system.Idempotency;
+import azurewallet.system.Ledger;
+import azurewallet.system.MerchantPayments;
+import azurewallet.system.TxnIds;
 import azurewallet.system.AdminControl;
 import java.util.*;
+import java.util.function.LongSupplier;
 import java.text.DecimalFormat;
 
 public class AzureDigitalApp {
     private final FileManager fileManager;
-    private final Map<String, UserAccount> users;
+    private final AccountCache users;
+    private final Ledger ledger;
     private final BackgroundScheduler scheduler;
+    private final WalletEvents events;
     private final Scanner sc = new Scanner(System.in);
     private final DecimalFormat df = new DecimalFormat("#,##0.00");
     private static final double WITHDRAW_FEE = 15.0;
 
     public AzureDigitalApp() {
         fileManager = new FileManager();
-        users = fileManager.loadUsers();
+        users = fileManager.openAccountCache();
+        ledger = fileManager.getLedger();
+        fileManager.reconcileLedger(users);
+        events = new WalletEvents(fileManager, users);
         scheduler = new BackgroundScheduler(fileManager, users);
         scheduler.runScheduler();
+        scheduler.start();
+        VoucherSystem.startCompactor(fileManager, 60);
     }
 
     public void start() {
@@ -39,7 +54,9 @@ public class AzureDigitalApp {
                 case "2" -> login();
                 case "3" -> adminLogin();
                 case "0" -> {
-                    fileManager.saveUsers(users);
+                    scheduler.stop();
+                    events.close();
+                    users.close();
                     System.out.println("| Exiting system...                                       |");
                     System.out.println("+==========================================================+");
                     return;
@@ -125,16 +142,28 @@ public class AzureDigitalApp {
         String pin = sc.nextLine().trim();
         if (pin.equals("0") || pin.equalsIgnoreCase("B")) return;
 
-        if (!acc.verifyPin(pin)) {
-            acc.registerFailedAttempt();
+        // PIN hashing and the lock-state write run on the admission-controlled auth pool.
+        AdmissionControl.Decision<Boolean> auth = fileManager.getAdmission().authenticate(username, () -> {
+            if (!acc.verifyPin(pin)) {
+                acc.registerFailedAttempt();
+                fileManager.saveUsers(users);
+                return false;
+            }
+            acc.resetLock();
             fileManager.saveUsers(users);
+            return true;
+        });
+        if (!auth.accepted()) {
+            System.out.printf("| Too many login attempts. Try again in %-4d second(s).    |\n", retrySeconds(auth));
+            System.out.println("+==========================================================+");
+            return;
+        }
+        if (!auth.value()) {
             System.out.println("| Incorrect PIN.                                          |");
             System.out.println("+==========================================================+");
             return;
         }
 
-        acc.resetLock();
-        fileManager.saveUsers(users);
         acc.viewVoucherNotification(fileManager);
         userMenu(acc);
     }
@@ -154,6 +183,9 @@ public class AzureDigitalApp {
             String ch = sc.nextLine();
             System.out.println("+----------------------------------------------------------+");
 
+            // Money-moving choices draw on the transaction lane of admission control.
+            if (ch.matches("[1-6]") && !admitted(acc)) continue;
+
             switch (ch) {
                 case "1" -> deposit(acc);
                 case "2" -> withdraw(acc);
@@ -162,9 +194,13 @@ public class AzureDigitalApp {
                 case "5" -> redeemPoints(acc);
                 case "6" -> sendToUser(acc);
                 case "7" -> acc.displayBalance();
-                case "8" -> fileManager.showTransactions(acc.getUsername());
+                case "8" -> {
+                    events.awaitIdle();
+                    fileManager.showTransactions(acc.getUsername());
+                }
                 case "9" -> acc.viewMyVouchers(fileManager);
                 case "10" -> {
+                    events.awaitIdle();
                     fileManager.saveUsers(users);
                     System.out.println("| Logged out successfully.                                 |");
                     System.out.println("+==========================================================+");
@@ -178,6 +214,18 @@ public class AzureDigitalApp {
         }
     }
 
+    private boolean admitted(UserAccount acc) {
+        AdmissionControl.Decision<Void> decision = fileManager.getAdmission().admitTransaction(acc.getUsername());
+        if (decision.accepted()) return true;
+        System.out.printf("| System busy. Try again in %-4d second(s).                |\n", retrySeconds(decision));
+        System.out.println("+==========================================================+");
+        return false;
+    }
+
+    private static long retrySeconds(AdmissionControl.Decision<?> decision) {
+        return Math.max(1, (decision.retryAfterMillis() + 999) / 1000);
+    }
+
     private void deposit(UserAccount acc) {
         System.out.println("+==========================================================+");
         System.out.println("|                        DEPOSIT FUNDS                     |");
@@ -192,20 +240,28 @@ public class AzureDigitalApp {
             System.out.println("+==========================================================+");
             return;
         }
+        if (exceedsCumulativeLimit(acc, ActivityWindows.Kind.DEPOSIT, amount)) return;
 
         acc.deposit(amount);
-        acc.addTotalTransacted(amount);
-        fileManager.logTransaction(acc.getUsername(), "Deposit", amount);
-        int pointsEarned = (int) (amount / 1000);
-        if (pointsEarned > 0) {
-            acc.addPoints(pointsEarned);
-            fileManager.logPoints(acc.getUsername(), "earned", pointsEarned, "from deposit");
-        }
-        fileManager.saveUsers(users);
+        acc.recordActivity(ActivityWindows.Kind.DEPOSIT, amount);
+        ledger.post(Ledger.Type.DEPOSIT, Ledger.Unit.PHP, Ledger.CASH, Ledger.user(acc.getUsername()), amount, "Deposit");
+        long txn = fileManager.nextTxnId();
+        // Logging, points, rank and saving run on the event bus.
+        events.deposited(acc, amount, txn);
         System.out.println("| Deposit successful. Balance: PHP " + df.format(acc.getBalance()) + "               |");
+        System.out.println("| Reference: " + TxnIds.format(txn));
         System.out.println("+==========================================================+");
     }
 
+    // Rolling 24h / 30-day limits by rank, on top of the per-transaction limit.
+    private boolean exceedsCumulativeLimit(UserAccount acc, ActivityWindows.Kind kind, double amount) {
+        String reason = acc.checkCumulativeLimit(kind, amount);
+        if (reason == null) return false;
+        System.out.println("| " + reason);
+        System.out.println("+==========================================================+");
+        return true;
+    }
+
     private void withdraw(UserAccount acc) {
         System.out.println("+==========================================================+");
         System.out.println("|                        WITHDRAW FUNDS                    |");
@@ -214,23 +270,33 @@ public class AzureDigitalApp {
         String input = sc.nextLine();
         if (input.equals("0") || input.equalsIgnoreCase("B")) return;
         double amount = Double.parseDouble(input);
-
-        if (amount <= 0 || amount > acc.getWithdrawLimit()) {
-            System.out.println("| Invalid or exceeds limit (" + df.format(acc.getWithdrawLimit()) + ")");
-            System.out.println("+==========================================================+");
-            return;
-        }
-        double totalAmount = amount + WITHDRAW_FEE;
-        if (totalAmount > acc.getBalance()) {
-            System.out.println("| Insufficient balance including PHP 15.00 fee.            |");
-            System.out.println("+==========================================================+");
-            return;
-        }
-        acc.withdraw(totalAmount);
-        fileManager.logTransaction(acc.getUsername(), "Withdraw", amount);
-        fileManager.logSystemRevenue(WITHDRAW_FEE);
-        fileManager.saveUsers(users);
+        String key = readRequestKey();
+        if (key == null) return;
+
+        long txn = runOnce(acc, key, "withdraw", amount, () -> {
+            if (amount <= 0 || amount > acc.getWithdrawLimit()) {
+                System.out.println("| Invalid or exceeds limit (" + df.format(acc.getWithdrawLimit()) + ")");
+                System.out.println("+==========================================================+");
+                return -1;
+            }
+            if (exceedsCumulativeLimit(acc, ActivityWindows.Kind.WITHDRAW, amount)) return -1;
+            double totalAmount = amount + WITHDRAW_FEE;
+            if (totalAmount > acc.getBalance()) {
+                System.out.println("| Insufficient balance including PHP 15.00 fee.            |");
+                System.out.println("+==========================================================+");
+                return -1;
+            }
+            acc.withdraw(totalAmount);
+            acc.recordActivity(ActivityWindows.Kind.WITHDRAW, amount);
+            ledger.post(Ledger.Type.WITHDRAW, Ledger.Unit.PHP, Ledger.user(acc.getUsername()), Ledger.CASH, amount, "Withdraw");
+            ledger.post(Ledger.Type.FEE, Ledger.Unit.PHP, Ledger.user(acc.getUsername()), Ledger.SYSTEM_REVENUE, WITHDRAW_FEE, "Withdraw fee");
+            long id = fileManager.nextTxnId();
+            events.withdrew(acc, amount, id);
+            return id;
+        });
+        if (txn < 0) return;
         System.out.println("| Withdraw successful. Fee applied. New balance: PHP " + df.format(acc.getBalance()) + " |");
+        System.out.println("| Reference: " + TxnIds.format(txn));
         System.out.println("+==========================================================+");
     }
 
@@ -245,21 +311,33 @@ public class AzureDigitalApp {
         String input = sc.nextLine();
         if (input.equals("0") || input.equalsIgnoreCase("B")) return;
         double amount = Double.parseDouble(input);
-
-        if (amount <= 0 || amount > acc.getSendLimit()) {
-            System.out.println("| Invalid or exceeds limit (" + df.format(acc.getSendLimit()) + ")");
-            System.out.println("+==========================================================+");
-            return;
-        }
-        if (amount > acc.getBalance()) {
-            System.out.println("| Insufficient balance.                                   |");
-            System.out.println("+==========================================================+");
-            return;
-        }
-        acc.withdraw(amount);
-        fileManager.logTransaction(acc.getUsername(), "Paid to " + merchant, amount);
-        fileManager.saveUsers(users);
+        String key = readRequestKey();
+        if (key == null) return;
+
+        long txn = runOnce(acc, key, "pay:" + MerchantPayments.normalizeId(merchant), amount, () -> {
+            if (amount <= 0 || amount > acc.getSendLimit()) {
+                System.out.println("| Invalid or exceeds limit (" + df.format(acc.getSendLimit()) + ")");
+                System.out.println("+==========================================================+");
+                return -1;
+            }
+            if (exceedsCumulativeLimit(acc, ActivityWindows.Kind.SEND, amount)) return -1;
+            if (amount > acc.getBalance()) {
+                System.out.println("| Insufficient balance.                                   |");
+                System.out.println("+==========================================================+");
+                return -1;
+            }
+            acc.withdraw(amount);
+            acc.recordActivity(ActivityWindows.Kind.SEND, amount);
+            ledger.post(Ledger.Type.PAYMENT, Ledger.Unit.PHP, Ledger.user(acc.getUsername()),
+                Ledger.merchant(MerchantPayments.normalizeId(merchant)), amount, "Paid to " + merchant);
+            fileManager.getMerchantPayments().recordPayment(acc.getUsername(), merchant, amount);
+            long id = fileManager.nextTxnId();
+            events.paid(acc, merchant, amount, id);
+            return id;
+        });
+        if (txn < 0) return;
         System.out.println("| Payment successful. PHP " + df.format(amount) + " sent to " + merchant + " |");
+        System.out.println("| Reference: " + TxnIds.format(txn));
         System.out.println("+==========================================================+");
     }
 
@@ -286,28 +364,72 @@ public class AzureDigitalApp {
         String input = sc.nextLine();
         if (input.equals("0") || input.equalsIgnoreCase("B")) return;
         double amount = Double.parseDouble(input);
+        String key = readRequestKey();
+        if (key == null) return;
+
+        long txn = runOnce(acc, key, "send:" + recipient, amount, () -> {
+            if (amount <= 0 || amount > acc.getSendLimit()) {
+                System.out.println("| Invalid or exceeds limit (" + df.format(acc.getSendLimit()) + ")");
+                System.out.println("+==========================================================+");
+                return -1;
+            }
+            if (exceedsCumulativeLimit(acc, ActivityWindows.Kind.SEND, amount)) return -1;
+            if (amount > acc.getBalance()) {
+                System.out.println("| Insufficient balance.                                   |");
+                System.out.println("+==========================================================+");
+                return -1;
+            }
 
-        if (amount <= 0 || amount > acc.getSendLimit()) {
-            System.out.println("| Invalid or exceeds limit (" + df.format(acc.getSendLimit()) + ")");
-            System.out.println("+==========================================================+");
-            return;
-        }
-        if (amount > acc.getBalance()) {
-            System.out.println("| Insufficient balance.                                   |");
-            System.out.println("+==========================================================+");
-            return;
-        }
-
-        acc.withdraw(amount);
-        users.get(recipient).deposit(amount);
-        fileManager.logTransaction(acc.getUsername(), "Sent to " + recipient, amount);
-        fileManager.logTransaction(recipient, "Received from " + acc.getUsername(), amount);
-        fileManager.saveUsers(users);
+            UserAccount target = users.get(recipient);
+            long id = fileManager.commitTransfer(acc.getUsername(), recipient, amount, () -> {
+                acc.withdraw(amount);
+                acc.recordActivity(ActivityWindows.Kind.SEND, amount);
+                target.deposit(amount);
+            });
+            if (id < 0) return -1;
+            events.transferred(acc, recipient, amount, id);
+            return id;
+        });
+        if (txn < 0) return;
 
         System.out.println("| Successfully sent PHP " + df.format(amount) + " to " + recipient + " |");
+        System.out.println("| Reference: " + TxnIds.format(txn));
         System.out.println("+==========================================================+");
     }
 
+    // Optional idempotency key for retried requests. Returns "" for none, null if invalid.
+    private String readRequestKey() {
+        System.out.print("| Request key for safe retries (blank for none): ");
+        String key = sc.nextLine().trim();
+        if (key.isEmpty() || Idempotency.isValidKey(key)) return key;
+        System.out.println("| Invalid request key (letters, digits, - and _ only).     |");
+        System.out.println("+==========================================================+");
+        return null;
+    }
+
+    // With a key, a retry of a request that already went through gets its original reference
+    // back and does not run again. Returns the new transaction id, or -1 if nothing ran.
+    private long runOnce(UserAccount acc, String key, String operation, double amount, LongSupplier action) {
+        if (key.isEmpty()) return action.getAsLong();
+        Idempotency.Result result = fileManager.getIdempotency().execute(acc.getUsername(), key, operation, amount, action);
+        switch (result.status()) {
+            case REPLAYED -> {
+                System.out.println("| Request " + key + " was already processed; nothing was charged again.");
+                System.out.println("| Reference: " + TxnIds.format(result.txnId()));
+                System.out.println("+==========================================================+");
+                return -1;
+            }
+            case CONFLICT -> {
+                System.out.println("| Request key " + key + " was already used for a different request.");
+                System.out.println("+==========================================================+");
+                return -1;
+            }
+            default -> {
+                return result.txnId();
+            }
+        }
+    }
+
     private void redeemVoucher(UserAccount acc) {
         System.out.println("+==========================================================+");
         System.out.println("|                       REDEEM VOUCHER                    |");
@@ -317,7 +439,7 @@ public class AzureDigitalApp {
         if (code.equals("0") || code.equalsIgnoreCase("B")) return;
         double value = VoucherSystem.redeemVoucher(acc, code, fileManager);
         if (value > 0) {
-            fileManager.saveUsers(users);
+            events.voucherRedeemed(acc, value);
             System.out.println("| Voucher redeemed successfully! +PHP " + df.format(value) + " |");
         } else {
             System.out.println("| Invalid or expired voucher.                             |");
@@ -340,14 +462,16 @@ public class AzureDigitalApp {
         }
         double value = pts * 1.0;
         acc.redeemPoints(pts, value);
-        fileManager.logPoints(acc.getUsername(), "redeemed", pts, "converted to PHP " + df.format(value));
-        fileManager.saveUsers(users);
+        ledger.post(Ledger.Type.POINTS_REDEEMED, Ledger.Unit.PTS, Ledger.user(acc.getUsername()), Ledger.POINTS_ISSUED, pts, "redeemed");
+        ledger.post(Ledger.Type.POINTS_REDEEMED, Ledger.Unit.PHP, Ledger.POINTS_REDEMPTION, Ledger.user(acc.getUsername()), value, "points conversion");
+        events.pointsRedeemed(acc, pts, value);
         System.out.println("| Redeemed " + pts + " points = PHP " + df.format(value) + " |");
         System.out.println("+==========================================================+");
     }
 
     private void adminLogin() {
-        AdminControl admin = new AdminControl(fileManager, users, scheduler);
+        events.awaitIdle();
+        AdminControl admin = new AdminControl(fileManager, users, scheduler, events);
         admin.menu(sc);
     }
 }
\ No newline at end of file
@@ -1,38 +1,84 @@
 package azurewallet.main;
 
 import java.time.LocalDate;
-import java.util.Map;
+import java.util.concurrent.*;
 import azurewallet.models.UserAccount;
 import azurewallet.models.VoucherSystem;
+import azurewallet.system.AccountCache;
 import azurewallet.system.FileManager;
+import azurewallet.system.Ledger;
+import azurewallet.system.PointsExpiry;
 
 public class BackgroundScheduler {
     private final FileManager fileManager;
-    private final Map<String, UserAccount> users;
+    private final AccountCache users;
+    private final ScheduledExecutorService timer;
     private LocalDate lastRunDate;
 
-    public BackgroundScheduler(FileManager fileManager, Map<String, UserAccount> users) {
+    public BackgroundScheduler(FileManager fileManager, AccountCache users) {
         this.fileManager = fileManager;
         this.users = users;
         this.lastRunDate = LocalDate.now().minusDays(1);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "background-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
     }
 
-    public void runScheduler() {
+    // Periodic jobs for a long-running process; runScheduler() covers startup and manual runs.
+    public void start() {
+        timer.scheduleAtFixedRate(() -> guarded("balance checkpoint", this::checkpoint), 1, 1, TimeUnit.DAYS);
+        timer.scheduleWithFixedDelay(() -> guarded("points expiry", this::expirePoints), 1, 1, TimeUnit.HOURS);
+    }
+
+    public void stop() {
+        timer.shutdown();
+        try {
+            timer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {}
+    }
+
+    // An exception escaping a scheduled task cancels every later run of it.
+    private static void guarded(String job, Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            System.out.println("| Background " + job + " failed: " + e);
+        }
+    }
+
+    private void checkpoint() {
+        fileManager.getCheckpoints().checkpoint(fileManager.getLedger());
+    }
+
+    public synchronized void runScheduler() {
         LocalDate today = LocalDate.now();
         if (!today.equals(lastRunDate)) {
             applyMonthlyInterest();
-            VoucherSystem.generateMonthlyVouchers(users);
+            // The sweep runs on the timer thread, not the caller's.
+            timer.execute(() -> guarded("points expiry", this::expirePoints));
+            VoucherSystem.compactExpired(fileManager);
+            VoucherSystem.generateMonthlyVouchers(fileManager.getSegments());
             fileManager.logSchedulerRun();
+            fileManager.getLedger().writeSnapshot();
+            checkpoint();
             lastRunDate = today;
         }
     }
 
+    private void expirePoints() {
+        PointsExpiry.Result r = new PointsExpiry(fileManager).sweep(users);
+        if (r.points() > 0) System.out.println("Expired " + r.points() + " points across " + r.expiredAccounts() + " account(s).");
+    }
+
     private void applyMonthlyInterest() {
         for (UserAccount acc : users.values()) {
             double before = acc.getBalance();
             acc.applyMonthlyInterest();
             double added = acc.getBalance() - before;
             if (added > 0) {
+                fileManager.getLedger().post(Ledger.Type.INTEREST, Ledger.Unit.PHP, Ledger.INTEREST_EXPENSE, Ledger.user(acc.getUsername()), added, "Monthly interest");
                 fileManager.logInterest(acc.getUsername(), added);
             }
         }
@@ -2,7 +2,11 @@ package azurewallet.main;
 
 public class MainApp {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--replica")) {
+            new ReplicaApp().start();
+            return;
+        }
         AzureDigitalApp app = new AzureDigitalApp();
         app.start();
     }
-}
\ No newline at end of file
+}
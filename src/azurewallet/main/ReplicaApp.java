@@ -0,0 +1,103 @@
+package azurewallet.main;
+
+import azurewallet.models.UserAccount;
+import azurewallet.system.FileManager;
+import azurewallet.system.ReadReplica;
+import java.util.*;
+import java.text.DecimalFormat;
+
+// Read-only reporting console backed by a ReadReplica. Run as a second process next to the
+// primary (MainApp --replica) so admin reports do not touch the live wallet's files or memory.
+public class ReplicaApp {
+    private final ReadReplica replica;
+    private final Scanner sc = new Scanner(System.in);
+    private final DecimalFormat df = new DecimalFormat("#,##0.00");
+
+    public ReplicaApp() {
+        String dataDir = FileManager.getDataDir();
+        replica = new ReadReplica(dataDir, System.getProperty("azure.replica.dir", dataDir + "replica/"));
+        replica.start();
+    }
+
+    public void start() {
+        while (true) {
+            System.out.println("+==========================================================+");
+            System.out.println("|               AZURE WALLET - READ REPLICA                |");
+            System.out.println("+==========================================================+");
+            System.out.println("| [1] View All Users          [4] Transaction History      |");
+            System.out.println("| [2] View System Summary     [5] Replication Status       |");
+            System.out.println("| [3] View System Revenue     [0] Exit                     |");
+            System.out.println("+----------------------------------------------------------+");
+            System.out.print("| Choose: ");
+            if (!sc.hasNextLine()) break;
+            String choice = sc.nextLine().trim();
+            System.out.println("+----------------------------------------------------------+");
+
+            switch (choice) {
+                case "1" -> viewAllUsers();
+                case "2" -> showSystemSummary();
+                case "3" -> System.out.println("Total Fees Collected: PHP " + df.format(replica.getRevenue()));
+                case "4" -> showTransactions();
+                case "5" -> showStatus();
+                case "0" -> {
+                    replica.stop();
+                    System.out.println("| Replica stopped.                                        |");
+                    return;
+                }
+                default -> System.out.println("| Invalid option.                                         |");
+            }
+        }
+        replica.stop();
+    }
+
+    private void viewAllUsers() {
+        System.out.println("\n=== REGISTERED USERS (replica) ===");
+        for (UserAccount u : replica.getUsers()) {
+            System.out.println("Username: " + u.getUsername());
+            System.out.println("Mobile: " + u.getMobile());
+            System.out.println("Balance: PHP " + df.format(u.getBalance()));
+            System.out.println("Rank: " + u.getRank());
+            System.out.println("Points: " + u.getPoints());
+            System.out.println("--------------------------");
+        }
+    }
+
+    private void showSystemSummary() {
+        double balances = 0.0;
+        long points = 0;
+        int count = 0;
+        for (UserAccount u : replica.getUsers()) {
+            balances += u.getBalance();
+            points += u.getPoints();
+            count++;
+        }
+        System.out.println("\n=== SYSTEM SUMMARY (replica) ===");
+        System.out.println("Total Users: " + count);
+        System.out.println("Total Balances Held: PHP " + df.format(balances));
+        System.out.println("Total Points Outstanding: " + points);
+        System.out.println("Total System Revenue: PHP " + df.format(replica.getRevenue()));
+        printLag();
+        System.out.println("=================================");
+    }
+
+    private void showTransactions() {
+        System.out.print("| Username: ");
+        String username = sc.nextLine().trim().toLowerCase();
+        System.out.println("+==========================================================+");
+        for (String line : replica.getTransactions(username)) System.out.println("| " + line);
+        System.out.println("+==========================================================+");
+        printLag();
+    }
+
+    private void showStatus() {
+        System.out.println("\n=== REPLICATION STATUS ===");
+        System.out.println("Applied sequence: " + replica.getAppliedSeq());
+        System.out.println("Bytes behind primary: " + replica.getBytesBehind());
+        printLag();
+    }
+
+    private void printLag() {
+        long lag = replica.getLagMillis();
+        System.out.println("Replication lag: " + (lag < 0 ? "unknown (no records yet)" : lag + " ms"));
+    }
+}
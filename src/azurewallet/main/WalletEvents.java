@@ -0,0 +1,146 @@
+package azurewallet.main;
+
+import java.text.DecimalFormat;
+import java.util.*;
+import azurewallet.models.UserAccount;
+import azurewallet.system.AccountCache;
+import azurewallet.system.EventBus;
+import azurewallet.system.FileManager;
+import azurewallet.system.Ledger;
+
+// Side effects of wallet operations, run off the user's latency path. The operation itself
+// moves the balance, posts to the ledger and reserves a transaction id for the receipt; it
+// then publishes an event and the subscribers below catch up on their own threads:
+//   logging     - transaction log lines (one batched append per pass) and points redemptions
+//   points      - points accrual on deposits
+//   rank        - total transacted and rank
+//   metrics     - counts, volumes and publish-to-handle lag per event kind
+//   persistence - one account flush per pass, after the three above have finished with it
+public class WalletEvents {
+    private static final int RING_SIZE = Integer.getInteger("azure.events.size", 4096);
+
+    private final FileManager fileManager;
+    private final AccountCache users;
+    private final Ledger ledger;
+    private final EventBus bus = new EventBus(RING_SIZE);
+    private final DecimalFormat df = new DecimalFormat("#,##0.00");
+
+    private final long[] counts = new long[EventBus.Kind.values().length];
+    private final double[] volumes = new double[EventBus.Kind.values().length];
+    private long lagNanos;
+    private long maxLagNanos;
+
+    public WalletEvents(FileManager fileManager, AccountCache users) {
+        this.fileManager = fileManager;
+        this.users = users;
+        this.ledger = fileManager.getLedger();
+
+        EventBus.Subscriber logging = bus.subscribe("logging", new LoggingHandler());
+        EventBus.Subscriber points = bus.subscribe("points", this::onPoints);
+        EventBus.Subscriber rank = bus.subscribe("rank", this::onRank);
+        bus.subscribe("metrics", this::onMetrics);
+        bus.subscribe("persistence", this::onPersistence, logging, points, rank);
+    }
+
+    // ====================== PUBLISHING ======================
+
+    public void deposited(UserAccount acc, double amount, long txnId) {
+        bus.publish(EventBus.Kind.DEPOSITED, acc, null, amount, 0, txnId);
+    }
+
+    public void withdrew(UserAccount acc, double amount, long txnId) {
+        bus.publish(EventBus.Kind.WITHDREW, acc, null, amount, 0, txnId);
+    }
+
+    public void paid(UserAccount acc, String merchant, double amount, long txnId) {
+        bus.publish(EventBus.Kind.PAID, acc, merchant, amount, 0, txnId);
+    }
+
+    public void transferred(UserAccount acc, String recipient, double amount, long txnId) {
+        bus.publish(EventBus.Kind.TRANSFERRED, acc, recipient, amount, 0, txnId);
+    }
+
+    public void voucherRedeemed(UserAccount acc, double value) {
+        bus.publish(EventBus.Kind.VOUCHER_REDEEMED, acc, null, value, 0, -1);
+    }
+
+    public void pointsRedeemed(UserAccount acc, int pts, double value) {
+        bus.publish(EventBus.Kind.POINTS_REDEEMED, acc, null, value, pts, -1);
+    }
+
+    // Waits for every side effect published so far, e.g. before showing transaction history.
+    public void awaitIdle() {
+        bus.awaitIdle();
+    }
+
+    public void close() {
+        bus.close();
+    }
+
+    public EventBus getBus() {
+        return bus;
+    }
+
+    // ====================== SUBSCRIBERS ======================
+
+    // Transfers are logged by FileManager.commitTransfer together with the balance move.
+    private class LoggingHandler implements EventBus.Handler {
+        private final List<FileManager.TransactionEntry> pending = new ArrayList<>();
+
+        @Override
+        public void onEvent(EventBus.Event e, boolean endOfBatch) {
+            switch (e.getKind()) {
+                case DEPOSITED -> pending.add(new FileManager.TransactionEntry(e.getTxnId(), e.getUsername(), "Deposit", e.getAmount()));
+                case WITHDREW -> pending.add(new FileManager.TransactionEntry(e.getTxnId(), e.getUsername(), "Withdraw", e.getAmount()));
+                case PAID -> pending.add(new FileManager.TransactionEntry(e.getTxnId(), e.getUsername(), "Paid to " + e.getCounterparty(), e.getAmount()));
+                case POINTS_REDEEMED -> fileManager.logPoints(e.getUsername(), "redeemed", e.getPoints(), "converted to PHP " + df.format(e.getAmount()));
+                default -> { }
+            }
+            if (endOfBatch && !pending.isEmpty()) {
+                fileManager.logTransactions(pending);
+                pending.clear();
+            }
+        }
+    }
+
+    private void onPoints(EventBus.Event e, boolean endOfBatch) {
+        if (e.getKind() != EventBus.Kind.DEPOSITED) return;
+        int pointsEarned = (int) (e.getAmount() / 1000);
+        if (pointsEarned <= 0) return;
+        e.getAccount().addPoints(pointsEarned);
+        ledger.post(Ledger.Type.POINTS_EARNED, Ledger.Unit.PTS, Ledger.POINTS_ISSUED, Ledger.user(e.getUsername()), pointsEarned, "from deposit");
+        fileManager.logPoints(e.getUsername(), "earned", pointsEarned, "from deposit");
+    }
+
+    private void onRank(EventBus.Event e, boolean endOfBatch) {
+        if (e.getKind() == EventBus.Kind.DEPOSITED) e.getAccount().addTotalTransacted(e.getAmount());
+    }
+
+    private synchronized void onMetrics(EventBus.Event e, boolean endOfBatch) {
+        int kind = e.getKind().ordinal();
+        counts[kind]++;
+        volumes[kind] += e.getAmount();
+        long lag = System.nanoTime() - e.getPublishedNanos();
+        lagNanos += lag;
+        maxLagNanos = Math.max(maxLagNanos, lag);
+    }
+
+    private void onPersistence(EventBus.Event e, boolean endOfBatch) {
+        if (endOfBatch) fileManager.saveUsers(users);
+    }
+
+    // ====================== STATISTICS ======================
+
+    public synchronized List<String> getStats() {
+        List<String> lines = new ArrayList<>();
+        long total = 0;
+        for (EventBus.Kind kind : EventBus.Kind.values()) {
+            if (counts[kind.ordinal()] == 0) continue;
+            total += counts[kind.ordinal()];
+            lines.add(String.format("%-17s %,8d events, PHP %,16.2f", kind, counts[kind.ordinal()], volumes[kind.ordinal()]));
+        }
+        lines.add(String.format("Publish-to-handle lag: avg %.1f us, max %.1f us",
+            total == 0 ? 0.0 : lagNanos / 1000.0 / total, maxLagNanos / 1000.0));
+        return lines;
+    }
+}
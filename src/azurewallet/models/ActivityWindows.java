@@ -0,0 +1,58 @@
+package azurewallet.models;
+
+// Per-account rolling 24-hour (hourly buckets) and 30-day (daily buckets) totals for each
+// kind of outgoing or incoming money movement, used to enforce cumulative limits.
+public class ActivityWindows {
+    private static final long HOUR = 3_600_000L;
+    private static final long DAY = 24 * HOUR;
+
+    public enum Kind {
+        DEPOSIT("deposit"), WITHDRAW("withdrawal"), SEND("send");
+
+        public final String label;
+
+        Kind(String label) { this.label = label; }
+    }
+
+    private final RollingWindow[] day = new RollingWindow[Kind.values().length];
+    private final RollingWindow[] month = new RollingWindow[Kind.values().length];
+
+    public ActivityWindows() {
+        for (int i = 0; i < day.length; i++) {
+            day[i] = new RollingWindow(24, HOUR);
+            month[i] = new RollingWindow(30, DAY);
+        }
+    }
+
+    public void record(Kind kind, double amount, long now) {
+        long cents = Math.round(amount * 100);
+        day[kind.ordinal()].add(now, cents);
+        month[kind.ordinal()].add(now, cents);
+    }
+
+    public double getDayVolume(Kind kind, long now) { return day[kind.ordinal()].getCents(now) / 100.0; }
+    public int getDayCount(Kind kind, long now) { return day[kind.ordinal()].getCount(now); }
+    public double getMonthVolume(Kind kind, long now) { return month[kind.ordinal()].getCents(now) / 100.0; }
+
+    // Start of the most recent day with any activity in the last 30 days, or -1.
+    public long getLastActive(long now) {
+        long last = -1;
+        for (RollingWindow w : month) last = Math.max(last, w.getLastActive(now));
+        return last;
+    }
+
+    // The day windows then the month windows, in Kind order, separated by '|'.
+    public String toFileFormat() {
+        StringBuilder sb = new StringBuilder();
+        for (RollingWindow w : day) sb.append(w.toFileFormat()).append('|');
+        for (RollingWindow w : month) sb.append(w.toFileFormat()).append('|');
+        sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    public void load(String text) {
+        String[] parts = text.split("\\|", -1);
+        for (int i = 0; i < day.length && i < parts.length; i++) day[i].load(parts[i]);
+        for (int i = 0; i < month.length && day.length + i < parts.length; i++) month[i].load(parts[day.length + i]);
+    }
+}
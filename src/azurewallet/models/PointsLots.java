@@ -0,0 +1,126 @@
+package azurewallet.models;
+
+// Spendable points grouped into lots by the 30-day period they were earned in. Lots sit
+// oldest-first in a ring of parallel int arrays: earning tops up the newest lot or opens one
+// at the tail, redemption and expiry consume from the head. A lot expires a fixed number of
+// days after its period ends, -Dazure.points.expiry.days (default 365).
+public class PointsLots {
+    private static final long DAY = 86_400_000L;
+    public static final int PERIOD_DAYS = 30;
+    public static final int EXPIRY_DAYS = Integer.getInteger("azure.points.expiry.days", 365);
+
+    private int[] periods = new int[4];
+    private int[] amounts = new int[4];
+    private int head;
+    private int size;
+    private long total;
+
+    private static int periodOf(long millis) {
+        return (int) Math.floorDiv(Math.floorDiv(millis, DAY), PERIOD_DAYS);
+    }
+
+    // Capacity is a power of two, so the ring index is a mask.
+    private int slot(int i) {
+        return (head + i) & (periods.length - 1);
+    }
+
+    public void earn(int points, long now) {
+        if (points <= 0) return;
+        int period = periodOf(now);
+        if (size > 0 && periods[slot(size - 1)] >= period) {
+            amounts[slot(size - 1)] += points;
+        } else {
+            if (size == periods.length) grow();
+            int s = slot(size);
+            periods[s] = period;
+            amounts[s] = points;
+            size++;
+        }
+        total += points;
+    }
+
+    // Takes up to the given points from the oldest lots; returns how many were taken.
+    public int redeem(int points) {
+        int left = points;
+        while (left > 0 && size > 0) {
+            int take = Math.min(left, amounts[head]);
+            amounts[head] -= take;
+            left -= take;
+            if (amounts[head] == 0) pop();
+        }
+        total -= points - left;
+        return points - left;
+    }
+
+    // Drops every lot past its expiry; returns the points dropped.
+    public int expire(long now) {
+        int cutoff = periodOf(now - EXPIRY_DAYS * DAY);
+        int expired = 0;
+        while (size > 0 && periods[head] < cutoff) {
+            expired += amounts[head];
+            pop();
+        }
+        total -= expired;
+        return expired;
+    }
+
+    // Brings the lots in line with a points total set from outside (ledger recovery, records
+    // written before lots existed): a shortfall is taken oldest-first, an excess is earned now.
+    public void reconcile(long points, long now) {
+        if (points < total) redeem((int) (total - points));
+        else if (points > total) earn((int) (points - total), now);
+    }
+
+    public long getTotal() { return total; }
+    public int getLotCount() { return size; }
+
+    // When the oldest lot expires, or -1 with no lots.
+    public long getNextExpiry() {
+        return size == 0 ? -1 : ((long) (periods[head] + 1) * PERIOD_DAYS + EXPIRY_DAYS) * DAY;
+    }
+
+    public int getNextExpiringPoints() {
+        return size == 0 ? 0 : amounts[head];
+    }
+
+    private void pop() {
+        head = slot(1);
+        size--;
+    }
+
+    private void grow() {
+        int[] p = new int[periods.length * 2];
+        int[] a = new int[periods.length * 2];
+        for (int i = 0; i < size; i++) {
+            p[i] = periods[slot(i)];
+            a[i] = amounts[slot(i)];
+        }
+        periods = p;
+        amounts = a;
+        head = 0;
+    }
+
+    // Oldest first, "period.points" in base 36 separated by ';'.
+    public String toFileFormat() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(';');
+            sb.append(Integer.toString(periods[slot(i)], 36)).append('.').append(Integer.toString(amounts[slot(i)], 36));
+        }
+        return sb.toString();
+    }
+
+    public void load(String text) {
+        if (text.isEmpty()) return;
+        for (String lot : text.split(";")) {
+            int dot = lot.indexOf('.');
+            if (dot < 0) continue;
+            if (size == periods.length) grow();
+            int s = slot(size);
+            periods[s] = Integer.parseInt(lot.substring(0, dot), 36);
+            amounts[s] = Integer.parseInt(lot.substring(dot + 1), 36);
+            total += amounts[s];
+            size++;
+        }
+    }
+}
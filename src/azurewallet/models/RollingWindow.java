@@ -0,0 +1,91 @@
+package azurewallet.models;
+
+// Sliding-window counter over a fixed ring of time buckets (e.g. 24 one-hour buckets).
+// Each bucket holds a volume in centavos and an operation count; running totals are kept
+// alongside, so reads and updates touch at most one pass over the ring and never allocate.
+public class RollingWindow {
+    private final long bucketMillis;
+    private final long[] cents;
+    private final int[] counts;
+    private long head;
+    private long totalCents;
+    private int totalCount;
+
+    public RollingWindow(int buckets, long bucketMillis) {
+        this.bucketMillis = bucketMillis;
+        this.cents = new long[buckets];
+        this.counts = new int[buckets];
+    }
+
+    // Moves the window forward to now, dropping buckets that fell out of it.
+    private void advance(long now) {
+        long bucket = now / bucketMillis;
+        if (bucket <= head) return;
+        long first = Math.max(head + 1, bucket - cents.length + 1);
+        for (long b = first; b <= bucket; b++) {
+            int slot = (int) (b % cents.length);
+            totalCents -= cents[slot];
+            totalCount -= counts[slot];
+            cents[slot] = 0;
+            counts[slot] = 0;
+        }
+        head = bucket;
+    }
+
+    public void add(long now, long amountCents) {
+        advance(now);
+        // A clock that stepped backwards lands in the newest bucket.
+        int slot = (int) (head % cents.length);
+        cents[slot] += amountCents;
+        counts[slot]++;
+        totalCents += amountCents;
+        totalCount++;
+    }
+
+    public long getCents(long now) {
+        advance(now);
+        return totalCents;
+    }
+
+    public int getCount(long now) {
+        advance(now);
+        return totalCount;
+    }
+
+    // Start of the newest bucket with any operations in it, or -1 if the window is empty.
+    public long getLastActive(long now) {
+        advance(now);
+        if (totalCount == 0) return -1;
+        for (long b = head; b > head - counts.length; b--) {
+            if (counts[(int) (b % counts.length)] > 0) return b * bucketMillis;
+        }
+        return -1;
+    }
+
+    // head:bucket;bucket;... with each used bucket as base-36 centavos.count and unused
+    // buckets left empty; an unused window is written as an empty string.
+    public String toFileFormat() {
+        if (totalCount == 0) return "";
+        StringBuilder sb = new StringBuilder(Long.toString(head, 36)).append(':');
+        for (int i = 0; i < cents.length; i++) {
+            if (i > 0) sb.append(';');
+            if (counts[i] > 0) sb.append(Long.toString(cents[i], 36)).append('.').append(Integer.toString(counts[i], 36));
+        }
+        return sb.toString();
+    }
+
+    public void load(String text) {
+        if (text.isEmpty()) return;
+        int colon = text.indexOf(':');
+        head = Long.parseLong(text.substring(0, colon), 36);
+        String[] slots = text.substring(colon + 1).split(";", -1);
+        for (int i = 0; i < Math.min(slots.length, cents.length); i++) {
+            if (slots[i].isEmpty()) continue;
+            int dot = slots[i].indexOf('.');
+            cents[i] = Long.parseLong(slots[i].substring(0, dot), 36);
+            counts[i] = Integer.parseInt(slots[i].substring(dot + 1), 36);
+            totalCents += cents[i];
+            totalCount += counts[i];
+        }
+    }
+}
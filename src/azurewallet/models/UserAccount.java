@@ -14,6 +14,9 @@ public class UserAccount {
     private String rank;
     private int failedAttempts;
     private long lockEndTime;
+    private boolean dirty;
+    private final ActivityWindows activity = new ActivityWindows();
+    private final PointsLots lots = new PointsLots();
     private static final DecimalFormat df = new DecimalFormat("#,##0.00");
 
     public UserAccount(String username, String pin, String mobile) {
@@ -42,12 +45,14 @@ public class UserAccount {
 
     public String getUsername() { return username; }
     public String getMobile() { return mobile; }
-    public double getBalance() { return balance; }
-    public int getPoints() { return points; }
-    public double getTotalTransacted() { return totalTransacted; }
-    public String getRank() { return rank; }
+    public synchronized double getBalance() { return balance; }
+    public synchronized int getPoints() { return points; }
+    public synchronized double getTotalTransacted() { return totalTransacted; }
+    public synchronized String getRank() { return rank; }
     public boolean isLocked() { return System.currentTimeMillis() < lockEndTime; }
     public long getLockEndTime() { return lockEndTime; }
+    public synchronized boolean isDirty() { return dirty; }
+    public synchronized void markClean() { dirty = false; }
 
     public boolean verifyPin(String input) {
         return this.pinHash.equals(HashUtil.hash(input));
@@ -55,6 +60,7 @@ public class UserAccount {
 
     public void registerFailedAttempt() {
         failedAttempts++;
+        dirty = true;
         if (failedAttempts >= 3) {
             long lockDuration;
             lockDuration = switch (failedAttempts) {
@@ -71,42 +77,75 @@ public class UserAccount {
     public void resetLock() {
         failedAttempts = 0;
         lockEndTime = 0;
+        dirty = true;
     }
 
-    public void deposit(double amount) {
+    public synchronized void deposit(double amount) {
         balance += amount;
         updateRank();
     }
 
-    public void withdraw(double amount) {
+    public synchronized void withdraw(double amount) {
         balance -= amount;
+        dirty = true;
     }
 
-    public void addTotalTransacted(double amount) {
+    public synchronized void addTotalTransacted(double amount) {
         totalTransacted += amount;
         updateRank();
     }
 
-    public void addPoints(int pts) {
+    public synchronized void addPoints(int pts) {
         this.points += pts;
+        lots.earn(pts, System.currentTimeMillis());
+        dirty = true;
     }
 
-    public void redeemPoints(int pts, double value) {
+    // Oldest lots are spent first.
+    public synchronized void redeemPoints(int pts, double value) {
         this.points -= pts;
+        lots.redeem(pts);
         this.balance += value;
+        dirty = true;
     }
 
-    public void displayBalance() {
+    public synchronized void restoreFromLedger(double balance, int points) {
+        this.balance = balance;
+        this.points = points;
+        lots.reconcile(points, System.currentTimeMillis());
+        dirty = true;
+    }
+
+    // Drops the points lots that are past their expiry; returns how many points went.
+    public synchronized int expirePoints(long now) {
+        int expired = lots.expire(now);
+        if (expired > 0) {
+            points -= expired;
+            dirty = true;
+        }
+        return expired;
+    }
+
+    public synchronized long getNextPointsExpiry() { return lots.getNextExpiry(); }
+    public synchronized int getNextExpiringPoints() { return lots.getNextExpiringPoints(); }
+    public synchronized int getPointsLotCount() { return lots.getLotCount(); }
+
+    public synchronized void displayBalance() {
         System.out.println("Current Balance: PHP " + df.format(balance));
         System.out.println("Total Points: " + points);
+        if (lots.getNextExpiry() > 0) {
+            System.out.println("Expiring: " + lots.getNextExpiringPoints() + " points on "
+                + java.time.LocalDate.ofEpochDay(lots.getNextExpiry() / 86_400_000L));
+        }
         System.out.println("Rank: " + rank);
     }
 
-    public void updateRank() {
+    public synchronized void updateRank() {
         if (totalTransacted >= 200000 && totalTransacted < 500000) rank = "Silver";
         else if (totalTransacted >= 500000 && totalTransacted < 1000000) rank = "Gold";
         else if (totalTransacted >= 1000000) rank = "Platinum";
         else rank = "Bronze";
+        dirty = true;
     }
 
     public double getDepositLimit() {
@@ -136,7 +175,61 @@ public class UserAccount {
         };
     }
 
-    public void applyMonthlyInterest() {
+    // =============== CUMULATIVE LIMITS ===============
+    public double getDailyVolumeLimit() {
+        return switch (rank) {
+            case "Silver" -> 300000;
+            case "Gold" -> 600000;
+            case "Platinum" -> 1000000;
+            default -> 200000;
+        };
+    }
+
+    public double getMonthlyVolumeLimit() {
+        return switch (rank) {
+            case "Silver" -> 2000000;
+            case "Gold" -> 4000000;
+            case "Platinum" -> 8000000;
+            default -> 1000000;
+        };
+    }
+
+    public int getDailyCountLimit() {
+        return switch (rank) {
+            case "Silver" -> 40;
+            case "Gold" -> 80;
+            case "Platinum" -> 150;
+            default -> 20;
+        };
+    }
+
+    // Returns why the operation would break a rolling 24h or 30-day limit, or null if it fits.
+    public synchronized String checkCumulativeLimit(ActivityWindows.Kind kind, double amount) {
+        long now = System.currentTimeMillis();
+        if (activity.getDayCount(kind, now) >= getDailyCountLimit()) {
+            return "Daily " + kind.label + " count limit reached (" + getDailyCountLimit() + " per 24h)";
+        }
+        double day = activity.getDayVolume(kind, now);
+        if (day + amount > getDailyVolumeLimit()) {
+            return "Exceeds 24h " + kind.label + " limit (PHP " + df.format(day) + " of " + df.format(getDailyVolumeLimit()) + " used)";
+        }
+        double month = activity.getMonthVolume(kind, now);
+        if (month + amount > getMonthlyVolumeLimit()) {
+            return "Exceeds 30-day " + kind.label + " limit (PHP " + df.format(month) + " of " + df.format(getMonthlyVolumeLimit()) + " used)";
+        }
+        return null;
+    }
+
+    public synchronized void recordActivity(ActivityWindows.Kind kind, double amount) {
+        activity.record(kind, amount, System.currentTimeMillis());
+        dirty = true;
+    }
+
+    public synchronized long getLastActive() {
+        return activity.getLastActive(System.currentTimeMillis());
+    }
+
+    public synchronized void applyMonthlyInterest() {
         double rate = switch (rank) {
             case "Silver" -> 0.0025;
             case "Gold" -> 0.004;
@@ -145,6 +238,7 @@ public class UserAccount {
         };
         double interest = balance * rate;
         balance += interest;
+        dirty = true;
     }
 
     public void viewVoucherNotification(FileManager fileManager) {
@@ -158,7 +252,27 @@ public class UserAccount {
         fileManager.showUserVouchers(username);
     }
 
-    public String toFileFormat() {
-        return username + "," + pinHash + "," + mobile + "," + balance + "," + points + "," + totalTransacted + "," + rank + "," + failedAttempts + "," + lockEndTime;
+    public static UserAccount fromFileFormat(String line) {
+        String[] p = line.split(",");
+        if (p.length < 9) return null;
+        UserAccount acc = new UserAccount(
+            p[0], p[1], p[2],
+            Double.parseDouble(p[3]),
+            Integer.parseInt(p[4]),
+            Double.parseDouble(p[5]),
+            p[6],
+            Integer.parseInt(p[7]),
+            Long.parseLong(p[8])
+        );
+        if (p.length > 9) acc.activity.load(p[9]);
+        if (p.length > 10) acc.lots.load(p[10]);
+        // Points from before lots were kept start their expiry clock now.
+        acc.lots.reconcile(acc.points, System.currentTimeMillis());
+        return acc;
+    }
+
+    public synchronized String toFileFormat() {
+        return username + "," + pinHash + "," + mobile + "," + balance + "," + points + "," + totalTransacted + "," + rank + "," + failedAttempts + "," + lockEndTime
+            + "," + activity.toFileFormat() + "," + lots.toFileFormat();
     }
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package azurewallet.models;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+// Expiry-ordered view of vouchers.txt. Vouchers sit in a min-heap keyed by expiry day and
+// active counts are kept per user, so counts stay exact as vouchers expire or are redeemed
+// without rescanning the file. Redeemed vouchers are removed lazily when they reach the top.
+public class VoucherIndex {
+
+    public record Entry(long expiryDay, String username, String code, double value) {
+        String key() { return username + "," + code + "," + expiryDay; }
+    }
+
+    private final PriorityQueue<Entry> byExpiry = new PriorityQueue<>(Comparator.comparingLong(Entry::expiryDay));
+    private final Map<String, Integer> live = new HashMap<>();
+    private final Map<String, Integer> activeByUser = new HashMap<>();
+    private final List<Entry> pendingExpired = new ArrayList<>();
+    private int totalActive;
+    private BiConsumer<String, Boolean> holderListener;
+
+    // Told whenever a user goes from no active vouchers to some, or back.
+    public synchronized void setHolderListener(BiConsumer<String, Boolean> listener) {
+        this.holderListener = listener;
+        if (listener != null) for (String username : activeByUser.keySet()) listener.accept(username, true);
+    }
+
+    public synchronized void add(String username, String code, double value, LocalDate expiry) {
+        Entry e = new Entry(expiry.toEpochDay(), username, code, value);
+        byExpiry.add(e);
+        live.merge(e.key(), 1, Integer::sum);
+        if (activeByUser.merge(username, 1, Integer::sum) == 1 && holderListener != null) holderListener.accept(username, true);
+        totalActive++;
+    }
+
+    public synchronized void remove(String username, String code, LocalDate expiry) {
+        String key = username + "," + code + "," + expiry.toEpochDay();
+        if (!live.containsKey(key)) return;
+        decrement(live, key);
+        release(username);
+        totalActive--;
+    }
+
+    // Moves every voucher that expired before today out of the active counts and into the
+    // pending list the compactor drains.
+    private void expireDue() {
+        long today = LocalDate.now().toEpochDay();
+        while (!byExpiry.isEmpty() && byExpiry.peek().expiryDay() < today) {
+            Entry e = byExpiry.poll();
+            if (!live.containsKey(e.key())) continue;
+            decrement(live, e.key());
+            release(e.username());
+            totalActive--;
+            pendingExpired.add(e);
+        }
+        // Drop redeemed entries left at the head so the heap does not hold them until expiry.
+        while (!byExpiry.isEmpty() && !live.containsKey(byExpiry.peek().key())) byExpiry.poll();
+    }
+
+    public synchronized List<Entry> drainExpired() {
+        expireDue();
+        List<Entry> expired = new ArrayList<>(pendingExpired);
+        pendingExpired.clear();
+        return expired;
+    }
+
+    public synchronized int getActiveCount() {
+        expireDue();
+        return totalActive;
+    }
+
+    public synchronized int getActiveCount(String username) {
+        expireDue();
+        return activeByUser.getOrDefault(username, 0);
+    }
+
+    public synchronized void clear() {
+        if (holderListener != null) for (String username : activeByUser.keySet()) holderListener.accept(username, false);
+        byExpiry.clear();
+        live.clear();
+        activeByUser.clear();
+        pendingExpired.clear();
+        totalActive = 0;
+    }
+
+    private void release(String username) {
+        decrement(activeByUser, username);
+        if (!activeByUser.containsKey(username) && holderListener != null) holderListener.accept(username, false);
+    }
+
+    private static void decrement(Map<String, Integer> map, String key) {
+        map.computeIfPresent(key, (k, v) -> v <= 1 ? null : v - 1);
+    }
+}
@@ -1,28 +1,152 @@
 package azurewallet.models;
 
-import java.io.*;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
+import azurewallet.storage.VoucherStore;
 import azurewallet.system.FileManager;
+import azurewallet.system.IdBitmap;
+import azurewallet.system.Ledger;
+import azurewallet.system.SegmentIndex;
 
 public class VoucherSystem {
-    private static final String VOUCHERS_FILE = "src/azurewallet/data/vouchers.txt";
+    private static final Object FILE_LOCK = new Object();
+    private static VoucherStore store;
+    private static VoucherIndex index;
+    private static ScheduledExecutorService compactor;
+    private static BiConsumer<String, Boolean> holderListener;
+    private static final int ISSUE_CHUNK = 10_000;
+
+    // Called once by FileManager with the storage backend's voucher store.
+    public static synchronized void init(VoucherStore voucherStore) {
+        store = voucherStore;
+        index = null;
+    }
+
+    // =============== EXPIRY INDEX ===============
+    private static synchronized VoucherIndex index() {
+        if (index == null) {
+            index = new VoucherIndex();
+            index.setHolderListener(holderListener);
+            reloadIndex();
+        }
+        return index;
+    }
+
+    // Told when a user starts or stops holding any active voucher (feeds the segment index).
+    public static synchronized void setHolderListener(BiConsumer<String, Boolean> listener) {
+        holderListener = listener;
+        if (index != null) index.setHolderListener(listener);
+    }
+
+    public static void reloadIndex() {
+        VoucherIndex idx = index();
+        synchronized (FILE_LOCK) {
+            idx.clear();
+            try {
+                store.forEach(line -> {
+                    String[] p = line.split(",");
+                    if (p.length == 4) idx.add(p[0], p[1], Double.parseDouble(p[2]), LocalDate.parse(p[3]));
+                });
+            } catch (RuntimeException e) {
+                System.out.println("Error indexing vouchers.");
+            }
+        }
+    }
+
+    public static int getActiveVoucherCount() {
+        return index().getActiveCount();
+    }
+
+    public static int countActiveVouchers(String username) {
+        return index().getActiveCount(username);
+    }
+
+    // =============== BACKGROUND COMPACTION ===============
+    public static synchronized void startCompactor(FileManager fileManager, long intervalMinutes) {
+        if (compactor != null) return;
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "voucher-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(() -> compactExpired(fileManager), 0, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    // Drops expired vouchers from the voucher store and logs each one. Returns how many were removed.
+    public static int compactExpired(FileManager fileManager) {
+        List<VoucherIndex.Entry> expired = index().drainExpired();
+        if (expired.isEmpty()) return 0;
+        Set<String> expiredKeys = new HashSet<>();
+        for (VoucherIndex.Entry e : expired) expiredKeys.add(e.username() + "," + e.code() + "," + LocalDate.ofEpochDay(e.expiryDay()));
+
+        int removed;
+        synchronized (FILE_LOCK) {
+            try {
+                removed = store.retain(line -> {
+                    String[] p = line.split(",");
+                    return p.length != 4 || !expiredKeys.contains(p[0] + "," + p[1] + "," + p[3]);
+                });
+            } catch (RuntimeException e) {
+                System.out.println("Error compacting vouchers.");
+                return 0;
+            }
+        }
+        for (VoucherIndex.Entry e : expired) fileManager.logVoucherExpired(e.username(), e.code(), e.value());
+        return removed;
+    }
 
     // =============== VOUCHER GENERATION ===============
-    public static void generateMonthlyVouchers(Map<String, UserAccount> users) {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(VOUCHERS_FILE, true))) {
-            for (UserAccount u : users.values()) {
-                double value = getVoucherValueByRank(u.getRank());
-                String code = generateVoucherCode(u.getUsername());
-                pw.println(u.getUsername() + "," + code + "," + value + "," + LocalDate.now().plusMonths(1));
+    // Streams each rank's ids out of the segment index, so no account is paged in to read its rank.
+    public static void generateMonthlyVouchers(SegmentIndex segments) {
+        LocalDate expiry = LocalDate.now().plusMonths(1);
+        for (String rank : SegmentIndex.RANKS) {
+            issue(segments, segments.rank(rank), id -> generateVoucherCode(segments.nameOf(id)),
+                id -> getVoucherValueByRank(rank), expiry, "Error generating vouchers.");
+        }
+    }
+
+    // Vouchers for a campaign segment. A value of zero or less picks the value by rank.
+    public static int generateSegmentVouchers(SegmentIndex segments, IdBitmap targets, double value, int validDays) {
+        return issue(segments, targets, id -> generateVoucherCode(segments.nameOf(id)),
+            id -> value > 0 ? value : getVoucherValueByRank(segments.rankOf(id)),
+            LocalDate.now().plusDays(validDays), "Error generating campaign vouchers.");
+    }
+
+    // Writes one voucher per target id to the store in chunks; returns how many were written.
+    private static int issue(SegmentIndex segments, IdBitmap targets, IntFunction<String> code, IntToDoubleFunction value,
+                             LocalDate expiry, String error) {
+        VoucherIndex idx = index();
+        int[] issued = { 0 };
+        synchronized (FILE_LOCK) {
+            List<String> lines = new ArrayList<>(Math.min(ISSUE_CHUNK, targets.cardinality()));
+            try {
+                targets.forEach(id -> {
+                    String username = segments.nameOf(id);
+                    String c = code.apply(id);
+                    double v = value.applyAsDouble(id);
+                    lines.add(username + "," + c + "," + v + "," + expiry);
+                    idx.add(username, c, v, expiry);
+                    if (lines.size() == ISSUE_CHUNK) {
+                        store.append(lines);
+                        issued[0] += lines.size();
+                        lines.clear();
+                    }
+                });
+                if (!lines.isEmpty()) store.append(lines);
+                issued[0] += lines.size();
+            } catch (RuntimeException e) {
+                System.out.println(error);
             }
-        } catch (IOException e) {
-            System.out.println("Error generating vouchers.");
         }
+        return issued[0];
     }
 
     // =============== HOLIDAY's VOUCHER ===============
-    public static void generateHolidayVoucher(Map<String, UserAccount> users) {
+    public static void generateHolidayVoucher(SegmentIndex segments) {
         LocalDate today = LocalDate.now();
         String key = String.format("%02d-%02d", today.getMonthValue(), today.getDayOfMonth());
         Map<String, String> HOLIDAYS = Map.of(
@@ -38,15 +162,9 @@ public class VoucherSystem {
 
         if (HOLIDAYS.containsKey(key)) {
             String holidayCode = HOLIDAYS.get(key) + today.getYear();
-            try (PrintWriter pw = new PrintWriter(new FileWriter(VOUCHERS_FILE, true))) {
-                for (UserAccount u : users.values()) {
-                    double value = getHolidayVoucherValue(u.getRank());
-                    pw.println(u.getUsername() + "," + holidayCode + "," + value + "," + today.plusMonths(1));
-                }
-                System.out.println("Holiday voucher '" + holidayCode + "' generated for all users!");
-            } catch (IOException e) {
-                System.out.println("Error generating holiday vouchers.");
-            }
+            int issued = issue(segments, segments.all(), id -> holidayCode,
+                id -> getHolidayVoucherValue(segments.rankOf(id)), today.plusMonths(1), "Error generating holiday vouchers.");
+            if (issued > 0) System.out.println("Holiday voucher '" + holidayCode + "' generated for all users!");
         }
     }
 
@@ -61,42 +179,47 @@ public class VoucherSystem {
 
     // =============== EXISTING REDEEM ===============
     public static double redeemVoucher(UserAccount user, String code, FileManager fileManager) {
-        List<String> lines = new ArrayList<>();
-        double value = 0.0;
-        boolean found = false;
+        VoucherIndex idx = index();
+        synchronized (FILE_LOCK) {
+            List<String> matches = new ArrayList<>();
+            try {
+                store.forEach(line -> {
+                    String[] p = line.split(",");
+                    if (p.length == 4 && p[0].equals(user.getUsername()) && p[1].equals(code)) matches.add(line);
+                });
+            } catch (RuntimeException e) {
+                System.out.println("Error redeeming voucher.");
+                return 0.0;
+            }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(VOUCHERS_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
+            Set<String> redeemed = new HashSet<>();
+            double value = 0.0;
+            for (String line : matches) {
                 String[] p = line.split(",");
-                if (p.length == 4 && p[0].equals(user.getUsername()) && p[1].equals(code)) {
-                    LocalDate expiry = LocalDate.parse(p[3]);
-                    if (expiry.isBefore(LocalDate.now())) {
-                        System.out.println("Voucher expired.");
-                        lines.add(line);
-                        continue;
-                    }
-                    value = Double.parseDouble(p[2]);
-                    found = true;
-                    user.deposit(value);
-                    fileManager.logVoucher(user.getUsername(), code, value);
-                } else {
-                    lines.add(line);
+                LocalDate expiry = LocalDate.parse(p[3]);
+                if (expiry.isBefore(LocalDate.now())) {
+                    System.out.println("Voucher expired.");
+                    continue;
                 }
+                value = Double.parseDouble(p[2]);
+                redeemed.add(line);
+                user.deposit(value);
+                idx.remove(user.getUsername(), code, expiry);
+                fileManager.getLedger().post(Ledger.Type.VOUCHER, Ledger.Unit.PHP, Ledger.VOUCHER_EXPENSE, Ledger.user(user.getUsername()), value, code);
+                fileManager.logVoucher(user.getUsername(), code, value);
+                fileManager.getSegments().voucherRedeemed(user.getUsername());
             }
-        } catch (IOException e) {
-            System.out.println("Error redeeming voucher.");
-        }
 
-        if (found) {
-            try (PrintWriter pw = new PrintWriter(new FileWriter(VOUCHERS_FILE))) {
-                for (String l : lines) pw.println(l);
-            } catch (IOException e) {
-                System.out.println("Error updating vouchers.");
+            if (!redeemed.isEmpty()) {
+                try {
+                    store.retain(line -> !redeemed.contains(line));
+                } catch (RuntimeException e) {
+                    System.out.println("Error updating vouchers.");
+                }
             }
-        }
 
-        return value;
+            return value;
+        }
     }
 
     // =============== VALUE ===============
@@ -0,0 +1,160 @@
+package azurewallet.storage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import azurewallet.models.UserAccount;
+
+// Text account store: users.txt plus an in-memory username -> byte offset index.
+// Updated accounts are appended and the index is repointed (the last record for a
+// username wins, same as loadUsers), so a single write-back never rewrites the file.
+// Records are written as RecordFrames; a record whose frame does not check out is not
+// indexed, so an older intact record of that account wins instead. Reads and writes share
+// one file handle and are synchronized, since some callers reach the store outside the cache.
+public class AccountFileStore implements AccountStore {
+    private final File file;
+    private final Map<String, Long> offsets = new LinkedHashMap<>();
+    private long staleRecords;
+    private RandomAccessFile handle;
+
+    public AccountFileStore(String path) {
+        this.file = new File(path);
+        rebuildIndex();
+    }
+
+    // ====================== INDEX ======================
+
+    private void rebuildIndex() {
+        offsets.clear();
+        staleRecords = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+            long pos = 0;
+            long lineStart = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                pos++;
+                if (b == '\n') {
+                    indexLine(buf, lineStart);
+                    buf.reset();
+                    lineStart = pos;
+                } else if (b != '\r') {
+                    buf.write(b);
+                }
+            }
+            if (buf.size() > 0) indexLine(buf, lineStart);
+        } catch (IOException e) {
+            System.out.println("| Error indexing users.                                   |");
+        }
+    }
+
+    private void indexLine(ByteArrayOutputStream buf, long lineStart) {
+        String line = RecordFrame.decode(buf.toString(StandardCharsets.UTF_8));
+        if (line == null) return;
+        int comma = line.indexOf(',');
+        if (comma <= 0 || line.split(",").length < 9) return;
+        if (offsets.put(line.substring(0, comma), lineStart) != null) staleRecords++;
+    }
+
+    public synchronized boolean contains(String username) { return offsets.containsKey(username); }
+    public synchronized int size() { return offsets.size(); }
+    public synchronized long getStaleRecords() { return staleRecords; }
+    public synchronized List<String> usernames() { return new ArrayList<>(offsets.keySet()); }
+
+    // ====================== RECORD ACCESS ======================
+
+    // Page-ins and write-backs share one open handle; it is reopened after compaction.
+    private RandomAccessFile handle() throws IOException {
+        if (handle == null) handle = new RandomAccessFile(file, "rw");
+        return handle;
+    }
+
+    private void closeHandle() {
+        if (handle == null) return;
+        try {
+            handle.close();
+        } catch (IOException ignored) {}
+        handle = null;
+    }
+
+    public synchronized UserAccount read(String username) {
+        Long offset = offsets.get(username);
+        if (offset == null) return null;
+        try {
+            RandomAccessFile raf = handle();
+            raf.seek(offset);
+            String line = RecordFrame.decode(readLine(raf));
+            if (line == null) {
+                System.out.println("| Corrupt account record for " + username);
+                return null;
+            }
+            return UserAccount.fromFileFormat(line);
+        } catch (IOException e) {
+            System.out.println("| Error paging in user " + username);
+            return null;
+        }
+    }
+
+    private String readLine(RandomAccessFile raf) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+        byte[] chunk = new byte[256];
+        int n;
+        outer:
+        while ((n = raf.read(chunk)) > 0) {
+            for (int i = 0; i < n; i++) {
+                if (chunk[i] == '\n') break outer;
+                if (chunk[i] != '\r') buf.write(chunk[i]);
+            }
+        }
+        return buf.toString(StandardCharsets.UTF_8);
+    }
+
+    public synchronized void write(UserAccount acc) {
+        byte[] line = (RecordFrame.encode(acc.toFileFormat()) + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            RandomAccessFile raf = handle();
+            long offset = raf.length();
+            raf.seek(offset);
+            raf.write(line);
+            if (offsets.put(acc.getUsername(), offset) != null) staleRecords++;
+        } catch (IOException e) {
+            System.out.println("| Error writing back user " + acc.getUsername());
+        }
+    }
+
+    public synchronized void remove(String username) {
+        if (offsets.remove(username) != null) compact();
+    }
+
+    public synchronized void clear() {
+        closeHandle();
+        try (PrintWriter pw = new PrintWriter(file)) {
+            pw.print("");
+        } catch (IOException e) {
+            System.out.println("| Error clearing users.                                   |");
+        }
+        offsets.clear();
+        staleRecords = 0;
+    }
+
+    // Rewrites the file with only the live record of each account.
+    public synchronized void compact() {
+        closeHandle();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+             RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (long offset : offsets.values()) {
+                raf.seek(offset);
+                pw.print(readLine(raf) + "\n");
+            }
+        } catch (IOException e) {
+            System.out.println("| Error compacting users.                                 |");
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            System.out.println("| Error replacing users file.                             |");
+            return;
+        }
+        rebuildIndex();
+    }
+}
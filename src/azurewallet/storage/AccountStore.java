@@ -0,0 +1,20 @@
+package azurewallet.storage;
+
+import java.util.List;
+import azurewallet.models.UserAccount;
+
+// Durable home of account records; the cold tier behind AccountCache.
+public interface AccountStore {
+    boolean contains(String username);
+    UserAccount read(String username);
+    void write(UserAccount acc);
+    void remove(String username);
+    void clear();
+    int size();
+    List<String> usernames();
+
+    // Superseded records still occupying space; stores that update in place report 0.
+    default long getStaleRecords() { return 0; }
+
+    default void compact() { }
+}
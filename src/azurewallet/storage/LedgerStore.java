@@ -0,0 +1,27 @@
+package azurewallet.storage;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+// Append-only posting log plus the latest snapshot. Positions are opaque to callers: they
+// come from position() and are only handed back to readFrom().
+public interface LedgerStore {
+    // Appends all records as one write; returns false if nothing was written.
+    boolean append(List<String> records);
+    long position();
+    // Records starting in [from, to); to is a position() taken earlier, or Long.MAX_VALUE.
+    // A record that fails its checksum is passed as null.
+    void readRange(long from, long to, Consumer<String> action);
+    boolean isEmpty();
+
+    default void readFrom(long position, Consumer<String> action) {
+        readRange(position, Long.MAX_VALUE, action);
+    }
+
+    // Null when no snapshot has been written yet.
+    List<String> readSnapshot();
+    boolean writeSnapshot(List<String> lines);
+    void deleteSnapshot();
+
+    void clear();
+}
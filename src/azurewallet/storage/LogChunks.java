@@ -0,0 +1,58 @@
+package azurewallet.storage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+// Splits a line-oriented log into byte ranges that can be scanned independently.
+// A range owns every line that starts inside it, so adjacent ranges never overlap.
+public class LogChunks {
+
+    public record Chunk(File file, long start, long end) {}
+
+    public static List<Chunk> split(File file, long chunkSize) {
+        List<Chunk> chunks = new ArrayList<>();
+        long length = file.length();
+        for (long start = 0; start < length; start += chunkSize) {
+            chunks.add(new Chunk(file, start, Math.min(length, start + chunkSize)));
+        }
+        return chunks;
+    }
+
+    public static void forEachLine(Chunk chunk, Consumer<String> action) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(chunk.file(), "r")) {
+            long pos = chunk.start();
+            if (pos > 0) {
+                // Skip the tail of a line owned by the previous chunk.
+                raf.seek(pos - 1);
+                if (raf.read() != '\n') pos = skipLine(raf);
+            }
+            raf.seek(pos);
+            byte[] buf = new byte[64 * 1024];
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            long lineStart = pos;
+            int n;
+            while (lineStart < chunk.end() && (n = raf.read(buf)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    pos++;
+                    if (buf[i] == '\n') {
+                        action.accept(line.toString(StandardCharsets.UTF_8));
+                        line.reset();
+                        lineStart = pos;
+                        if (lineStart >= chunk.end()) break;
+                    } else if (buf[i] != '\r') {
+                        line.write(buf[i]);
+                    }
+                }
+            }
+            if (line.size() > 0 && lineStart < chunk.end()) action.accept(line.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static long skipLine(RandomAccessFile raf) throws IOException {
+        int b;
+        while ((b = raf.read()) != -1 && b != '\n') { }
+        return raf.getFilePointer();
+    }
+}
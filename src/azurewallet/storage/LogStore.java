@@ -0,0 +1,50 @@
+package azurewallet.storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Named append-only logs (transactions.txt, points_log.txt, admin_log.txt, ...). The key is
+// the username for per-user logs and lets a backend route them (e.g. to a shard); it is
+// null for global logs. Appends return positions: opaque backend handles that readAt()
+// turns back into the record with a single seek.
+public interface LogStore {
+
+    record LogLine(String key, String line) {}
+
+    // A slice of a log that can be scanned independently of the others.
+    interface Segment {
+        void forEachLine(Consumer<String> action) throws IOException;
+    }
+
+    long append(String log, String key, String line);
+
+    // Positions line up with the input lines.
+    long[] appendAll(String log, List<LogLine> lines);
+
+    // Null if there is no record at that position.
+    String readAt(String log, long position);
+
+    // Visits every line of the log; with a key, backends may skip partitions that cannot
+    // hold that user's records.
+    void forEach(String log, String key, Consumer<String> action);
+
+    List<Segment> segments(String log, long chunkSize);
+    String lastLine(String log);
+    void clear(String log);
+
+    // Logs both legs of a transfer with one write and only then applies the balance change.
+    // If that fails the legs are undone with the reversal lines and the error is rethrown.
+    // Returns the positions of the two legs.
+    default long[] commitTransfer(String log, long txnId, double amount, String from, String fromLine, String fromReversal,
+                                  String to, String toLine, String toReversal, Runnable applyBalances) {
+        long[] positions = appendAll(log, List.of(new LogLine(from, fromLine), new LogLine(to, toLine)));
+        try {
+            applyBalances.run();
+        } catch (RuntimeException e) {
+            appendAll(log, List.of(new LogLine(from, fromReversal), new LogLine(to, toReversal)));
+            throw e;
+        }
+        return positions;
+    }
+}
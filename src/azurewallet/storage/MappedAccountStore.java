@@ -0,0 +1,183 @@
+package azurewallet.storage;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import azurewallet.models.UserAccount;
+
+// Memory-mapped account file of fixed 2048-byte slots, each [short length][UTF-8 account
+// line]; length 0 marks a free slot. An account keeps its slot for life, so a write-back
+// is one in-place copy and the file never needs compacting. Removed slots are reused.
+// A record too long for one slot is chained: the head slot holds [-1][int total length]
+// [int next slot] and each further slot [-2][int next slot], followed by the next part of
+// the line. Chains grow and shrink with the record.
+public class MappedAccountStore implements AccountStore {
+    public static final int SLOT_SIZE = 2048;
+    private static final int GROWTH_SLOTS = 1024;
+    private static final short CHAIN_HEAD = -1;
+    private static final short CHAIN_NEXT = -2;
+    private static final int HEAD_DATA = 10;
+    private static final int NEXT_DATA = 6;
+
+    private final Path path;
+    private final Map<String, Integer> slots = new LinkedHashMap<>();
+    private final ArrayDeque<Integer> free = new ArrayDeque<>();
+    private FileChannel channel;
+    private MappedByteBuffer buf;
+
+    public MappedAccountStore(Path path) {
+        this.path = path;
+        try {
+            Files.createDirectories(path.getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long slotCount = Math.max(GROWTH_SLOTS, channel.size() / SLOT_SIZE);
+            buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, slotCount * SLOT_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        rebuildIndex();
+    }
+
+    private int slotCount() { return buf.capacity() / SLOT_SIZE; }
+
+    // Continuation slots are in use only if a readable head reaches them; any others were
+    // left behind by an interrupted write and are free.
+    private void rebuildIndex() {
+        slots.clear();
+        free.clear();
+        boolean[] used = new boolean[slotCount()];
+        for (int slot = 0; slot < slotCount(); slot++) {
+            if (buf.getShort(slot * SLOT_SIZE) == CHAIN_NEXT) continue;
+            String line = readSlot(slot);
+            int comma = line == null ? -1 : line.indexOf(',');
+            if (comma <= 0) continue;
+            slots.put(line.substring(0, comma), slot);
+            for (int s : chainOf(slot)) used[s] = true;
+        }
+        for (int slot = 0; slot < used.length; slot++) if (!used[slot]) free.add(slot);
+    }
+
+    private String readSlot(int slot) {
+        int base = slot * SLOT_SIZE;
+        int len = buf.getShort(base);
+        if (len == CHAIN_HEAD) return readChain(slot);
+        if (len <= 0 || len > SLOT_SIZE - 2) return null;
+        byte[] bytes = new byte[len];
+        buf.get(base + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String readChain(int head) {
+        List<Integer> chain = chainOf(head);
+        int total = buf.getInt(head * SLOT_SIZE + 2);
+        if (chain.size() != slotsFor(total)) return null;
+        byte[] bytes = new byte[total];
+        int n = Math.min(total, SLOT_SIZE - HEAD_DATA);
+        buf.get(head * SLOT_SIZE + HEAD_DATA, bytes, 0, n);
+        for (int i = 1; i < chain.size(); i++) {
+            int k = Math.min(total - n, SLOT_SIZE - NEXT_DATA);
+            buf.get(chain.get(i) * SLOT_SIZE + NEXT_DATA, bytes, n, k);
+            n += k;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // The slots holding the record that starts at head, following next pointers for as long
+    // as they lead to continuation slots.
+    private List<Integer> chainOf(int head) {
+        List<Integer> chain = new ArrayList<>();
+        chain.add(head);
+        int base = head * SLOT_SIZE;
+        if (buf.getShort(base) != CHAIN_HEAD) return chain;
+        int total = buf.getInt(base + 2);
+        int next = buf.getInt(base + 6);
+        long covered = SLOT_SIZE - HEAD_DATA;
+        while (covered < total && next >= 0 && next < slotCount() && chain.size() <= slotCount()
+                && buf.getShort(next * SLOT_SIZE) == CHAIN_NEXT) {
+            chain.add(next);
+            covered += SLOT_SIZE - NEXT_DATA;
+            next = buf.getInt(next * SLOT_SIZE + 2);
+        }
+        return chain;
+    }
+
+    private static int slotsFor(int length) {
+        if (length <= SLOT_SIZE - 2) return 1;
+        int rest = length - (SLOT_SIZE - HEAD_DATA);
+        return 1 + (rest + SLOT_SIZE - NEXT_DATA - 1) / (SLOT_SIZE - NEXT_DATA);
+    }
+
+    public synchronized boolean contains(String username) { return slots.containsKey(username); }
+    public synchronized int size() { return slots.size(); }
+    public synchronized List<String> usernames() { return new ArrayList<>(slots.keySet()); }
+
+    public synchronized UserAccount read(String username) {
+        Integer slot = slots.get(username);
+        return slot == null ? null : UserAccount.fromFileFormat(readSlot(slot));
+    }
+
+    public synchronized void write(UserAccount acc) {
+        byte[] bytes = acc.toFileFormat().getBytes(StandardCharsets.UTF_8);
+        Integer head = slots.get(acc.getUsername());
+        List<Integer> chain = head == null ? new ArrayList<>() : chainOf(head);
+        int needed = slotsFor(bytes.length);
+        while (chain.size() < needed) {
+            if (free.isEmpty()) grow();
+            chain.add(free.poll());
+        }
+        while (chain.size() > needed) release(chain.remove(chain.size() - 1));
+        slots.put(acc.getUsername(), chain.get(0));
+
+        int base = chain.get(0) * SLOT_SIZE;
+        if (needed == 1) {
+            buf.put(base + 2, bytes);
+            buf.putShort(base, (short) bytes.length);
+            return;
+        }
+        // Continuations first and the head last, so the head never leads into unwritten slots.
+        int offset = SLOT_SIZE - HEAD_DATA;
+        for (int i = 1; i < needed; i++) {
+            int part = chain.get(i) * SLOT_SIZE;
+            int k = Math.min(bytes.length - offset, SLOT_SIZE - NEXT_DATA);
+            buf.put(part + NEXT_DATA, bytes, offset, k);
+            buf.putInt(part + 2, i + 1 < needed ? chain.get(i + 1) : -1);
+            buf.putShort(part, CHAIN_NEXT);
+            offset += k;
+        }
+        buf.put(base + HEAD_DATA, bytes, 0, SLOT_SIZE - HEAD_DATA);
+        buf.putInt(base + 2, bytes.length);
+        buf.putInt(base + 6, chain.get(1));
+        buf.putShort(base, CHAIN_HEAD);
+    }
+
+    private void release(int slot) {
+        buf.putShort(slot * SLOT_SIZE, (short) 0);
+        free.add(slot);
+    }
+
+    private void grow() {
+        int from = slotCount();
+        try {
+            buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) (from + GROWTH_SLOTS) * SLOT_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (int slot = from; slot < slotCount(); slot++) free.add(slot);
+    }
+
+    public synchronized void remove(String username) {
+        Integer slot = slots.remove(username);
+        if (slot == null) return;
+        for (int s : chainOf(slot)) release(s);
+    }
+
+    public synchronized void clear() {
+        for (int head : slots.values()) {
+            for (int s : chainOf(head)) buf.putShort(s * SLOT_SIZE, (short) 0);
+        }
+        rebuildIndex();
+    }
+}
@@ -0,0 +1,156 @@
+package azurewallet.storage;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+// Memory-mapped append-only record file: an 8-byte header holding the committed length,
+// then [int length][UTF-8 bytes] records. The header is updated only after a batch of
+// records is in place, so a torn append is simply ignored on the next open. The mapping
+// doubles whenever an append would run past it. Positions are byte offsets of records.
+class MappedLog {
+    static final int HEADER = 8;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private final Path path;
+    private FileChannel channel;
+    private volatile MappedByteBuffer buf;
+    private volatile long committed;
+
+    MappedLog(Path path) {
+        this.path = path;
+        open();
+    }
+
+    private void open() {
+        try {
+            Files.createDirectories(path.getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            map(Math.max(INITIAL_CAPACITY, channel.size()));
+            committed = buf.getLong(0);
+            if (committed < HEADER || committed > buf.capacity()) {
+                committed = HEADER;
+                buf.putLong(0, committed);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void map(long capacity) throws IOException {
+        if (capacity > Integer.MAX_VALUE) throw new IOException(path + " is larger than one mapping");
+        buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    long committed() { return committed; }
+    boolean isEmpty() { return committed == HEADER; }
+
+    // Returns the position of each record.
+    synchronized long[] append(List<String> records) {
+        List<byte[]> encoded = new ArrayList<>(records.size());
+        long needed = committed;
+        for (String record : records) {
+            byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            needed += 4 + bytes.length;
+        }
+        try {
+            if (needed > buf.capacity()) {
+                long capacity = buf.capacity();
+                while (capacity < needed) capacity *= 2;
+                map(capacity);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long[] positions = new long[encoded.size()];
+        int pos = (int) committed;
+        for (int i = 0; i < positions.length; i++) {
+            byte[] bytes = encoded.get(i);
+            positions[i] = pos;
+            buf.putInt(pos, bytes.length);
+            buf.put(pos + 4, bytes);
+            pos += 4 + bytes.length;
+        }
+        committed = pos;
+        buf.putLong(0, committed);
+        return positions;
+    }
+
+    String readAt(long position) {
+        long end = committed;
+        MappedByteBuffer view = buf;
+        if (position < HEADER || position + 4 > end) return null;
+        int len = view.getInt((int) position);
+        if (len < 0 || position + 4 + len > end) return null;
+        byte[] bytes = new byte[len];
+        view.get((int) position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Visits the records starting in [from, to).
+    void read(long from, long to, Consumer<String> action) {
+        // Read committed before buf: appends remap before they publish a new length.
+        int end = (int) Math.min(to, committed);
+        MappedByteBuffer view = buf;
+        int pos = (int) Math.max(from, HEADER);
+        while (pos < end) {
+            int len = view.getInt(pos);
+            byte[] bytes = new byte[len];
+            view.get(pos + 4, bytes);
+            action.accept(new String(bytes, StandardCharsets.UTF_8));
+            pos += 4 + len;
+        }
+    }
+
+    // Record-aligned split points roughly chunkSize bytes apart, ending with committed().
+    List<Long> boundaries(long chunkSize) {
+        long end = committed;
+        MappedByteBuffer view = buf;
+        List<Long> points = new ArrayList<>();
+        long pos = HEADER;
+        long next = HEADER;
+        points.add(pos);
+        while (pos < end) {
+            pos += 4 + view.getInt((int) pos);
+            if (pos - next >= chunkSize && pos < end) {
+                points.add(pos);
+                next = pos;
+            }
+        }
+        points.add(end);
+        return points;
+    }
+
+    synchronized void clear() {
+        committed = HEADER;
+        buf.putLong(0, committed);
+    }
+
+    // Replaces the whole contents by writing a new file and moving it over this one.
+    synchronized void rewrite(List<String> records) {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.deleteIfExists(tmp);
+            MappedLog fresh = new MappedLog(tmp);
+            fresh.append(records);
+            fresh.buf.force();
+            fresh.close();
+            close();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        open();
+    }
+
+    synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,167 @@
+package azurewallet.storage;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Memory-mapped backend under DATA_DIR/mmap/: fixed-slot accounts (MappedAccountStore) and
+// length-prefixed record files (MappedLog) for the ledger, its snapshot, vouchers and logs.
+// Writes are plain memory stores into the page cache; the OS writes them back.
+public class MappedStorage implements Storage {
+    private final String dir;
+    private final MappedAccountStore accounts;
+    private final MappedLedgerStore ledger;
+    private final MappedVoucherStore vouchers;
+    private final MappedLogStore logs;
+
+    public MappedStorage(String dir) {
+        this.dir = dir;
+        new File(dir).mkdirs();
+        this.accounts = new MappedAccountStore(path("accounts.dat"));
+        this.ledger = new MappedLedgerStore(new MappedLog(path("ledger.dat")), new MappedLog(path("ledger_snapshot.dat")));
+        this.vouchers = new MappedVoucherStore(new MappedLog(path("vouchers.dat")));
+        this.logs = new MappedLogStore();
+    }
+
+    private Path path(String name) {
+        return Path.of(dir, name);
+    }
+
+    public String name() { return "mmap"; }
+    public List<AccountStore> accountStores() { return List.of(accounts); }
+    public LedgerStore ledgerStore() { return ledger; }
+    public VoucherStore voucherStore() { return vouchers; }
+    public LogStore logStore() { return logs; }
+
+    public void clearAll() {
+        accounts.clear();
+        ledger.clear();
+        vouchers.clear();
+        logs.clearAll();
+    }
+
+    // The snapshot file holds its lines as records; an empty one means "no snapshot".
+    static class MappedLedgerStore implements LedgerStore {
+        private final MappedLog postings;
+        private final MappedLog snapshot;
+
+        MappedLedgerStore(MappedLog postings, MappedLog snapshot) {
+            this.postings = postings;
+            this.snapshot = snapshot;
+        }
+
+        public boolean append(List<String> records) {
+            postings.append(records);
+            return true;
+        }
+
+        public long position() { return postings.committed(); }
+        public boolean isEmpty() { return postings.isEmpty(); }
+
+        public void readRange(long from, long to, Consumer<String> action) {
+            postings.read(from, to, action);
+        }
+
+        public List<String> readSnapshot() {
+            if (snapshot.isEmpty()) return null;
+            List<String> lines = new ArrayList<>();
+            snapshot.read(0, Long.MAX_VALUE, lines::add);
+            return lines;
+        }
+
+        public boolean writeSnapshot(List<String> lines) {
+            snapshot.rewrite(lines);
+            return true;
+        }
+
+        public void deleteSnapshot() { snapshot.clear(); }
+
+        public void clear() {
+            postings.clear();
+            snapshot.clear();
+        }
+    }
+
+    static class MappedVoucherStore implements VoucherStore {
+        private final MappedLog log;
+
+        MappedVoucherStore(MappedLog log) {
+            this.log = log;
+        }
+
+        public void append(List<String> lines) { log.append(lines); }
+
+        public void forEach(Consumer<String> action) {
+            log.read(0, Long.MAX_VALUE, action);
+        }
+
+        public int retain(Predicate<String> keep) {
+            synchronized (log) {
+                List<String> kept = new ArrayList<>();
+                int[] removed = {0};
+                log.read(0, Long.MAX_VALUE, line -> {
+                    if (keep.test(line)) kept.add(line);
+                    else removed[0]++;
+                });
+                if (removed[0] > 0) log.rewrite(kept);
+                return removed[0];
+            }
+        }
+
+        public void clear() { log.clear(); }
+    }
+
+    // One mapped file per log name (transactions.txt -> logs/transactions.dat).
+    class MappedLogStore implements LogStore {
+        private final Map<String, MappedLog> open = new HashMap<>();
+
+        private synchronized MappedLog log(String name) {
+            return open.computeIfAbsent(name, k -> new MappedLog(path("logs/" + k.replace(".txt", "") + ".dat")));
+        }
+
+        public long append(String log, String key, String line) { return log(log).append(List.of(line))[0]; }
+
+        public long[] appendAll(String log, List<LogLine> lines) {
+            List<String> records = new ArrayList<>(lines.size());
+            for (LogLine l : lines) records.add(l.line());
+            return log(log).append(records);
+        }
+
+        public String readAt(String log, long position) { return log(log).readAt(position); }
+
+        public void forEach(String log, String key, Consumer<String> action) {
+            log(log).read(0, Long.MAX_VALUE, action);
+        }
+
+        public List<Segment> segments(String log, long chunkSize) {
+            MappedLog mapped = log(log);
+            List<Long> points = mapped.boundaries(chunkSize);
+            List<Segment> segments = new ArrayList<>();
+            for (int i = 0; i + 1 < points.size(); i++) {
+                long from = points.get(i);
+                long to = points.get(i + 1);
+                if (from < to) segments.add(action -> mapped.read(from, to, action));
+            }
+            return segments;
+        }
+
+        public String lastLine(String log) {
+            String[] last = {null};
+            log(log).read(0, Long.MAX_VALUE, line -> last[0] = line);
+            return last[0];
+        }
+
+        public void clear(String log) { log(log).clear(); }
+
+        synchronized void clearAll() {
+            File[] files = new File(dir, "logs").listFiles();
+            if (files != null) {
+                for (File f : files) open.computeIfAbsent(f.getName().replace(".dat", ".txt"),
+                    k -> new MappedLog(f.toPath()));
+            }
+            for (MappedLog l : open.values()) l.clear();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package azurewallet.storage;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import azurewallet.models.UserAccount;
+
+// Volatile backend: every store keeps its records on the heap and nothing survives a
+// restart. Useful for trying the app out and for timing the layers above storage.
+public class MemoryStorage implements Storage {
+    private final MemoryAccountStore accounts = new MemoryAccountStore();
+    private final MemoryLedgerStore ledger = new MemoryLedgerStore();
+    private final MemoryVoucherStore vouchers = new MemoryVoucherStore();
+    private final MemoryLogStore logs = new MemoryLogStore();
+
+    public String name() { return "memory"; }
+    public List<AccountStore> accountStores() { return List.of(accounts); }
+    public LedgerStore ledgerStore() { return ledger; }
+    public VoucherStore voucherStore() { return vouchers; }
+    public LogStore logStore() { return logs; }
+
+    public void clearAll() {
+        accounts.clear();
+        ledger.clear();
+        vouchers.clear();
+        logs.clearAll();
+    }
+
+    // Accounts are kept in file format so a read always hands out a fresh object, the same
+    // as paging in from disk.
+    static class MemoryAccountStore implements AccountStore {
+        private final Map<String, String> records = new LinkedHashMap<>();
+
+        public synchronized boolean contains(String username) { return records.containsKey(username); }
+
+        public synchronized UserAccount read(String username) {
+            String line = records.get(username);
+            return line == null ? null : UserAccount.fromFileFormat(line);
+        }
+
+        public synchronized void write(UserAccount acc) { records.put(acc.getUsername(), acc.toFileFormat()); }
+        public synchronized void remove(String username) { records.remove(username); }
+        public synchronized void clear() { records.clear(); }
+        public synchronized int size() { return records.size(); }
+        public synchronized List<String> usernames() { return new ArrayList<>(records.keySet()); }
+    }
+
+    // Positions are indexes into the posting list.
+    static class MemoryLedgerStore implements LedgerStore {
+        private final List<String> postings = new ArrayList<>();
+        private List<String> snapshot;
+
+        public synchronized boolean append(List<String> records) { return postings.addAll(records); }
+        public synchronized long position() { return postings.size(); }
+        public synchronized boolean isEmpty() { return postings.isEmpty(); }
+
+        public void readRange(long from, long to, Consumer<String> action) {
+            List<String> copy;
+            synchronized (this) {
+                int end = (int) Math.min(to, postings.size());
+                copy = new ArrayList<>(postings.subList((int) Math.min(from, end), end));
+            }
+            copy.forEach(action);
+        }
+
+        public synchronized List<String> readSnapshot() { return snapshot == null ? null : new ArrayList<>(snapshot); }
+
+        public synchronized boolean writeSnapshot(List<String> lines) {
+            snapshot = new ArrayList<>(lines);
+            return true;
+        }
+
+        public synchronized void deleteSnapshot() { snapshot = null; }
+
+        public synchronized void clear() {
+            postings.clear();
+            snapshot = null;
+        }
+    }
+
+    static class MemoryVoucherStore implements VoucherStore {
+        private final List<String> lines = new ArrayList<>();
+
+        public synchronized void append(List<String> added) { lines.addAll(added); }
+
+        public void forEach(Consumer<String> action) {
+            List<String> copy;
+            synchronized (this) {
+                copy = new ArrayList<>(lines);
+            }
+            copy.forEach(action);
+        }
+
+        public synchronized int retain(Predicate<String> keep) {
+            int before = lines.size();
+            lines.removeIf(keep.negate());
+            return before - lines.size();
+        }
+
+        public synchronized void clear() { lines.clear(); }
+    }
+
+    // Positions are line indexes. Segments are fixed runs of lines; the requested byte size
+    // is converted at a rough 128 bytes per line.
+    static class MemoryLogStore implements LogStore {
+        private final Map<String, List<String>> logs = new HashMap<>();
+
+        private List<String> log(String name) {
+            return logs.computeIfAbsent(name, k -> new ArrayList<>());
+        }
+
+        private synchronized List<String> copyOf(String name) {
+            return new ArrayList<>(log(name));
+        }
+
+        public synchronized long append(String log, String key, String line) {
+            List<String> target = log(log);
+            target.add(line);
+            return target.size() - 1;
+        }
+
+        public synchronized long[] appendAll(String log, List<LogLine> lines) {
+            List<String> target = log(log);
+            long[] positions = new long[lines.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = target.size();
+                target.add(lines.get(i).line());
+            }
+            return positions;
+        }
+
+        public synchronized String readAt(String log, long position) {
+            List<String> lines = log(log);
+            return position >= 0 && position < lines.size() ? lines.get((int) position) : null;
+        }
+
+        public void forEach(String log, String key, Consumer<String> action) {
+            copyOf(log).forEach(action);
+        }
+
+        public List<Segment> segments(String log, long chunkSize) {
+            List<String> lines = copyOf(log);
+            int perSegment = (int) Math.max(1, chunkSize / 128);
+            List<Segment> segments = new ArrayList<>();
+            for (int start = 0; start < lines.size(); start += perSegment) {
+                List<String> part = lines.subList(start, Math.min(lines.size(), start + perSegment));
+                segments.add(part::forEach);
+            }
+            return segments;
+        }
+
+        public synchronized String lastLine(String log) {
+            List<String> lines = log(log);
+            return lines.isEmpty() ? null : lines.get(lines.size() - 1);
+        }
+
+        public synchronized void clear(String log) { logs.remove(log); }
+        synchronized void clearAll() { logs.clear(); }
+    }
+}
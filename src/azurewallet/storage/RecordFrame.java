@@ -0,0 +1,59 @@
+package azurewallet.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+// Frame for one text record: "#LLLLLLLL:CCCCCCCC " before the payload, where L is the
+// payload's UTF-8 length and C its CRC32C, both in hex. Frames stay one per line, so byte
+// offsets, chunked scans and plain-text tools keep working. Lines written before framing
+// have no header and are passed through unchecked.
+public final class RecordFrame {
+    public static final int HEADER = 19;
+
+    public enum Check { VALID, UNFRAMED, CORRUPT }
+
+    private RecordFrame() {}
+
+    public static String encode(String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        return String.format("#%08x:%08x ", bytes.length, crc(bytes, 0, bytes.length)) + payload;
+    }
+
+    // The payload of a line, or null if its frame does not check out.
+    public static String decode(String line) {
+        if (!line.startsWith("#")) return line;
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        if (check(bytes, 0, bytes.length) != Check.VALID) return null;
+        return line.substring(HEADER);
+    }
+
+    // Checks a line held in a byte buffer (no newline) without turning it into a String.
+    public static Check check(byte[] buf, int from, int length) {
+        if (length == 0 || buf[from] != '#') {
+            for (int i = from; i < from + length; i++) if (buf[i] == 0) return Check.CORRUPT;
+            return Check.UNFRAMED;
+        }
+        if (length < HEADER || buf[from + 9] != ':' || buf[from + 18] != ' ') return Check.CORRUPT;
+        long size = hex(buf, from + 1);
+        long crc = hex(buf, from + 10);
+        if (size < 0 || crc < 0 || size != length - HEADER) return Check.CORRUPT;
+        return crc(buf, from + HEADER, (int) size) == crc ? Check.VALID : Check.CORRUPT;
+    }
+
+    private static long crc(byte[] buf, int from, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buf, from, length);
+        return crc.getValue();
+    }
+
+    // Eight hex digits, or -1.
+    private static long hex(byte[] buf, int from) {
+        long value = 0;
+        for (int i = from; i < from + 8; i++) {
+            int digit = Character.digit(buf[i], 16);
+            if (digit < 0) return -1;
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+}
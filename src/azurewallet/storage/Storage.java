@@ -0,0 +1,25 @@
+package azurewallet.storage;
+
+import java.util.List;
+import azurewallet.system.ShardRouter;
+
+// A storage backend: one account store per shard plus the ledger, voucher and log stores.
+// Selected at startup with -Dazure.storage=text|memory|mmap (default text).
+public interface Storage {
+    String name();
+    List<AccountStore> accountStores();
+    LedgerStore ledgerStore();
+    VoucherStore voucherStore();
+    LogStore logStore();
+
+    // Wipes every store (admin "clear all").
+    void clearAll();
+
+    static Storage open(String kind, String dataDir, ShardRouter shards) {
+        return switch (kind) {
+            case "memory" -> new MemoryStorage();
+            case "mmap" -> new MappedStorage(dataDir + "mmap/");
+            default -> new TextStorage(dataDir, shards);
+        };
+    }
+}
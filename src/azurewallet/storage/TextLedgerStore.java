@@ -0,0 +1,104 @@
+package azurewallet.storage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+// ledger.txt plus ledger_snapshot.txt. Positions are byte offsets into ledger.txt. Both
+// files are written as RecordFrames; a posting whose frame does not check out is handed on
+// as null, and a damaged snapshot is rejected as a whole so the ledger replays from the start.
+public class TextLedgerStore implements LedgerStore {
+    private final File ledgerFile;
+    private final File snapshotFile;
+
+    public TextLedgerStore(String ledgerPath, String snapshotPath) {
+        this.ledgerFile = new File(ledgerPath);
+        this.snapshotFile = new File(snapshotPath);
+    }
+
+    public boolean append(List<String> records) {
+        StringBuilder sb = new StringBuilder(records.size() * 96);
+        for (String record : records) sb.append(RecordFrame.encode(record)).append('\n');
+        try (RandomAccessFile raf = new RandomAccessFile(ledgerFile, "rw")) {
+            raf.seek(raf.length());
+            raf.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public long position() { return ledgerFile.length(); }
+    public boolean isEmpty() { return ledgerFile.length() == 0; }
+
+    public void readRange(long from, long to, Consumer<String> action) {
+        if (!ledgerFile.exists()) return;
+        try (FileInputStream in = new FileInputStream(ledgerFile)) {
+            long pos = Math.min(from, ledgerFile.length());
+            in.getChannel().position(pos);
+            BufferedInputStream bin = new BufferedInputStream(in, 1 << 16);
+            ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+            long lineStart = pos;
+            int b;
+            while (pos < to && (b = bin.read()) != -1) {
+                pos++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                accept(line, lineStart, action);
+                lineStart = pos;
+            }
+            if (line.size() > 0) accept(line, lineStart, action);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void accept(ByteArrayOutputStream line, long offset, Consumer<String> action) {
+        String payload = RecordFrame.decode(line.toString(StandardCharsets.UTF_8));
+        line.reset();
+        if (payload == null) System.out.println("| Corrupt ledger record at byte " + offset + " of " + ledgerFile.getName());
+        action.accept(payload);
+    }
+
+    public List<String> readSnapshot() {
+        if (!snapshotFile.exists()) return null;
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(snapshotFile, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String payload = RecordFrame.decode(line);
+                if (payload == null) throw new IllegalStateException("corrupt snapshot record");
+                lines.add(payload);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return lines;
+    }
+
+    public boolean writeSnapshot(List<String> lines) {
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        try (PrintWriter pw = new PrintWriter(new FileWriter(tmp, StandardCharsets.UTF_8))) {
+            for (String line : lines) pw.print(RecordFrame.encode(line) + "\n");
+        } catch (IOException e) {
+            return false;
+        }
+        return tmp.renameTo(snapshotFile);
+    }
+
+    public void deleteSnapshot() {
+        snapshotFile.delete();
+    }
+
+    public void clear() {
+        try (PrintWriter pw = new PrintWriter(ledgerFile)) {
+            pw.print("");
+        } catch (IOException e) {
+            System.out.println("Error clearing " + ledgerFile);
+        }
+        deleteSnapshot();
+    }
+}
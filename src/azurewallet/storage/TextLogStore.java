@@ -0,0 +1,162 @@
+package azurewallet.storage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+import azurewallet.system.ShardRouter;
+
+// Plain text logs in the data directory. With a sharded layout the per-user logs go to the
+// owning shard's writer thread and transfers use the router's two-shard commit. A position
+// is the byte offset of the line, with the file it lives in (0 = the flat file, i + 1 =
+// shard i) in the top 16 bits. Every line is written as a RecordFrame; readers skip lines
+// whose frame does not check out.
+public class TextLogStore implements LogStore {
+    private static final Set<String> USER_LOGS = Set.of(ShardRouter.USER_LOGS);
+    private static final int FILE_SHIFT = 48;
+    private static final long OFFSET_MASK = (1L << FILE_SHIFT) - 1;
+
+    private final String dataDir;
+    private final ShardRouter shards;
+
+    public TextLogStore(String dataDir, ShardRouter shards) {
+        this.dataDir = dataDir;
+        this.shards = shards;
+    }
+
+    private boolean routed(String log) {
+        return shards.isSharded() && USER_LOGS.contains(log);
+    }
+
+    private List<File> files(String log, String key) {
+        if (!routed(log)) return List.of(new File(dataDir + log));
+        if (key == null) return shards.logFiles(log);
+        return List.of(new File(dataDir + log), shards.userLogFile(key, log));
+    }
+
+    private long position(String key, long offset) {
+        return ((long) (ShardRouter.shardOf(key, shards.getShardCount()) + 1) << FILE_SHIFT) | offset;
+    }
+
+    // True if the position lies at or past the given length of one of the log's files
+    // (0 = the flat file, i + 1 = shard i).
+    public static boolean isPast(long position, int fileIndex, long length) {
+        return (int) (position >>> FILE_SHIFT) == fileIndex && (position & OFFSET_MASK) >= length;
+    }
+
+    public long append(String log, String key, String line) {
+        if (key != null && routed(log)) return position(key, shards.append(key, log, line));
+        return appendFlat(log, List.of(line))[0];
+    }
+
+    // One batch per shard writer when sharded, else a single buffered write.
+    public long[] appendAll(String log, List<LogLine> lines) {
+        if (routed(log)) {
+            long[] offsets = shards.appendAll(lines, log);
+            for (int i = 0; i < offsets.length; i++) offsets[i] = position(lines.get(i).key(), offsets[i]);
+            return offsets;
+        }
+        List<String> flat = new ArrayList<>(lines.size());
+        for (LogLine l : lines) flat.add(l.line());
+        return appendFlat(log, flat);
+    }
+
+    private synchronized long[] appendFlat(String log, List<String> lines) {
+        File file = new File(dataDir + log);
+        long[] offsets = new long[lines.size()];
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16)) {
+            long offset = file.length();
+            for (int i = 0; i < offsets.length; i++) {
+                byte[] bytes = (RecordFrame.encode(lines.get(i)) + "\n").getBytes(StandardCharsets.UTF_8);
+                offsets[i] = offset;
+                out.write(bytes);
+                offset += bytes.length;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return offsets;
+    }
+
+    public String readAt(String log, long position) {
+        int fileIndex = (int) (position >>> FILE_SHIFT);
+        List<File> files = routed(log) ? shards.logFiles(log) : List.of(new File(dataDir + log));
+        if (fileIndex >= files.size()) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(files.get(fileIndex), "r")) {
+            long offset = position & OFFSET_MASK;
+            if (offset >= raf.length()) return null;
+            raf.seek(offset);
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+            byte[] chunk = new byte[512];
+            int n;
+            while ((n = raf.read(chunk)) > 0) {
+                int end = 0;
+                while (end < n && chunk[end] != '\n') end++;
+                buf.write(chunk, 0, end);
+                if (end < n) break;
+            }
+            return RecordFrame.decode(buf.toString(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void forEach(String log, String key, Consumer<String> action) {
+        for (File file : files(log, key)) {
+            if (!file.exists()) continue;
+            try (BufferedReader br = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String payload = RecordFrame.decode(line);
+                    if (payload != null) action.accept(payload);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public List<Segment> segments(String log, long chunkSize) {
+        List<Segment> segments = new ArrayList<>();
+        for (File file : files(log, null)) {
+            for (LogChunks.Chunk chunk : LogChunks.split(file, chunkSize)) {
+                segments.add(action -> LogChunks.forEachLine(chunk, line -> {
+                    String payload = RecordFrame.decode(line);
+                    if (payload != null) action.accept(payload);
+                }));
+            }
+        }
+        return segments;
+    }
+
+    public String lastLine(String log) {
+        String last = null;
+        try (BufferedReader br = new BufferedReader(new FileReader(dataDir + log, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String payload = RecordFrame.decode(line);
+                if (payload != null) last = payload;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return last;
+    }
+
+    public void clear(String log) {
+        try (PrintWriter pw = new PrintWriter(dataDir + log)) {
+            pw.print("");
+        } catch (IOException e) {
+            System.out.println("Error clearing " + dataDir + log);
+        }
+    }
+
+    public long[] commitTransfer(String log, long txnId, double amount, String from, String fromLine, String fromReversal,
+                                 String to, String toLine, String toReversal, Runnable applyBalances) {
+        if (!routed(log)) {
+            return LogStore.super.commitTransfer(log, txnId, amount, from, fromLine, fromReversal, to, toLine, toReversal, applyBalances);
+        }
+        long[] offsets = shards.commitTransfer(txnId, from, to, amount, applyBalances, fromLine, toLine, fromReversal, toReversal);
+        return new long[] { position(from, offsets[0]), position(to, offsets[1]) };
+    }
+}
@@ -0,0 +1,65 @@
+package azurewallet.storage;
+
+import java.io.*;
+import java.util.List;
+import azurewallet.system.ShardRouter;
+
+// The original layout: line-oriented text files in the data directory, with accounts and
+// per-user logs spread over shard directories when -Dazure.shards is above 1.
+public class TextStorage implements Storage {
+    private static final String[] FILES = {
+        "users.txt", "transactions.txt", "vouchers.txt", "voucher_log.txt", "points_log.txt",
+        "interest_log.txt", "system_revenue.txt", "scheduler_log.txt", "ledger.txt", "admin_log.txt"
+    };
+
+    private final String dataDir;
+    private final ShardRouter shards;
+    private final TextLedgerStore ledger;
+    private final TextVoucherStore vouchers;
+    private final TextLogStore logs;
+    private List<AccountStore> accounts;
+
+    public TextStorage(String dataDir, ShardRouter shards) {
+        this.dataDir = dataDir;
+        this.shards = shards;
+        new File(dataDir).mkdirs();
+        for (String name : FILES) {
+            try {
+                new File(dataDir + name).createNewFile();
+            } catch (IOException e) {
+                System.out.println("| Error initializing " + name);
+            }
+        }
+        this.ledger = new TextLedgerStore(dataDir + "ledger.txt", dataDir + "ledger_snapshot.txt");
+        this.vouchers = new TextVoucherStore(dataDir + "vouchers.txt");
+        this.logs = new TextLogStore(dataDir, shards);
+    }
+
+    public String name() { return "text"; }
+
+    // Opened on first use so a flat users.txt is migrated into shards before it is indexed.
+    public synchronized List<AccountStore> accountStores() {
+        if (accounts == null) {
+            shards.migrateLegacyUsers();
+            accounts = shards.openAccountStores();
+        }
+        return accounts;
+    }
+
+    public LedgerStore ledgerStore() { return ledger; }
+    public VoucherStore voucherStore() { return vouchers; }
+    public LogStore logStore() { return logs; }
+
+    public void clearAll() {
+        for (String name : FILES) {
+            try (PrintWriter pw = new PrintWriter(dataDir + name)) {
+                pw.print("");
+            } catch (IOException e) {
+                System.out.println("Error clearing " + name);
+            }
+        }
+        ledger.deleteSnapshot();
+        shards.clearAll();
+        for (AccountStore store : accountStores()) store.clear();
+    }
+}
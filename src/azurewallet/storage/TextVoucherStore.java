@@ -0,0 +1,62 @@
+package azurewallet.storage;
+
+import java.io.*;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// vouchers.txt, rewritten through a temp file whenever lines are dropped.
+public class TextVoucherStore implements VoucherStore {
+    private final File file;
+
+    public TextVoucherStore(String path) {
+        this.file = new File(path);
+    }
+
+    public void append(List<String> lines) {
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(file, true)))) {
+            for (String line : lines) pw.println(line);
+            if (pw.checkError()) throw new IOException("write failed");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void forEach(Consumer<String> action) {
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) action.accept(line);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int retain(Predicate<String> keep) {
+        File tmp = new File(file.getPath() + ".tmp");
+        int removed = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(file));
+             PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tmp)))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (keep.test(line)) pw.println(line);
+                else removed++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (removed == 0) {
+            tmp.delete();
+            return 0;
+        }
+        if (!tmp.renameTo(file)) throw new UncheckedIOException(new IOException("could not replace " + file));
+        return removed;
+    }
+
+    public void clear() {
+        try (PrintWriter pw = new PrintWriter(file)) {
+            pw.print("");
+        } catch (IOException e) {
+            System.out.println("Error clearing " + file);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package azurewallet.storage;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Issued vouchers, one "username,code,value,expiry" line each.
+public interface VoucherStore {
+    void append(List<String> lines);
+    void forEach(Consumer<String> action);
+
+    // Keeps only the lines accepted by the filter and returns how many were dropped.
+    int retain(Predicate<String> keep);
+
+    void clear();
+}
@@ -0,0 +1,336 @@
+package azurewallet.system;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import azurewallet.models.UserAccount;
+import azurewallet.storage.AccountStore;
+
+// Hot tier for accounts: a bounded LRU map in front of the account store(s).
+// Inactive accounts stay in the store and are paged in on first access; dirty accounts
+// are written back when they are evicted or when the cache is flushed. With a sharded
+// layout there is one cold store per shard and accounts are routed by username hash.
+// Evicted accounts a caller still holds (the session account, a transfer target, a report
+// in progress) stay reachable through weak references: get() hands back that same object
+// rather than a second copy from the store, and flush() writes it back if it changed
+// after eviction. Accounts nobody holds any more are simply collected.
+public class AccountCache extends AbstractMap<String, UserAccount> {
+    private final List<AccountStore> shards;
+    private final int capacity;
+    private final LinkedHashMap<String, UserAccount> hot;
+    private final Map<String, Detached> detached = new HashMap<>();
+    private final ReferenceQueue<UserAccount> collected = new ReferenceQueue<>();
+    // Usernames a sweep has read straight from their store and not yet written back.
+    private final Set<String> sweeping = new HashSet<>();
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+    private ChangeStream changes;
+    private SegmentIndex segments;
+
+    public AccountCache(List<AccountStore> shards, int capacity) {
+        this.shards = shards;
+        this.capacity = Math.max(1, capacity);
+        this.hot = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UserAccount> eldest) {
+                if (size() <= AccountCache.this.capacity) return false;
+                writeBack(eldest.getValue());
+                detached.put(eldest.getKey(), new Detached(eldest.getKey(), eldest.getValue(), collected));
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    private static final class Detached extends WeakReference<UserAccount> {
+        final String username;
+
+        Detached(String username, UserAccount acc, ReferenceQueue<UserAccount> queue) {
+            super(acc, queue);
+            this.username = username;
+        }
+    }
+
+    // Drops the entries of detached accounts that have been collected.
+    private void purgeCollected() {
+        Object ref;
+        while ((ref = collected.poll()) != null) {
+            Detached d = (Detached) ref;
+            detached.remove(d.username, d);
+        }
+    }
+
+    // The evicted object for this username if a caller still holds it, else null.
+    private UserAccount reattach(Object key) {
+        purgeCollected();
+        Detached d = detached.remove(key);
+        return d == null ? null : d.get();
+    }
+
+    // True if an evicted object for this username is still held by a caller.
+    private boolean held(Object key) {
+        Detached d = detached.get(key);
+        return d != null && d.get() != null;
+    }
+
+    // Waits until no sweep holds its own copy of this account, so a second copy is never
+    // paged in (or removed) underneath it.
+    private void awaitSweep(Object key) {
+        while (sweeping.contains(key)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public synchronized void setChangeStream(ChangeStream changes) {
+        this.changes = changes;
+    }
+
+    // Accounts are re-indexed whenever they reach the store.
+    public synchronized void setSegments(SegmentIndex segments) {
+        this.segments = segments;
+    }
+
+    private void publish(String kind, String payload) {
+        if (changes != null) changes.append(kind, payload);
+    }
+
+    private AccountStore cold(Object username) {
+        return shards.get(ShardRouter.shardOf((String) username, shards.size()));
+    }
+
+    // Holds the account's lock so a change made by another thread between the write and
+    // markClean cannot be marked clean without reaching the store.
+    private void writeBack(UserAccount acc) {
+        String line;
+        synchronized (acc) {
+            if (!acc.isDirty()) return;
+            cold(acc.getUsername()).write(acc);
+            acc.markClean();
+            line = acc.toFileFormat();
+        }
+        if (segments != null) segments.update(acc);
+        writeBacks++;
+        publish(ChangeStream.ACCOUNT, line);
+    }
+
+    // ====================== MAP ACCESS ======================
+
+    @Override
+    public synchronized UserAccount get(Object key) {
+        UserAccount acc = hot.get(key);
+        if (acc != null) {
+            hits++;
+            return acc;
+        }
+        awaitSweep(key);
+        if (!(key instanceof String) || !cold(key).contains((String) key)) return null;
+        misses++;
+        acc = reattach(key);
+        if (acc == null) acc = cold(key).read((String) key);
+        if (acc != null) hot.put((String) key, acc);
+        return acc;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return hot.containsKey(key) || (key instanceof String && cold(key).contains((String) key));
+    }
+
+    @Override
+    public synchronized UserAccount put(String key, UserAccount acc) {
+        awaitSweep(key);
+        detached.remove(key);
+        UserAccount previous = hot.put(key, acc);
+        String line;
+        synchronized (acc) {
+            cold(key).write(acc);
+            acc.markClean();
+            line = acc.toFileFormat();
+        }
+        if (segments != null) segments.update(acc);
+        publish(ChangeStream.ACCOUNT, line);
+        return previous;
+    }
+
+    @Override
+    public synchronized UserAccount remove(Object key) {
+        awaitSweep(key);
+        detached.remove(key);
+        UserAccount previous = hot.remove(key);
+        if (key instanceof String && cold(key).contains((String) key)) {
+            if (previous == null) previous = cold(key).read((String) key);
+            cold(key).remove((String) key);
+            if (segments != null) segments.remove((String) key);
+            publish(ChangeStream.REMOVE, (String) key);
+        }
+        return previous;
+    }
+
+    @Override
+    public synchronized void clear() {
+        while (!sweeping.isEmpty()) awaitSweep(sweeping.iterator().next());
+        hot.clear();
+        detached.clear();
+        for (AccountStore cold : shards) cold.clear();
+        if (segments != null) segments.clear();
+        publish(ChangeStream.CLEAR, "");
+    }
+
+    @Override
+    public synchronized int size() {
+        int size = 0;
+        for (AccountStore cold : shards) size += cold.size();
+        return size;
+    }
+
+    private List<String> usernames() {
+        List<String> names = new ArrayList<>();
+        for (AccountStore cold : shards) names.addAll(cold.usernames());
+        return names;
+    }
+
+    // Snapshot of the usernames; unlike values() this never pages accounts in.
+    @Override
+    public synchronized Set<String> keySet() {
+        return new LinkedHashSet<>(usernames());
+    }
+
+    // Walks every account, paging cold ones in through the cache as it goes.
+    @Override
+    public Set<Map.Entry<String, UserAccount>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, UserAccount>> iterator() {
+                Iterator<String> names;
+                synchronized (AccountCache.this) {
+                    names = usernames().iterator();
+                }
+                return new Iterator<>() {
+                    private String current;
+
+                    @Override
+                    public boolean hasNext() { return names.hasNext(); }
+
+                    @Override
+                    public Map.Entry<String, UserAccount> next() {
+                        current = names.next();
+                        return new SimpleEntry<>(current, get(current));
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (current == null) throw new IllegalStateException();
+                        AccountCache.this.remove(current);
+                        current = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() { return AccountCache.this.size(); }
+        };
+    }
+
+    // ====================== SWEEPS ======================
+
+    // Applies the update to every account without paging cold ones into the hot tier, so a
+    // sweep never evicts the working set. Accounts already in memory (resident, or evicted
+    // but still held) are updated in place and reach the store on the next flush. The rest
+    // are read from their own store and written straight back when the update returns true;
+    // shards are swept in parallel and that store I/O runs outside the cache lock.
+    public void sweep(Predicate<UserAccount> update) {
+        List<UserAccount> live = new ArrayList<>();
+        List<List<String>> names = new ArrayList<>();
+        synchronized (this) {
+            live.addAll(hot.values());
+            purgeCollected();
+            for (Detached d : detached.values()) {
+                UserAccount acc = d.get();
+                if (acc != null) live.add(acc);
+            }
+            for (AccountStore cold : shards) names.add(cold.usernames());
+        }
+        for (UserAccount acc : live) update.test(acc);
+        IntStream.range(0, shards.size()).parallel().forEach(i -> {
+            for (String name : names.get(i)) sweepCold(shards.get(i), name, update);
+        });
+    }
+
+    // An account paged in after the sweep started is skipped; the next sweep reaches it.
+    private void sweepCold(AccountStore cold, String name, Predicate<UserAccount> update) {
+        synchronized (this) {
+            if (hot.containsKey(name) || held(name) || sweeping.contains(name) || !cold.contains(name)) return;
+            sweeping.add(name);
+        }
+        UserAccount written = null;
+        try {
+            UserAccount acc = cold.read(name);
+            if (acc != null && update.test(acc)) {
+                cold.write(acc);
+                acc.markClean();
+                written = acc;
+            }
+        } finally {
+            synchronized (this) {
+                sweeping.remove(name);
+                if (written != null) {
+                    writeBacks++;
+                    if (segments != null) segments.update(written);
+                    publish(ChangeStream.ACCOUNT, written.toFileFormat());
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    // ====================== PERSISTENCE ======================
+
+    public synchronized void flush() {
+        for (UserAccount acc : hot.values()) writeBack(acc);
+        writeBackDetached();
+        for (AccountStore cold : shards) {
+            if (cold.getStaleRecords() > cold.size()) cold.compact();
+        }
+    }
+
+    public synchronized void close() {
+        for (UserAccount acc : hot.values()) writeBack(acc);
+        writeBackDetached();
+        for (AccountStore cold : shards) {
+            if (cold.getStaleRecords() > 0) cold.compact();
+        }
+    }
+
+    private void writeBackDetached() {
+        purgeCollected();
+        for (Detached d : detached.values()) {
+            UserAccount acc = d.get();
+            if (acc != null) writeBack(acc);
+        }
+    }
+
+    // ====================== STATISTICS ======================
+
+    public synchronized int getResidentCount() { return hot.size(); }
+    public int getCapacity() { return capacity; }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    public synchronized String getStats() {
+        purgeCollected();
+        return String.format("Hit rate: %.1f%% (%d hits / %d misses), resident %d/%d, evicted but held %d, evictions %d, write-backs %d",
+            getHitRate() * 100, hits, misses, hot.size(), capacity, detached.size(), evictions, writeBacks);
+    }
+}
@@ -3,40 +3,41 @@ package azurewallet.system;
 import azurewallet.models.UserAccount;
 import azurewallet.models.VoucherSystem;
 import azurewallet.main.BackgroundScheduler;
+import azurewallet.main.WalletEvents;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.io.*;
+import java.time.LocalDate;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 
 public class AdminControl {
     private static final String DATA_DIR = "src/azurewallet/data/";
     private static final String ADMIN_PASS = "admin123";
-    private static final String ADMIN_LOG = DATA_DIR + "admin_log.txt";
+    private static final String ADMIN_LOG = "admin_log.txt";
 
     private final FileManager fileManager;
-    private final Map<String, UserAccount> users;
+    private final AccountCache users;
     private final BackgroundScheduler scheduler;
+    private final WalletEvents events;
 
-    public AdminControl(FileManager fileManager, Map<String, UserAccount> users, BackgroundScheduler scheduler) {
+    public AdminControl(FileManager fileManager, AccountCache users, BackgroundScheduler scheduler, WalletEvents events) {
         this.fileManager = fileManager;
         this.users = users;
         this.scheduler = scheduler;
-        createLogFile();
-    }
-
-    private void createLogFile() {
-        try {
-            new File(DATA_DIR).mkdirs();
-            new File(ADMIN_LOG).createNewFile();
-        } catch (IOException e) {
-            System.out.println("Error initializing admin log file.");
-        }
+        this.events = events;
     }
 
     private void logAdminAction(String action) {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(ADMIN_LOG, true))) {
-            pw.println(LocalDateTime.now() + " - " + action);
-        } catch (IOException e) {
+        try {
+            fileManager.getStorage().logStore().append(ADMIN_LOG, null, LocalDateTime.now() + " - " + action);
+        } catch (RuntimeException e) {
             System.out.println("Error logging admin action.");
         }
     }
@@ -64,7 +65,18 @@ public class AdminControl {
             System.out.println("| [7] Delete All Users                                     |");
             System.out.println("| [8] Clear All Text Files                                 |");
             System.out.println("| [9] Generate Vouchers                                    |");
-            System.out.println("| [10] Exit Admin Panel                                    |");
+            System.out.println("| [10] Run Reconciliation Audit                            |");
+            System.out.println("| [11] Merchant Settlements                                |");
+            System.out.println("| [12] Bulk Payout From File                               |");
+            System.out.println("| [13] Look Up Transaction                                 |");
+            System.out.println("| [14] Generate Monthly Statements                         |");
+            System.out.println("| [15] Analytics Reports                                   |");
+            System.out.println("| [16] Event Bus Stats                                     |");
+            System.out.println("| [17] Idempotency Stats                                   |");
+            System.out.println("| [18] Admission Control Stats                             |");
+            System.out.println("| [19] Verify Data Files (fsck)                            |");
+            System.out.println("| [20] Balance As Of (checkpoints)                         |");
+            System.out.println("| [21] Exit Admin Panel                                    |");
             System.out.println("+----------------------------------------------------------+");
             System.out.print("Choose: ");
             String choice = sc.nextLine().trim();
@@ -93,7 +105,18 @@ public class AdminControl {
                 case "7" -> deleteAllUsers(sc);
                 case "8" -> clearAllTextFiles(sc);
                 case "9" -> generateVouchers(sc);
-                case "10" -> {
+                case "10" -> runAudit();
+                case "11" -> merchantSettlements(sc);
+                case "12" -> bulkPayout(sc);
+                case "13" -> lookUpTransaction(sc);
+                case "14" -> generateStatements(sc);
+                case "15" -> analyticsReports(sc);
+                case "16" -> eventBus();
+                case "17" -> idempotency();
+                case "18" -> admission();
+                case "19" -> fsck();
+                case "20" -> balanceAsOf(sc);
+                case "21" -> {
                     logAdminAction("Admin logged out.");
                     System.out.println("Exiting Admin Panel...");
                     return;
@@ -117,7 +140,22 @@ public class AdminControl {
 
     private void showSystemSummary() {
         System.out.println("\n=== SYSTEM SUMMARY DASHBOARD ===");
-        System.out.println("Total Users: " + fileManager.getTotalUsersCount());
+        System.out.println("Total Users: " + users.size());
+        System.out.println("Account Cache: " + users.getStats());
+        System.out.println("Storage Backend: " + fileManager.getStorage().name());
+        fileManager.saveUsers(users);
+        double totalBalance = 0.0;
+        long totalPoints = 0;
+        for (ShardRouter.ShardStats st : ShardRouter.collectStats(fileManager.getStorage().accountStores())) {
+            if (fileManager.getShards().isSharded()) {
+                System.out.println("  Shard " + st.shard() + ": " + st.users() + " users, PHP "
+                    + String.format("%,.2f", st.totalBalance()) + ", " + st.totalPoints() + " points");
+            }
+            totalBalance += st.totalBalance();
+            totalPoints += st.totalPoints();
+        }
+        System.out.println("Total Balances Held: PHP " + String.format("%,.2f", totalBalance));
+        System.out.println("Total Points Outstanding: " + totalPoints);
         System.out.println("Total Active Vouchers: " + fileManager.getTotalVouchersCount());
         System.out.println("Last Scheduler Run: " + fileManager.readLastSchedulerRun());
         System.out.println("Total System Revenue: PHP " + String.format("%,.2f", fileManager.readSystemRevenue()));
@@ -158,15 +196,8 @@ public class AdminControl {
         String confirm = sc.nextLine().trim().toUpperCase();
         if (confirm.equals("Y")) {
             String[] files = {
-                DATA_DIR + "users.txt",
-                DATA_DIR + "transactions.txt",
-                DATA_DIR + "vouchers.txt",
-                DATA_DIR + "voucher_log.txt",
-                DATA_DIR + "points_log.txt",
-                DATA_DIR + "interest_log.txt",
-                DATA_DIR + "system_revenue.txt",
-                DATA_DIR + "scheduler_log.txt",
-                ADMIN_LOG
+                DATA_DIR + "audit_report.txt",
+                DATA_DIR + "merchant_payments.txt"
             };
             for (String file : files) {
                 try (PrintWriter pw = new PrintWriter(file)) {
@@ -174,6 +205,14 @@ public class AdminControl {
                 } catch (IOException e) {
                     System.out.println("Error clearing " + file); }
             }
+            fileManager.getMerchantPayments().clear();
+            fileManager.getStorage().clearAll();
+            fileManager.getTxnIndex().clear();
+            fileManager.getAnalytics().clear();
+            fileManager.getIdempotency().clear();
+            fileManager.getCheckpoints().clear();
+            VoucherSystem.reloadIndex();
+            fileManager.getLedger().recover();
             users.clear();
             fileManager.saveUsers(users);
             System.out.println("All system text files have been cleared.");
@@ -181,12 +220,318 @@ public class AdminControl {
         } else System.out.println("Operation cancelled.");
     }
 
+    private void runAudit() {
+        System.out.println("\n=== RECONCILIATION AUDIT ===");
+        fileManager.saveUsers(users);
+        AuditJob.Result result = new AuditJob(fileManager, users).run();
+        if (result == null) return;
+        System.out.println("Users checked: " + result.usersChecked());
+        System.out.println("Log records scanned: " + result.records() + " (" + result.malformed() + " malformed)");
+        System.out.println("Discrepancies: " + result.discrepancies());
+        System.out.println("Report written to: " + result.report().getPath());
+        System.out.println("Completed in " + result.millis() + " ms");
+        logAdminAction("Ran reconciliation audit (" + result.discrepancies() + " discrepancies).");
+    }
+
+    private void lookUpTransaction(Scanner sc) {
+        System.out.print("Enter transaction reference (e.g. TX0000000042, or B to go back): ");
+        String ref = sc.nextLine().trim();
+        if (ref.equalsIgnoreCase("B")) return;
+        List<String> lines = fileManager.findTransaction(ref);
+        if (lines.isEmpty()) {
+            System.out.println("No transaction found for " + ref + ".");
+            return;
+        }
+        System.out.println("\n=== TRANSACTION " + TxnIds.format(TxnIds.parse(ref)) + " ===");
+        for (String line : lines) System.out.println(line);
+        logAdminAction("Looked up transaction " + ref + ".");
+    }
+
+    private void generateStatements(Scanner sc) {
+        System.out.print("Enter statement month (YYYY-MM, blank for this month, B to go back): ");
+        String input = sc.nextLine().trim();
+        if (input.equalsIgnoreCase("B")) return;
+        YearMonth period;
+        try {
+            period = input.isEmpty() ? YearMonth.now() : YearMonth.parse(input);
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid month.");
+            return;
+        }
+        fileManager.saveUsers(users);
+        StatementJob.Result result = new StatementJob(fileManager, users.keySet(), period).run();
+        if (result == null) return;
+        System.out.println("Statements written: " + result.statements() + " to " + result.dir().getPath());
+        System.out.println("Records in period: " + result.records() + " (" + result.runs() + " sorted run(s))");
+        System.out.println("Completed in " + result.millis() + " ms (" + String.format("%,.0f", result.statementsPerSecond()) + " statements/sec)");
+        logAdminAction("Generated " + result.statements() + " statements for " + period + ".");
+    }
+
     private void viewAdminLog() {
         System.out.println("\n=== ADMIN ACTIVITY LOG ===");
-        try (BufferedReader br = new BufferedReader(new FileReader(ADMIN_LOG))) {
+        try {
+            fileManager.getStorage().logStore().forEach(ADMIN_LOG, null, System.out::println);
+        } catch (RuntimeException e) { System.out.println("Error reading admin log."); }
+    }
+
+    // ================= BULK PAYOUT =================
+    private void bulkPayout(Scanner sc) {
+        System.out.print("Enter sender username (or B to go back): ");
+        String sender = sc.nextLine().trim().toLowerCase();
+        if (sender.equalsIgnoreCase("B")) return;
+        System.out.print("Enter payout file path (recipient,amount per line): ");
+        String path = sc.nextLine().trim();
+
+        List<BulkTransfer.Leg> legs = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
             String line;
-            while ((line = br.readLine()) != null) System.out.println(line);
-        } catch (IOException e) { System.out.println("Error reading admin log."); }
+            int lineNo = 0;
+            while ((line = br.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank()) continue;
+                String[] p = line.split(",");
+                try {
+                    double amount = Double.parseDouble(p[1].trim());
+                    if (!Double.isFinite(amount)) throw new NumberFormatException(p[1]);
+                    legs.add(new BulkTransfer.Leg(p[0].trim().toLowerCase(), amount));
+                } catch (RuntimeException e) {
+                    System.out.println("Invalid line " + lineNo + ": " + line);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading payout file.");
+            return;
+        }
+
+        BulkTransfer.Result result = new BulkTransfer(fileManager, users).execute(sender, legs);
+        File report = new File(DATA_DIR + "bulk_payout_" + System.currentTimeMillis() + ".txt");
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(report)))) {
+            pw.println("BULK PAYOUT - sender " + sender + " - " + LocalDateTime.now());
+            pw.println(result.message());
+            pw.println("recipient,amount,status");
+            for (BulkTransfer.LegResult r : result.legs()) {
+                pw.printf("%s,%.2f,%s%n", r.recipient(), r.amount(), r.status());
+            }
+        } catch (IOException e) {
+            System.out.println("Error writing payout report.");
+        }
+
+        System.out.println(result.message());
+        System.out.println("Recipients: " + result.legs().size() + ", Total: PHP " + String.format("%,.2f", result.total()));
+        System.out.printf("Completed in %d ms (%,.0f legs/sec)%n", result.millis(), result.legsPerSecond());
+        System.out.println("Report written to: " + report.getPath());
+        logAdminAction("Bulk payout from " + sender + " (" + result.legs().size() + " legs): " + result.message());
+    }
+
+    // ================= MERCHANT SETTLEMENT PANEL =================
+    private void merchantSettlements(Scanner sc) {
+        MerchantPayments payments = fileManager.getMerchantPayments();
+        while (true) {
+            System.out.println("\n+==========================================================+");
+            System.out.println("|                  MERCHANT SETTLEMENT MENU                |");
+            System.out.println("+==========================================================+");
+            System.out.println("| [1] View All Merchant Totals                             |");
+            System.out.println("| [2] Look Up Merchant                                     |");
+            System.out.println("| [3] Close Settlement Batch                               |");
+            System.out.println("| [4] Back                                                 |");
+            System.out.println("+----------------------------------------------------------+");
+            System.out.print("Choose: ");
+            String ch = sc.nextLine().trim();
+
+            switch (ch) {
+                case "1" -> {
+                    System.out.println("\n=== MERCHANT TOTALS (batch " + payments.getCurrentBatchId() + " open) ===");
+                    for (MerchantPayments.MerchantTotals t : payments.getAllTotals()) printMerchant(t);
+                    logAdminAction("Viewed merchant totals.");
+                }
+                case "2" -> {
+                    System.out.print("Enter merchant name: ");
+                    MerchantPayments.MerchantTotals t = payments.getTotals(sc.nextLine());
+                    if (t == null) System.out.println("Merchant not found.");
+                    else printMerchant(t);
+                }
+                case "3" -> {
+                    File out = payments.closeBatch();
+                    if (out == null) {
+                        System.out.println("Nothing to settle.");
+                    } else {
+                        System.out.println("Settlement written to: " + out.getPath());
+                        logAdminAction("Closed settlement batch: " + out.getName());
+                    }
+                }
+                case "4" -> { return; }
+                default -> System.out.println("Invalid choice.");
+            }
+        }
+    }
+
+    private void printMerchant(MerchantPayments.MerchantTotals t) {
+        System.out.println("Merchant: " + t.getDisplayName() + " (" + t.getId() + ")");
+        System.out.println("Total Paid: PHP " + String.format("%,.2f", t.getTotalPaid()) + " in " + t.getPaymentCount() + " payment(s)");
+        System.out.println("Unsettled: PHP " + String.format("%,.2f", t.getUnsettled()) + " in " + t.getUnsettledCount() + " payment(s)");
+        System.out.println("--------------------------");
+    }
+
+    // ================= ANALYTICS REPORTS =================
+    private void analyticsReports(Scanner sc) {
+        Analytics analytics = fileManager.getAnalytics();
+        while (true) {
+            System.out.println("\n+==========================================================+");
+            System.out.println("|                     ANALYTICS REPORTS                    |");
+            System.out.println("+==========================================================+");
+            System.out.println("| [1] Daily Deposit / Withdraw Volume                      |");
+            System.out.println("| [2] Top Merchants                                        |");
+            System.out.println("| [3] Transfer Hot Spots                                   |");
+            System.out.println("| [4] Points Earned vs Redeemed                            |");
+            System.out.println("| [5] Back                                                 |");
+            System.out.println("+----------------------------------------------------------+");
+            System.out.print("Choose: ");
+            String ch = sc.nextLine().trim();
+            if (ch.equals("5")) return;
+            if (!List.of("1", "2", "3", "4").contains(ch)) {
+                System.out.println("Invalid choice.");
+                continue;
+            }
+
+            System.out.print("Days to cover (blank for 30): ");
+            int days;
+            try {
+                String input = sc.nextLine().trim();
+                days = input.isEmpty() ? 30 : Integer.parseInt(input);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid number of days.");
+                continue;
+            }
+            LocalDate to = LocalDate.now();
+            LocalDate from = to.minusDays(Math.max(1, days) - 1);
+            long start = System.currentTimeMillis();
+
+            switch (ch) {
+                case "1" -> {
+                    Map<Long, Analytics.Agg> deposits = analytics.aggregate(from, to, EnumSet.of(Analytics.Type.DEPOSIT), Analytics.GroupBy.DAY);
+                    Map<Long, Analytics.Agg> withdrawals = analytics.aggregate(from, to, EnumSet.of(Analytics.Type.WITHDRAW), Analytics.GroupBy.DAY);
+                    System.out.println("\n=== DAILY VOLUME " + from + " TO " + to + " ===");
+                    System.out.printf("%-12s %20s %20s%n", "Date", "Deposits (PHP)", "Withdrawals (PHP)");
+                    for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+                        Analytics.Agg in = deposits.get(d.toEpochDay());
+                        Analytics.Agg out = withdrawals.get(d.toEpochDay());
+                        if (in == null && out == null) continue;
+                        System.out.printf("%-12s %,20.2f %,20.2f%n", d,
+                            in == null ? 0.0 : in.getSum(), out == null ? 0.0 : out.getSum());
+                    }
+                }
+                case "2" -> {
+                    Map<Long, Analytics.Agg> merchants = analytics.aggregate(from, to, EnumSet.of(Analytics.Type.PAYMENT), Analytics.GroupBy.COUNTERPARTY);
+                    System.out.println("\n=== TOP MERCHANTS " + from + " TO " + to + " ===");
+                    for (Map.Entry<Long, Analytics.Agg> e : Analytics.top(merchants, 10)) {
+                        System.out.printf("%-24s PHP %,14.2f in %d payment(s)%n", analytics.nameOf(e.getKey().intValue()),
+                            e.getValue().getSum(), e.getValue().getCount());
+                    }
+                }
+                case "3" -> {
+                    Map<Long, Analytics.Agg> pairs = analytics.aggregate(from, to, EnumSet.of(Analytics.Type.SENT), Analytics.GroupBy.PAIR);
+                    System.out.println("\n=== TRANSFER HOT SPOTS " + from + " TO " + to + " ===");
+                    for (Map.Entry<Long, Analytics.Agg> e : Analytics.top(pairs, 10)) {
+                        long key = e.getKey();
+                        System.out.printf("%-16s -> %-16s PHP %,14.2f in %d transfer(s)%n",
+                            analytics.nameOf((int) (key >>> 32)), analytics.nameOf((int) key),
+                            e.getValue().getSum(), e.getValue().getCount());
+                    }
+                }
+                case "4" -> {
+                    Map<Long, Analytics.Agg> points = analytics.aggregate(from, to,
+                        EnumSet.of(Analytics.Type.POINTS_EARNED, Analytics.Type.POINTS_REDEEMED, Analytics.Type.POINTS_EXPIRED), Analytics.GroupBy.TYPE);
+                    Analytics.Agg earned = points.getOrDefault((long) Analytics.Type.POINTS_EARNED.ordinal(), new Analytics.Agg());
+                    Analytics.Agg redeemed = points.getOrDefault((long) Analytics.Type.POINTS_REDEEMED.ordinal(), new Analytics.Agg());
+                    Analytics.Agg expired = points.getOrDefault((long) Analytics.Type.POINTS_EXPIRED.ordinal(), new Analytics.Agg());
+                    System.out.println("\n=== POINTS " + from + " TO " + to + " ===");
+                    System.out.printf("Earned:   %,.0f points in %d award(s)%n", earned.getSum(), earned.getCount());
+                    System.out.printf("Redeemed: %,.0f points in %d redemption(s)%n", redeemed.getSum(), redeemed.getCount());
+                    System.out.printf("Expired:  %,.0f points in %d account expiry(s)%n", expired.getSum(), expired.getCount());
+                    if (earned.getSum() > 0) System.out.printf("Redemption rate: %.1f%%%n", redeemed.getSum() * 100 / earned.getSum());
+                }
+            }
+            System.out.println("(" + analytics.getRowCount() + " rows in " + analytics.getPartitionCount() + " daily partition(s), query "
+                + (System.currentTimeMillis() - start) + " ms)");
+            logAdminAction("Viewed analytics report " + ch + " (" + days + " days).");
+        }
+    }
+
+    // ================= EVENT BUS =================
+    private void eventBus() {
+        EventBus bus = events.getBus();
+        System.out.println("\n=== EVENT BUS ===");
+        System.out.println("Ring size: " + bus.getCapacity() + ", published: " + bus.getPublished() + ", backlog: " + bus.getBacklog());
+        for (EventBus.Subscriber s : bus.getSubscribers()) System.out.println(s.getStats());
+        for (String line : events.getStats()) System.out.println(line);
+    }
+
+    // ================= IDEMPOTENCY =================
+    private void idempotency() {
+        System.out.println("\n=== IDEMPOTENCY KEYS ===");
+        System.out.println(fileManager.getIdempotency().getStats());
+    }
+
+    // ================= ADMISSION CONTROL =================
+    private void admission() {
+        System.out.println("\n=== ADMISSION CONTROL ===");
+        for (String line : fileManager.getAdmission().getStats()) System.out.println(line);
+    }
+
+    // ================= FSCK =================
+    // Report only; torn tails are repaired at startup, before anything is appended.
+    private void fsck() {
+        if (!fileManager.getStorage().name().equals("text")) {
+            System.out.println("Record checksums apply to the text backend; " + fileManager.getStorage().name() + " has no framed files.");
+            return;
+        }
+        System.out.println("\n=== DATA FILE CHECK ===");
+        long start = System.currentTimeMillis();
+        List<Fsck.FileReport> reports = Fsck.verify(Fsck.files(DATA_DIR), false);
+        Fsck.print(reports, true);
+        System.out.println("Completed in " + (System.currentTimeMillis() - start) + " ms");
+        long damaged = reports.stream().filter(r -> !r.isClean()).count();
+        logAdminAction("Ran data file check: " + damaged + " damaged file(s).");
+    }
+
+    // ================= BALANCE AS OF =================
+    private void balanceAsOf(Scanner sc) {
+        BalanceCheckpoints checkpoints = fileManager.getCheckpoints();
+        System.out.println("\n=== BALANCE AS OF ===");
+        System.out.println(checkpoints.getStats());
+
+        System.out.print("\nTake a checkpoint now? (y/n): ");
+        if (sc.nextLine().trim().equalsIgnoreCase("y")) {
+            long start = System.currentTimeMillis();
+            boolean written = checkpoints.checkpoint(fileManager.getLedger());
+            System.out.println(written ? "Checkpoint written in " + (System.currentTimeMillis() - start) + " ms."
+                : "No checkpoint written; nothing was posted since the last one.");
+            if (written) logAdminAction("Took a balance checkpoint.");
+        }
+
+        System.out.print("Username (blank to go back): ");
+        String username = sc.nextLine().trim();
+        if (username.isEmpty()) return;
+        System.out.print("As of (YYYY-MM-DD for end of day, or YYYY-MM-DDTHH:MM): ");
+        String input = sc.nextLine().trim();
+        LocalDateTime at;
+        try {
+            at = input.contains("T") ? LocalDateTime.parse(input) : LocalDate.parse(input).atTime(23, 59, 59, 999_000_000);
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid date.");
+            return;
+        }
+        long millis = at.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        long start = System.nanoTime();
+        BalanceCheckpoints.AsOf r = fileManager.getBalanceAsOf(username, millis);
+        long micros = (System.nanoTime() - start) / 1000;
+        System.out.printf("%s as of %s: PHP %,.2f, %,d points%n", username, at.withNano(0), r.balance(), r.points());
+        System.out.println((r.checkpointTime() == 0 ? "No earlier checkpoint; replayed from the start of the ledger"
+            : "From checkpoint of " + LocalDateTime.ofInstant(Instant.ofEpochMilli(r.checkpointTime()), ZoneId.systemDefault()).withNano(0))
+            + " + " + r.replayedPostings() + " posting(s) in " + micros + " us");
+        logAdminAction("Queried balance of " + username + " as of " + at.withNano(0) + ".");
     }
 
     // ================= NEW VOUCHER GENERATION PANEL =================
@@ -197,24 +542,71 @@ public class AdminControl {
             System.out.println("+==========================================================+");
             System.out.println("| [1] Generate Monthly Vouchers                            |");
             System.out.println("| [2] Generate Holiday Vouchers (if today is holiday)      |");
-            System.out.println("| [3] Back                                                 |");
+            System.out.println("| [3] Segment Campaign                                     |");
+            System.out.println("| [4] Back                                                 |");
             System.out.println("+----------------------------------------------------------+");
             System.out.print("Choose: ");
             String ch = sc.nextLine().trim();
 
             switch (ch) {
                 case "1" -> {
-                    VoucherSystem.generateMonthlyVouchers(users);
+                    VoucherSystem.generateMonthlyVouchers(fileManager.getSegments());
                     System.out.println("Monthly vouchers generated successfully.");
                     logAdminAction("Generated monthly vouchers.");
                 }
                 case "2" -> {
-                    VoucherSystem.generateHolidayVoucher(users);
+                    VoucherSystem.generateHolidayVoucher(fileManager.getSegments());
                     logAdminAction("Generated holiday vouchers.");
                 }
-                case "3" -> { return; }
+                case "3" -> segmentCampaign(sc);
+                case "4" -> { return; }
                 default -> System.out.println("Invalid choice.");
             }
         }
     }
-}
\ No newline at end of file
+
+    // Segment expressions are evaluated on the bitmap index; vouchers are then issued by
+    // streaming the matching ids, without paging in the accounts.
+    private void segmentCampaign(Scanner sc) {
+        SegmentIndex segments = fileManager.getSegments();
+        users.flush();
+        System.out.println("\n=== SEGMENT CAMPAIGN ===");
+        System.out.println(segments.getStats());
+        System.out.println("e.g. rank >= silver AND active <= 30 AND balance > 10k AND NOT voucher = redeemed");
+        System.out.print("Segment expression: ");
+        String expression = sc.nextLine().trim();
+        if (expression.isEmpty()) return;
+
+        long start = System.nanoTime();
+        IdBitmap targets;
+        try {
+            targets = segments.evaluate(expression);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid expression: " + e.getMessage());
+            return;
+        }
+        System.out.printf("Matched %,d account(s) in %.2f ms.%n", targets.cardinality(), (System.nanoTime() - start) / 1e6);
+        if (targets.isEmpty()) return;
+
+        System.out.print("Voucher value in PHP (blank for value by rank, X to cancel): ");
+        String input = sc.nextLine().trim();
+        if (input.equalsIgnoreCase("X")) return;
+        double value = 0;
+        if (!input.isEmpty()) {
+            try {
+                value = Double.parseDouble(input);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid amount.");
+                return;
+            }
+            if (value <= 0) {
+                System.out.println("Invalid amount.");
+                return;
+            }
+        }
+        start = System.nanoTime();
+        int issued = VoucherSystem.generateSegmentVouchers(segments, targets, value, 30);
+        System.out.printf("Issued %,d voucher(s) in %.2f ms, valid for 30 days.%n", issued, (System.nanoTime() - start) / 1e6);
+        logAdminAction("Generated " + issued + " segment campaign voucher(s) for: " + expression);
+    }
+}
@@ -0,0 +1,184 @@
+package azurewallet.system;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+// Admission control in front of PIN verification and wallet transactions. Authentication
+// work is admitted by a per-username token bucket, then a global one, and then runs on a
+// small pool behind a bounded queue; anything over those limits is shed at once with a
+// retry-after instead of waiting. Authenticated transactions draw on their own buckets, so
+// a login flood cannot use up the capacity of users who are already signed in.
+public class AdmissionControl {
+
+    public enum Lane { AUTH, TRANSACTION }
+
+    public enum Status { ACCEPTED, USER_RATE, GLOBAL_RATE, QUEUE_FULL }
+
+    public record Decision<T>(Status status, long retryAfterMillis, T value) {
+        public boolean accepted() { return status == Status.ACCEPTED; }
+    }
+
+    public record Limits(double authUserBurst, double authUserPerSecond, double authBurst, double authPerSecond,
+                         int authThreads, int authQueue,
+                         double txnUserBurst, double txnUserPerSecond, double txnBurst, double txnPerSecond) {
+
+        // -Dazure.auth.rate logins per second overall (default 100), -Dazure.auth.queue
+        // queued logins (default 64), -Dazure.txn.rate transactions per second (default 500).
+        public static Limits fromSystemProperties() {
+            double authRate = Double.parseDouble(System.getProperty("azure.auth.rate", "100"));
+            double txnRate = Double.parseDouble(System.getProperty("azure.txn.rate", "500"));
+            return new Limits(5, 0.2, authRate * 2, authRate,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2), Integer.getInteger("azure.auth.queue", 64),
+                20, 10, txnRate * 2, txnRate);
+        }
+    }
+
+    private static final int MAX_TRACKED_USERS = 10_000;
+
+    private final Limits limits;
+    private final TokenBucket authBucket;
+    private final TokenBucket txnBucket;
+    private final Map<String, TokenBucket> authUsers = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> txnUsers = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor authPool;
+    private final AtomicLongArray[] counts = new AtomicLongArray[Lane.values().length];
+    private final AtomicLong authNanos = new AtomicLong(1_000_000);
+
+    public AdmissionControl(Limits limits) {
+        this.limits = limits;
+        this.authBucket = new TokenBucket(limits.authBurst(), limits.authPerSecond());
+        this.txnBucket = new TokenBucket(limits.txnBurst(), limits.txnPerSecond());
+        this.authPool = new ThreadPoolExecutor(limits.authThreads(), limits.authThreads(), 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, limits.authQueue())), r -> {
+                Thread t = new Thread(r, "auth-worker");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.AbortPolicy());
+        for (Lane lane : Lane.values()) counts[lane.ordinal()] = new AtomicLongArray(Status.values().length);
+    }
+
+    // ====================== ADMISSION ======================
+
+    // Runs the verification on the auth pool and waits for it, or sheds it without running it.
+    public <T> Decision<T> authenticate(String username, Supplier<T> verification) {
+        long wait = bucket(authUsers, username, limits.authUserBurst(), limits.authUserPerSecond()).tryTake();
+        if (wait > 0) return shed(Lane.AUTH, Status.USER_RATE, wait);
+        wait = authBucket.tryTake();
+        if (wait > 0) return shed(Lane.AUTH, Status.GLOBAL_RATE, wait);
+
+        Future<T> future;
+        try {
+            future = authPool.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    return verification.get();
+                } finally {
+                    long took = System.nanoTime() - start;
+                    authNanos.updateAndGet(avg -> avg + (took - avg) / 8);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return shed(Lane.AUTH, Status.QUEUE_FULL, queueDrainMillis());
+        }
+        counts[Lane.AUTH.ordinal()].incrementAndGet(Status.ACCEPTED.ordinal());
+        try {
+            return new Decision<>(Status.ACCEPTED, 0, future.get());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during authentication", e);
+        }
+    }
+
+    public Decision<Void> admitTransaction(String username) {
+        long wait = bucket(txnUsers, username, limits.txnUserBurst(), limits.txnUserPerSecond()).tryTake();
+        if (wait > 0) return shed(Lane.TRANSACTION, Status.USER_RATE, wait);
+        wait = txnBucket.tryTake();
+        if (wait > 0) return shed(Lane.TRANSACTION, Status.GLOBAL_RATE, wait);
+        counts[Lane.TRANSACTION.ordinal()].incrementAndGet(Status.ACCEPTED.ordinal());
+        return new Decision<>(Status.ACCEPTED, 0, null);
+    }
+
+    private <T> Decision<T> shed(Lane lane, Status status, long retryAfterMillis) {
+        counts[lane.ordinal()].incrementAndGet(status.ordinal());
+        return new Decision<>(status, Math.max(1, retryAfterMillis), null);
+    }
+
+    // How long the queued logins should take to drain, from the running average per login.
+    private long queueDrainMillis() {
+        long queued = authPool.getQueue().size() + authPool.getActiveCount();
+        return queued * authNanos.get() / limits.authThreads() / 1_000_000;
+    }
+
+    // Idle buckets are full again, so they can be dropped once too many usernames are tracked.
+    private static TokenBucket bucket(Map<String, TokenBucket> buckets, String username, double burst, double perSecond) {
+        if (buckets.size() >= MAX_TRACKED_USERS) buckets.values().removeIf(TokenBucket::isFull);
+        return buckets.computeIfAbsent(username, k -> new TokenBucket(burst, perSecond));
+    }
+
+    // ====================== TOKEN BUCKET ======================
+
+    private static final class TokenBucket {
+        private final double capacity;
+        private final double perNano;
+        private double tokens;
+        private long last = System.nanoTime();
+
+        TokenBucket(double capacity, double perSecond) {
+            this.capacity = capacity;
+            this.perNano = perSecond / 1e9;
+            this.tokens = capacity;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - last) * perNano);
+            last = now;
+        }
+
+        // Takes a token and returns 0, or returns the milliseconds until one is available.
+        synchronized long tryTake() {
+            refill();
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / perNano / 1_000_000);
+        }
+
+        synchronized boolean isFull() {
+            refill();
+            return tokens >= capacity;
+        }
+    }
+
+    // ====================== STATISTICS ======================
+
+    public long getCount(Lane lane, Status status) {
+        return counts[lane.ordinal()].get(status.ordinal());
+    }
+
+    public long getShed(Lane lane) {
+        long shed = 0;
+        for (Status s : Status.values()) if (s != Status.ACCEPTED) shed += getCount(lane, s);
+        return shed;
+    }
+
+    public String[] getStats() {
+        String[] lines = new String[Lane.values().length + 1];
+        for (Lane lane : Lane.values()) {
+            lines[lane.ordinal()] = String.format("%-11s accepted %,d, shed %,d (user rate %,d, global rate %,d, queue full %,d)",
+                lane, getCount(lane, Status.ACCEPTED), getShed(lane), getCount(lane, Status.USER_RATE),
+                getCount(lane, Status.GLOBAL_RATE), getCount(lane, Status.QUEUE_FULL));
+        }
+        lines[Lane.values().length] = String.format("Auth pool: %d thread(s), queue %d/%d, avg verification %.2f ms, tracked users %,d",
+            limits.authThreads(), authPool.getQueue().size(), Math.max(1, limits.authQueue()), authNanos.get() / 1e6,
+            authUsers.size() + txnUsers.size());
+        return lines;
+    }
+}
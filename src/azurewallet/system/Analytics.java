@@ -0,0 +1,349 @@
+package azurewallet.system;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.*;
+import java.util.*;
+import azurewallet.storage.LogStore;
+
+// Columnar copy of the transaction and points history for reporting. Every record is kept
+// as primitives (time, user id, type code, counterparty id, amount) in one partition per
+// day, appended as the logs are written and stored in data/analytics/<date>.col as fixed
+// 25-byte rows. Names are interned in dictionary.txt. Queries aggregate the partitions of
+// a date range in parallel and merge the per-partition results.
+public class Analytics {
+
+    public enum Type { DEPOSIT, WITHDRAW, PAYMENT, SENT, RECEIVED, POINTS_EARNED, POINTS_REDEEMED, POINTS_EXPIRED }
+
+    public enum GroupBy { DAY, TYPE, USER, COUNTERPARTY, PAIR }
+
+    public static class Agg {
+        private double sum;
+        private long count;
+
+        public double getSum() { return sum; }
+        public long getCount() { return count; }
+
+        void merge(Agg other) {
+            sum += other.sum;
+            count += other.count;
+        }
+    }
+
+    private static final int ROW = 8 + 4 + 1 + 4 + 8;
+    private static final String MERCHANT_PREFIX = "merchant:";
+
+    private final File dir;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final TreeMap<Long, Partition> partitions = new TreeMap<>();
+    private PrintWriter dictionaryOut;
+
+    public Analytics(String dir) {
+        this.dir = new File(dir);
+        this.dir.mkdirs();
+        load();
+    }
+
+    // ====================== PARTITIONS ======================
+
+    // One day of rows in parallel primitive arrays, mirrored to an append-only file.
+    private class Partition {
+        final long day;
+        long[] time = new long[64];
+        int[] user = new int[64];
+        byte[] type = new byte[64];
+        int[] counterparty = new int[64];
+        double[] amount = new double[64];
+        int size;
+        FileChannel out;
+
+        Partition(long day) {
+            this.day = day;
+        }
+
+        File file() {
+            return new File(dir, LocalDate.ofEpochDay(day) + ".col");
+        }
+
+        void add(long t, int u, byte ty, int cp, double amt) {
+            if (size == time.length) {
+                int cap = size * 2;
+                time = Arrays.copyOf(time, cap);
+                user = Arrays.copyOf(user, cap);
+                type = Arrays.copyOf(type, cap);
+                counterparty = Arrays.copyOf(counterparty, cap);
+                amount = Arrays.copyOf(amount, cap);
+            }
+            time[size] = t;
+            user[size] = u;
+            type[size] = ty;
+            counterparty[size] = cp;
+            amount[size] = amt;
+            size++;
+        }
+
+        void persist(int from) throws IOException {
+            if (out == null) out = FileChannel.open(file().toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            ByteBuffer buf = ByteBuffer.allocate((size - from) * ROW);
+            for (int i = from; i < size; i++) {
+                buf.putLong(time[i]).putInt(user[i]).put(type[i]).putInt(counterparty[i]).putDouble(amount[i]);
+            }
+            buf.flip();
+            while (buf.hasRemaining()) out.write(buf);
+        }
+
+        void close() {
+            if (out == null) return;
+            try {
+                out.close();
+            } catch (IOException ignored) {}
+            out = null;
+        }
+    }
+
+    private void load() {
+        File dict = new File(dir, "dictionary.txt");
+        if (dict.exists()) {
+            try (BufferedReader br = new BufferedReader(new FileReader(dict, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    ids.put(line, names.size());
+                    names.add(line);
+                }
+            } catch (IOException e) {
+                System.out.println("| Error reading analytics dictionary.                     |");
+            }
+        }
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".col"));
+        if (files == null) return;
+        for (File f : files) {
+            long day = LocalDate.parse(f.getName().substring(0, f.getName().length() - 4)).toEpochDay();
+            Partition p = new Partition(day);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16))) {
+                long rows = f.length() / ROW;
+                for (long i = 0; i < rows; i++) p.add(in.readLong(), in.readInt(), in.readByte(), in.readInt(), in.readDouble());
+            } catch (IOException e) {
+                System.out.println("| Error reading analytics partition " + f.getName());
+            }
+            // A row torn by a crash is cut off so the next append starts on a row boundary.
+            long valid = (long) p.size * ROW, extra = f.length() - valid;
+            if (extra > 0) {
+                try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                    raf.setLength(valid);
+                    System.out.println("| Dropped " + extra + " byte(s) of a partial row in " + f.getName());
+                } catch (IOException e) {
+                    System.out.println("| Error truncating analytics partition " + f.getName());
+                }
+            }
+            partitions.put(day, p);
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return partitions.isEmpty();
+    }
+
+    private int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        id = names.size();
+        ids.put(name, id);
+        names.add(name);
+        try {
+            if (dictionaryOut == null) {
+                dictionaryOut = new PrintWriter(new FileWriter(new File(dir, "dictionary.txt"), StandardCharsets.UTF_8, true), true);
+            }
+            dictionaryOut.println(name);
+        } catch (IOException e) {
+            System.out.println("| Error writing analytics dictionary.                     |");
+        }
+        return id;
+    }
+
+    public synchronized String nameOf(int id) {
+        if (id < 0 || id >= names.size()) return "?";
+        String name = names.get(id);
+        return name.startsWith(MERCHANT_PREFIX) ? name.substring(MERCHANT_PREFIX.length()) : name;
+    }
+
+    // ====================== INGEST ======================
+
+    public record Event(long time, String user, Type type, String counterparty, double amount) {}
+
+    public void record(long time, String user, Type type, String counterparty, double amount) {
+        recordAll(List.of(new Event(time, user, type, counterparty, amount)));
+    }
+
+    public synchronized void recordAll(List<Event> events) {
+        Map<Partition, Integer> firstNew = new LinkedHashMap<>();
+        ZoneId zone = ZoneId.systemDefault();
+        for (Event e : events) {
+            long day = Instant.ofEpochMilli(e.time()).atZone(zone).toLocalDate().toEpochDay();
+            Partition p = partitions.computeIfAbsent(day, Partition::new);
+            firstNew.putIfAbsent(p, p.size);
+            p.add(e.time(), intern(e.user()), (byte) e.type().ordinal(),
+                e.counterparty() == null ? -1 : intern(e.counterparty()), e.amount());
+        }
+        for (Map.Entry<Partition, Integer> f : firstNew.entrySet()) {
+            try {
+                f.getKey().persist(f.getValue());
+            } catch (IOException ex) {
+                System.out.println("| Error writing analytics partition.                      |");
+            }
+        }
+    }
+
+    // Maps a points log action ("earned", "redeemed", "expired") to its type, or null.
+    public static Type pointsType(String action) {
+        return switch (action) {
+            case "earned" -> Type.POINTS_EARNED;
+            case "redeemed" -> Type.POINTS_REDEEMED;
+            case "expired" -> Type.POINTS_EXPIRED;
+            default -> null;
+        };
+    }
+
+    // Maps a transaction log type ("Deposit", "Paid to X", "Sent to Y", ...) to an event.
+    public static Event fromTransaction(long time, String user, String type, double amount) {
+        if (type.equals("Deposit")) return new Event(time, user, Type.DEPOSIT, null, amount);
+        if (type.equals("Withdraw")) return new Event(time, user, Type.WITHDRAW, null, amount);
+        if (type.startsWith("Paid to ")) {
+            return new Event(time, user, Type.PAYMENT, MERCHANT_PREFIX + MerchantPayments.normalizeId(type.substring(8)), amount);
+        }
+        if (type.startsWith("Sent to ")) return new Event(time, user, Type.SENT, type.substring(8), amount);
+        if (type.startsWith("Received from ")) return new Event(time, user, Type.RECEIVED, type.substring(14), amount);
+        return null;
+    }
+
+    // First start with analytics: converts the existing logs once per data directory.
+    public void backfill(LogStore logs) {
+        File marker = new File(dir, ".backfilled");
+        if (marker.exists()) return;
+        List<Event> events = new ArrayList<>();
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            for (LogStore.Segment segment : logs.segments("transactions.txt", Long.MAX_VALUE)) {
+                segment.forEachLine(line -> {
+                    String[] parts = split(line);
+                    if (parts == null) return;
+                    int colon = parts[1].indexOf(": ");
+                    int php = parts[1].lastIndexOf(" - PHP ");
+                    if (colon < 0 || php < colon) return;
+                    try {
+                        long time = LocalDateTime.parse(parts[0]).atZone(zone).toInstant().toEpochMilli();
+                        Event e = fromTransaction(time, parts[1].substring(0, colon), parts[1].substring(colon + 2, php),
+                            Double.parseDouble(parts[1].substring(php + 7).trim().replace(",", "")));
+                        if (e != null) events.add(e);
+                    } catch (RuntimeException ignored) {}
+                });
+            }
+            for (LogStore.Segment segment : logs.segments("points_log.txt", Long.MAX_VALUE)) {
+                segment.forEachLine(line -> {
+                    String[] parts = split(line);
+                    if (parts == null) return;
+                    String[] p = parts[1].split(" ", 4);
+                    if (p.length < 3) return;
+                    try {
+                        long time = LocalDateTime.parse(parts[0]).atZone(zone).toInstant().toEpochMilli();
+                        Type type = pointsType(p[1]);
+                        if (type == null) return;
+                        events.add(new Event(time, p[0], type, null, Integer.parseInt(p[2])));
+                    } catch (RuntimeException ignored) {}
+                });
+            }
+        } catch (IOException e) {
+            System.out.println("| Error converting logs for analytics.                    |");
+            return;
+        }
+        recordAll(events);
+        try {
+            marker.createNewFile();
+        } catch (IOException ignored) {}
+        if (!events.isEmpty()) System.out.println("| Analytics: converted " + events.size() + " log record(s).");
+    }
+
+    // Splits "timestamp - [TXid - ]body" into timestamp and body.
+    private static String[] split(String line) {
+        int sep = line.indexOf(" - ");
+        if (sep < 0) return null;
+        String body = line.substring(sep + 3);
+        int next = body.indexOf(" - ");
+        if (next > 0 && TxnIds.parse(body.substring(0, next)) >= 0) body = body.substring(next + 3);
+        return new String[] { line.substring(0, sep), body };
+    }
+
+    public synchronized void clear() {
+        for (Partition p : partitions.values()) {
+            p.close();
+            p.file().delete();
+        }
+        partitions.clear();
+        if (dictionaryOut != null) dictionaryOut.close();
+        dictionaryOut = null;
+        new File(dir, "dictionary.txt").delete();
+        ids.clear();
+        names.clear();
+    }
+
+    // ====================== QUERIES ======================
+
+    private record View(long day, long[] time, int[] user, byte[] type, int[] counterparty, double[] amount, int size) {}
+
+    // Sums amount and counts rows of the given types in [from, to], grouped by the key.
+    // Each partition is scanned on its own task against a snapshot of its arrays.
+    public Map<Long, Agg> aggregate(LocalDate from, LocalDate to, EnumSet<Type> types, GroupBy by) {
+        List<View> views = new ArrayList<>();
+        synchronized (this) {
+            for (Partition p : partitions.subMap(from.toEpochDay(), true, to.toEpochDay(), true).values()) {
+                views.add(new View(p.day, p.time, p.user, p.type, p.counterparty, p.amount, p.size));
+            }
+        }
+        boolean[] wanted = new boolean[Type.values().length];
+        for (Type t : types) wanted[t.ordinal()] = true;
+
+        return views.parallelStream()
+            .map(v -> {
+                Map<Long, Agg> local = new HashMap<>();
+                for (int i = 0; i < v.size(); i++) {
+                    if (!wanted[v.type()[i]]) continue;
+                    long key = switch (by) {
+                        case DAY -> v.day();
+                        case TYPE -> v.type()[i];
+                        case USER -> v.user()[i];
+                        case COUNTERPARTY -> v.counterparty()[i];
+                        case PAIR -> ((long) v.user()[i] << 32) | (v.counterparty()[i] & 0xffffffffL);
+                    };
+                    Agg agg = local.computeIfAbsent(key, k -> new Agg());
+                    agg.sum += v.amount()[i];
+                    agg.count++;
+                }
+                return local;
+            })
+            .reduce(new HashMap<>(), (a, b) -> {
+                Map<Long, Agg> merged = new HashMap<>(a);
+                for (Map.Entry<Long, Agg> e : b.entrySet()) merged.computeIfAbsent(e.getKey(), k -> new Agg()).merge(e.getValue());
+                return merged;
+            });
+    }
+
+    // The n groups with the largest sums, largest first.
+    public static List<Map.Entry<Long, Agg>> top(Map<Long, Agg> groups, int n) {
+        List<Map.Entry<Long, Agg>> entries = new ArrayList<>(groups.entrySet());
+        entries.sort((a, b) -> Double.compare(b.getValue().sum, a.getValue().sum));
+        return entries.subList(0, Math.min(n, entries.size()));
+    }
+
+    public synchronized long getRowCount() {
+        long rows = 0;
+        for (Partition p : partitions.values()) rows += p.size;
+        return rows;
+    }
+
+    public synchronized int getPartitionCount() {
+        return partitions.size();
+    }
+}
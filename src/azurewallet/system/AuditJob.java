@@ -0,0 +1,233 @@
+package azurewallet.system;
+
+import java.io.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import azurewallet.models.UserAccount;
+import azurewallet.storage.LogStore;
+
+// Reconciles the stored accounts against the activity logs. Logs are scanned in parallel
+// segments (byte-range chunks for text logs); each worker keeps per-user totals in arrays
+// indexed by a dense user id, so memory depends on the number of users and workers, never
+// on the size of the logs.
+public class AuditJob {
+    private static final long CHUNK_SIZE = 8L * 1024 * 1024;
+    private static final double WITHDRAW_FEE = 15.0;
+    // Log lines round amounts to centavos, so each record may be off by up to half a centavo.
+    private static final double ROUNDING_PER_RECORD = 0.005;
+
+    private final FileManager fileManager;
+    private final Map<String, UserAccount> users;
+
+    public AuditJob(FileManager fileManager, Map<String, UserAccount> users) {
+        this.fileManager = fileManager;
+        this.users = users;
+    }
+
+    private enum Source { TRANSACTIONS, POINTS, INTEREST, VOUCHERS, REVENUE }
+
+    private record Task(Source source, LogStore.Segment segment) {}
+
+    // Per-worker accumulator.
+    private static class Totals {
+        final double[] balance;
+        final long[] points;
+        final int[] userRecords;
+        long records;
+        long unknownUserRecords;
+        long malformed;
+        long withdrawals;
+        double loggedRevenue;
+
+        Totals(int userCount) {
+            balance = new double[userCount];
+            points = new long[userCount];
+            userRecords = new int[userCount];
+        }
+
+        void merge(Totals other) {
+            for (int i = 0; i < balance.length; i++) {
+                balance[i] += other.balance[i];
+                points[i] += other.points[i];
+                userRecords[i] += other.userRecords[i];
+            }
+            records += other.records;
+            unknownUserRecords += other.unknownUserRecords;
+            malformed += other.malformed;
+            withdrawals += other.withdrawals;
+            loggedRevenue += other.loggedRevenue;
+        }
+    }
+
+    public record Result(int usersChecked, int discrepancies, long records, long malformed, File report, long millis) {}
+
+    public Result run() {
+        long start = System.currentTimeMillis();
+        List<String> names = new ArrayList<>(users.keySet());
+        Map<String, Integer> ids = new HashMap<>(names.size() * 2);
+        for (int i = 0; i < names.size(); i++) ids.put(names.get(i), i);
+
+        BlockingQueue<Task> tasks = new LinkedBlockingQueue<>();
+        addTasks(tasks, Source.TRANSACTIONS, "transactions.txt");
+        addTasks(tasks, Source.POINTS, "points_log.txt");
+        addTasks(tasks, Source.INTEREST, "interest_log.txt");
+        addTasks(tasks, Source.VOUCHERS, "voucher_log.txt");
+        addTasks(tasks, Source.REVENUE, "system_revenue.txt");
+
+        int workers = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), tasks.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<Totals>> futures = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            futures.add(pool.submit(() -> {
+                Totals totals = new Totals(names.size());
+                Task task;
+                while ((task = tasks.poll()) != null) {
+                    final Source source = task.source();
+                    task.segment().forEachLine(line -> parse(source, line, ids, totals));
+                }
+                return totals;
+            }));
+        }
+
+        Totals expected = new Totals(names.size());
+        try {
+            for (Future<Totals> f : futures) expected.merge(f.get());
+        } catch (InterruptedException | ExecutionException e) {
+            System.out.println("Audit failed: " + e.getMessage());
+            pool.shutdownNow();
+            return null;
+        }
+        pool.shutdown();
+
+        File report = fileManager.getDataFile("audit_report.txt");
+        int discrepancies = 0;
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(report)))) {
+            pw.println("AUDIT REPORT - " + LocalDateTime.now());
+            pw.println("username,field,stored,expected,difference");
+            for (int i = 0; i < names.size(); i++) {
+                UserAccount acc = users.get(names.get(i));
+                if (acc == null) continue;
+                double balanceDiff = acc.getBalance() - expected.balance[i];
+                if (Math.abs(balanceDiff) > ROUNDING_PER_RECORD * (expected.userRecords[i] + 1)) {
+                    pw.printf("%s,balance,%.2f,%.2f,%.2f%n", names.get(i), acc.getBalance(), expected.balance[i], balanceDiff);
+                    discrepancies++;
+                }
+                if (acc.getPoints() != expected.points[i]) {
+                    pw.printf("%s,points,%d,%d,%d%n", names.get(i), acc.getPoints(), expected.points[i], acc.getPoints() - expected.points[i]);
+                    discrepancies++;
+                }
+            }
+            double expectedRevenue = expected.withdrawals * WITHDRAW_FEE;
+            double recordedRevenue = fileManager.readSystemRevenue();
+            if (Math.abs(recordedRevenue - expectedRevenue) > ROUNDING_PER_RECORD) {
+                pw.printf("SYSTEM,revenue,%.2f,%.2f,%.2f%n", recordedRevenue, expectedRevenue, recordedRevenue - expectedRevenue);
+                discrepancies++;
+            }
+            pw.println("---");
+            pw.println("Users checked: " + names.size());
+            pw.println("Log records scanned: " + expected.records);
+            pw.println("Records for unknown users: " + expected.unknownUserRecords);
+            pw.println("Malformed records: " + expected.malformed);
+            pw.printf("Legacy system_revenue.txt total: %.2f%n", expected.loggedRevenue);
+            pw.println("Discrepancies: " + discrepancies);
+        } catch (IOException e) {
+            System.out.println("Error writing audit report.");
+        }
+        return new Result(names.size(), discrepancies, expected.records, expected.malformed, report,
+            System.currentTimeMillis() - start);
+    }
+
+    private void addTasks(BlockingQueue<Task> tasks, Source source, String logName) {
+        for (LogStore.Segment segment : fileManager.getStorage().logStore().segments(logName, CHUNK_SIZE)) {
+            tasks.add(new Task(source, segment));
+        }
+    }
+
+    // ====================== LINE PARSERS ======================
+
+    private static void parse(Source source, String line, Map<String, Integer> ids, Totals t) {
+        int sep = line.indexOf(" - ");
+        if (sep < 0) {
+            if (!line.isBlank()) t.malformed++;
+            return;
+        }
+        String body = line.substring(sep + 3);
+        // Skip the transaction id stamped after the timestamp (absent on older records).
+        if (body.startsWith("TX")) {
+            int next = body.indexOf(" - ");
+            if (next > 0) body = body.substring(next + 3);
+        }
+        try {
+            switch (source) {
+                case TRANSACTIONS -> parseTransaction(body, ids, t);
+                case POINTS -> parsePoints(body, ids, t);
+                case INTEREST -> {
+                    int colon = body.indexOf(": +PHP ");
+                    apply(ids, t, body.substring(0, colon), amount(body.substring(colon + 7)), 0);
+                }
+                case VOUCHERS -> {
+                    int space = body.indexOf(' ');
+                    if (!body.startsWith(" redeemed ", space)) return;
+                    int php = body.lastIndexOf("(PHP ");
+                    apply(ids, t, body.substring(0, space), amount(body.substring(php + 5, body.length() - 1)), 0);
+                }
+                case REVENUE -> {
+                    t.loggedRevenue += amount(body.substring(body.indexOf("PHP") + 4));
+                    t.records++;
+                }
+            }
+        } catch (RuntimeException e) {
+            t.malformed++;
+        }
+    }
+
+    private static void parseTransaction(String body, Map<String, Integer> ids, Totals t) {
+        int colon = body.indexOf(": ");
+        int php = body.lastIndexOf(" - PHP ");
+        String user = body.substring(0, colon);
+        String type = body.substring(colon + 2, php);
+        double amount = amount(body.substring(php + 7));
+        if (type.startsWith(FileManager.REVERSAL)) {
+            type = type.substring(FileManager.REVERSAL.length());
+            amount = -amount;
+        }
+        if (type.equals("Deposit") || type.startsWith("Received from ")) {
+            apply(ids, t, user, amount, 0);
+        } else if (type.equals("Withdraw")) {
+            apply(ids, t, user, -(amount + WITHDRAW_FEE), 0);
+            t.withdrawals++;
+        } else {
+            apply(ids, t, user, -amount, 0);
+        }
+    }
+
+    private static void parsePoints(String body, Map<String, Integer> ids, Totals t) {
+        String[] p = body.split(" ", 4);
+        int pts = Integer.parseInt(p[2]);
+        if (p[1].equals("earned")) {
+            apply(ids, t, p[0], 0, pts);
+        } else if (p[1].equals("expired")) {
+            apply(ids, t, p[0], 0, -pts);
+        } else {
+            int php = body.lastIndexOf("PHP ");
+            apply(ids, t, p[0], amount(body.substring(php + 4, body.length() - 1)), -pts);
+        }
+    }
+
+    private static void apply(Map<String, Integer> ids, Totals t, String user, double amount, long points) {
+        t.records++;
+        Integer id = ids.get(user);
+        if (id == null) {
+            t.unknownUserRecords++;
+            return;
+        }
+        t.balance[id] += amount;
+        t.points[id] += points;
+        t.userRecords[id]++;
+    }
+
+    private static double amount(String text) {
+        return Double.parseDouble(text.trim().replace(",", ""));
+    }
+}
@@ -0,0 +1,259 @@
+package azurewallet.system;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-account balance checkpoints for as-of queries. Each checkpoint is one block appended to
+// a binary file: a header with its time and ledger seq and position, then one fixed-width
+// entry per user account sorted by username hash. The headers are kept in memory in time
+// order, so a query binary-searches for the last checkpoint at or before the requested time,
+// binary-searches the account's entry inside that block with a few seeks, and replays only
+// the ledger postings written between that checkpoint and the next one.
+public class BalanceCheckpoints {
+    private static final int MAGIC = 0x41434b50;
+    private static final int HEADER = 36;
+    private static final int ENTRY = 24;
+
+    public record AsOf(double balance, long points, long checkpointTime, long replayedPostings) {}
+
+    private final File file;
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+
+    // Guarded by this; one slot per checkpoint, in the order they were written.
+    private long[] times = new long[16];
+    private long[] seqs = new long[16];
+    private long[] positions = new long[16];
+    private long[] offsets = new long[16];
+    private int[] counts = new int[16];
+    private int[] dropped = new int[16];
+    private int size;
+    private long length;
+
+    // A null path uses a temporary file.
+    public BalanceCheckpoints(String path) {
+        this.file = path == null ? tempFile() : new File(path);
+        load();
+    }
+
+    private static File tempFile() {
+        try {
+            File f = File.createTempFile("azure-checkpoints", ".dat");
+            f.deleteOnExit();
+            return f;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Reads only the block headers, skipping over the entries. A block cut short by a crash
+    // is truncated away.
+    private synchronized void load() {
+        size = 0;
+        length = 0;
+        if (!file.exists()) return;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long fileLength = raf.length();
+            long offset = 0;
+            while (offset + HEADER <= fileLength) {
+                raf.seek(offset);
+                if (raf.readInt() != MAGIC) break;
+                long time = raf.readLong(), seq = raf.readLong(), position = raf.readLong();
+                int count = raf.readInt(), drop = raf.readInt();
+                long end = offset + HEADER + (long) count * ENTRY;
+                if (count < 0 || end > fileLength) break;
+                add(time, seq, position, offset, count, drop);
+                offset = end;
+            }
+            if (offset < fileLength) {
+                System.out.println("| Dropped " + (fileLength - offset) + " byte(s) of an unfinished balance checkpoint.");
+                raf.setLength(offset);
+            }
+            length = offset;
+        } catch (IOException e) {
+            System.out.println("| Error reading balance checkpoints: " + e.getMessage());
+        }
+    }
+
+    private void add(long time, long seq, long position, long offset, int count, int drop) {
+        if (size == times.length) {
+            int n = size * 2;
+            times = Arrays.copyOf(times, n);
+            seqs = Arrays.copyOf(seqs, n);
+            positions = Arrays.copyOf(positions, n);
+            offsets = Arrays.copyOf(offsets, n);
+            counts = Arrays.copyOf(counts, n);
+            dropped = Arrays.copyOf(dropped, n);
+        }
+        times[size] = time;
+        seqs[size] = seq;
+        positions[size] = position;
+        offsets[size] = offset;
+        counts[size] = count;
+        dropped[size] = drop;
+        size++;
+    }
+
+    // 64-bit FNV-1a of the username's UTF-8 bytes.
+    private static long hash(String username) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : username.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // ====================== CHECKPOINT ======================
+
+    // Appends a checkpoint of every user position; skipped when nothing was posted since the
+    // last one. Accounts whose hashes collide are left out and counted in the header, so a
+    // query that misses in such a block replays from the start of the ledger instead.
+    public synchronized boolean checkpoint(Ledger ledger) {
+        Ledger.State state = ledger.capture();
+        if (state.seq() == 0 || (size > 0 && seqs[size - 1] == state.seq())) return false;
+        if (size > 0 && state.time() < times[size - 1]) return false;
+
+        List<long[]> rows = new ArrayList<>();
+        for (Map.Entry<String, Ledger.Position> e : state.positions().entrySet()) {
+            String username = Ledger.userOf(e.getKey());
+            if (username == null) continue;
+            Ledger.Position pos = e.getValue();
+            rows.add(new long[] { hash(username), Double.doubleToLongBits(pos.getBalance()), pos.getPoints() });
+        }
+        rows.sort(Comparator.comparingLong(r -> r[0]));
+
+        ByteBuffer block = ByteBuffer.allocate(HEADER + rows.size() * ENTRY);
+        block.position(HEADER);
+        int count = 0, drop = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            long h = rows.get(i)[0];
+            boolean collides = (i > 0 && rows.get(i - 1)[0] == h) || (i + 1 < rows.size() && rows.get(i + 1)[0] == h);
+            if (collides) {
+                drop++;
+                continue;
+            }
+            block.putLong(h).putLong(rows.get(i)[1]).putLong(rows.get(i)[2]);
+            count++;
+        }
+        block.putInt(0, MAGIC).putLong(4, state.time()).putLong(12, state.seq()).putLong(20, state.position())
+            .putInt(28, count).putInt(32, drop);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(length);
+            raf.write(block.array(), 0, HEADER + count * ENTRY);
+        } catch (IOException e) {
+            System.out.println("| Error writing balance checkpoint: " + e.getMessage());
+            return false;
+        }
+        add(state.time(), state.seq(), state.position(), length, count, drop);
+        length += HEADER + (long) count * ENTRY;
+        return true;
+    }
+
+    // ====================== AS-OF QUERY ======================
+
+    public AsOf asOf(Ledger ledger, String username, long millis) {
+        long from = 0, afterSeq = 0, to = Long.MAX_VALUE, checkpointTime = 0;
+        double balance = 0;
+        long points = 0;
+        synchronized (this) {
+            int k = floor(millis);
+            if (k >= 0) {
+                checkpointTime = times[k];
+                from = positions[k];
+                afterSeq = seqs[k];
+                long[] entry = find(k, hash(username));
+                if (entry != null) {
+                    balance = Double.longBitsToDouble(entry[0]);
+                    points = entry[1];
+                } else if (dropped[k] > 0) {
+                    from = 0;
+                    afterSeq = 0;
+                    checkpointTime = 0;
+                }
+            }
+            // Postings stored after the next checkpoint were all made after the requested time.
+            if (k + 1 < size) to = positions[k + 1];
+        }
+
+        String account = Ledger.user(username);
+        long seq = afterSeq;
+        double[] cash = { balance };
+        long[] pts = { points };
+        long[] count = { 0 };
+        ledger.forEachPosting(from, to, p -> {
+            if (p.seq() <= seq || p.time() > millis) return;
+            boolean debit = p.debit().equals(account), credit = p.credit().equals(account);
+            if (!debit && !credit) return;
+            double amount = (credit ? p.amount() : 0) - (debit ? p.amount() : 0);
+            if (p.unit() == Ledger.Unit.PTS) pts[0] += (long) amount;
+            else cash[0] += amount;
+            count[0]++;
+        });
+        queries.incrementAndGet();
+        replayed.addAndGet(count[0]);
+        return new AsOf(cash[0], pts[0], checkpointTime, count[0]);
+    }
+
+    // The last checkpoint taken at or before millis, or -1.
+    private int floor(long millis) {
+        int lo = 0, hi = size - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] <= millis) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    // {balance bits, points} of the entry with this hash in checkpoint k, or null.
+    private long[] find(int k, long h) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long base = offsets[k] + HEADER;
+            int lo = 0, hi = counts[k] - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                raf.seek(base + (long) mid * ENTRY);
+                long probe = raf.readLong();
+                if (probe == h) return new long[] { raf.readLong(), raf.readLong() };
+                if (probe < h) lo = mid + 1;
+                else hi = mid - 1;
+            }
+        } catch (IOException e) {
+            System.out.println("| Error reading balance checkpoint: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // ====================== MAINTENANCE ======================
+
+    public synchronized void clear() {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+        } catch (IOException e) {
+            System.out.println("| Error clearing balance checkpoints: " + e.getMessage());
+        }
+        size = 0;
+        length = 0;
+    }
+
+    public synchronized String getStats() {
+        long q = queries.get();
+        String latest = size == 0 ? "none"
+            : LocalDateTime.ofInstant(Instant.ofEpochMilli(times[size - 1]), ZoneId.systemDefault()).withNano(0)
+                + " (" + counts[size - 1] + " account(s))";
+        return String.format("Checkpoints: %,d, latest %s, file %,d bytes%nAs-of queries: %,d, avg %.1f posting(s) replayed",
+            size, latest, length, q, q == 0 ? 0.0 : (double) replayed.get() / q);
+    }
+}
@@ -0,0 +1,99 @@
+package azurewallet.system;
+
+import java.util.*;
+import azurewallet.models.ActivityWindows;
+import azurewallet.models.UserAccount;
+
+// One sender paying many recipients in a single operation. The whole batch is validated
+// before any balance moves; if every leg is valid all legs are applied together and
+// persisted with one ledger commit, one transaction-log write and one account flush.
+public class BulkTransfer {
+
+    public record Leg(String recipient, double amount) {}
+
+    public record LegResult(String recipient, double amount, String status) {}
+
+    public record Result(boolean applied, String message, List<LegResult> legs, double total, long millis) {
+        public double legsPerSecond() {
+            return millis == 0 ? legs.size() * 1000.0 : legs.size() * 1000.0 / millis;
+        }
+    }
+
+    private final FileManager fileManager;
+    private final Map<String, UserAccount> users;
+
+    public BulkTransfer(FileManager fileManager, Map<String, UserAccount> users) {
+        this.fileManager = fileManager;
+        this.users = users;
+    }
+
+    public Result execute(String senderName, List<Leg> legs) {
+        long start = System.currentTimeMillis();
+        synchronized (users) {
+            UserAccount sender = users.get(senderName);
+            if (sender == null) return rejected("Sender not found.", legs, start);
+            if (legs.isEmpty()) return rejected("Batch is empty.", legs, start);
+
+            // ---------- validation ----------
+            List<LegResult> results = new ArrayList<>(legs.size());
+            double total = 0.0;
+            boolean valid = true;
+            for (Leg leg : legs) {
+                String status = "OK";
+                if (leg.recipient().equals(senderName)) status = "REJECTED: cannot send to self";
+                else if (!users.containsKey(leg.recipient())) status = "REJECTED: recipient not found";
+                else if (!(leg.amount() > 0) || !Double.isFinite(leg.amount())) status = "REJECTED: invalid amount";
+                else if (leg.amount() > sender.getSendLimit()) status = "REJECTED: exceeds send limit";
+                if (!status.equals("OK")) valid = false;
+                total += leg.amount();
+                results.add(new LegResult(leg.recipient(), leg.amount(), status));
+            }
+            if (!valid) return new Result(false, "Batch rejected: one or more legs are invalid.", results, total, System.currentTimeMillis() - start);
+            if (total > sender.getBalance()) {
+                return new Result(false, "Batch rejected: insufficient balance for total PHP " + String.format("%,.2f", total) + ".",
+                    results, total, System.currentTimeMillis() - start);
+            }
+            // The batch counts as one send against the sender's rolling 24h / 30-day limits.
+            String limit = sender.checkCumulativeLimit(ActivityWindows.Kind.SEND, total);
+            if (limit != null) {
+                return new Result(false, "Batch rejected: " + limit + ".", results, total, System.currentTimeMillis() - start);
+            }
+
+            // ---------- post ----------
+            // The ledger goes first: if it refuses the batch, no balance has moved yet.
+            List<Ledger.Entry> postings = new ArrayList<>(legs.size());
+            List<FileManager.TransactionEntry> log = new ArrayList<>(legs.size() * 2);
+            for (Leg leg : legs) {
+                postings.add(new Ledger.Entry(Ledger.Type.TRANSFER, Ledger.Unit.PHP, Ledger.user(senderName),
+                    Ledger.user(leg.recipient()), leg.amount(), "Bulk transfer"));
+                long id = fileManager.nextTxnId();
+                log.add(new FileManager.TransactionEntry(id, senderName, "Sent to " + leg.recipient(), leg.amount()));
+                log.add(new FileManager.TransactionEntry(id, leg.recipient(), "Received from " + senderName, leg.amount()));
+            }
+            if (fileManager.getLedger().postAll(postings) < 0) {
+                return rejected("Batch failed: the ledger could not be written; no money was moved.", legs, start);
+            }
+
+            // ---------- apply ----------
+            sender.withdraw(total);
+            sender.recordActivity(ActivityWindows.Kind.SEND, total);
+            for (Leg leg : legs) users.get(leg.recipient()).deposit(leg.amount());
+            fileManager.logTransactions(log);
+            fileManager.saveUsers(users);
+
+            List<LegResult> applied = new ArrayList<>(results.size());
+            for (LegResult r : results) applied.add(new LegResult(r.recipient(), r.amount(), "SENT"));
+            return new Result(true, "Batch applied.", applied, total, System.currentTimeMillis() - start);
+        }
+    }
+
+    private Result rejected(String message, List<Leg> legs, long start) {
+        List<LegResult> results = new ArrayList<>(legs.size());
+        double total = 0.0;
+        for (Leg leg : legs) {
+            results.add(new LegResult(leg.recipient(), leg.amount(), "NOT PROCESSED"));
+            total += leg.amount();
+        }
+        return new Result(false, message, results, total, System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,80 @@
+package azurewallet.system;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Append-only change stream shipped to read replicas. Each record is
+// seq|millis|KIND|payload where KIND is ACCOUNT (full account line), REMOVE (username),
+// CLEAR, TXN (transaction log line) or REVENUE (current system revenue total).
+public class ChangeStream {
+    public static final String ACCOUNT = "ACCOUNT";
+    public static final String REMOVE = "REMOVE";
+    public static final String CLEAR = "CLEAR";
+    public static final String TXN = "TXN";
+    public static final String REVENUE = "REVENUE";
+
+    private final File file;
+    private long lastSeq;
+    private FileOutputStream out;
+
+    public ChangeStream(String path) {
+        this.file = new File(path);
+        try {
+            file.createNewFile();
+        } catch (IOException e) {
+            System.out.println("| Error initializing change stream.                       |");
+        }
+        lastSeq = readLastSeq();
+    }
+
+    public boolean isEmpty() { return file.length() == 0; }
+
+    public void append(String kind, String payload) {
+        appendAll(kind, List.of(payload));
+    }
+
+    // Appends one record per payload with a single write.
+    public synchronized void appendAll(String kind, List<String> payloads) {
+        if (payloads.isEmpty()) return;
+        long seq = lastSeq;
+        long now = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder(payloads.size() * 96);
+        for (String payload : payloads) {
+            sb.append(++seq).append('|').append(now).append('|').append(kind).append('|')
+                .append(payload.replace('\n', ' ')).append('\n');
+        }
+        try {
+            if (out == null) out = new FileOutputStream(file, true);
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.out.println("| Error writing change stream.                            |");
+            return;
+        }
+        lastSeq = seq;
+    }
+
+    // Reads just the tail of the file to find the last sequence number.
+    private long readLastSeq() {
+        long length = file.length();
+        if (length == 0) return 0;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            int tail = (int) Math.min(length, 64 * 1024);
+            byte[] buf = new byte[tail];
+            raf.seek(length - tail);
+            raf.readFully(buf);
+            String[] lines = new String(buf, StandardCharsets.UTF_8).split("\n");
+            for (int i = lines.length - 1; i >= 0; i--) {
+                int bar = lines[i].indexOf('|');
+                if (bar > 0) {
+                    try {
+                        return Long.parseLong(lines[i].substring(0, bar));
+                    } catch (NumberFormatException ignored) {}
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("| Error reading change stream.                            |");
+        }
+        return 0;
+    }
+}
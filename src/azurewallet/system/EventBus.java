@@ -0,0 +1,184 @@
+package azurewallet.system;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import azurewallet.models.UserAccount;
+
+// In-process domain event bus over a pre-allocated ring of event slots. Publishers fill the
+// next slot in place and advance the cursor; every subscriber runs on its own thread, keeps
+// its own sequence and handles whatever has been published since its last pass as one batch.
+// A subscriber can be gated on others so it only sees events they have finished with. A slot
+// is reused only after every subscriber has moved past it, so a full ring makes publishers wait.
+public class EventBus {
+
+    public enum Kind { DEPOSITED, WITHDREW, PAID, TRANSFERRED, VOUCHER_REDEEMED, POINTS_REDEEMED }
+
+    // One ring slot. Its fields are overwritten by the next lap, so handlers must not keep it.
+    public static final class Event {
+        private Kind kind;
+        private UserAccount account;
+        private String counterparty;
+        private double amount;
+        private int points;
+        private long txnId;
+        private long publishedNanos;
+
+        public Kind getKind() { return kind; }
+        public UserAccount getAccount() { return account; }
+        public String getUsername() { return account.getUsername(); }
+        public String getCounterparty() { return counterparty; }
+        public double getAmount() { return amount; }
+        public int getPoints() { return points; }
+        public long getTxnId() { return txnId; }
+        public long getPublishedNanos() { return publishedNanos; }
+    }
+
+    public interface Handler {
+        void onEvent(Event event, boolean endOfBatch);
+    }
+
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+
+    private final Event[] ring;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    public EventBus(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        ring = new Event[size];
+        for (int i = 0; i < size; i++) ring[i] = new Event();
+        mask = size - 1;
+    }
+
+    // ====================== SUBSCRIBERS ======================
+
+    public final class Subscriber implements Runnable {
+        private final String name;
+        private final Handler handler;
+        private final Subscriber[] after;
+        private final AtomicLong sequence = new AtomicLong(-1);
+        private final Thread thread;
+        private volatile boolean parked;
+        private long events;
+        private long batches;
+        private long largestBatch;
+        private long failures;
+
+        private Subscriber(String name, Handler handler, Subscriber[] after) {
+            this.name = name;
+            this.handler = handler;
+            this.after = after;
+            this.thread = new Thread(this, "events-" + name);
+            thread.setDaemon(true);
+        }
+
+        private long available() {
+            long limit = cursor.get();
+            for (Subscriber s : after) limit = Math.min(limit, s.sequence.get());
+            return limit;
+        }
+
+        @Override
+        public void run() {
+            long next = 0;
+            while (true) {
+                long available = available();
+                if (available < next) {
+                    if (!running) return;
+                    parked = true;
+                    if (available() < next && running) LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    parked = false;
+                    continue;
+                }
+                for (long seq = next; seq <= available; seq++) {
+                    try {
+                        handler.onEvent(ring[(int) (seq & mask)], seq == available);
+                    } catch (RuntimeException e) {
+                        failures++;
+                        System.out.println("[events] " + name + " failed on " + ring[(int) (seq & mask)].kind + ": " + e.getMessage());
+                    }
+                }
+                long size = available - next + 1;
+                events += size;
+                batches++;
+                largestBatch = Math.max(largestBatch, size);
+                sequence.set(available);
+                next = available + 1;
+                for (Subscriber s : subscribers) {
+                    if (s.parked) LockSupport.unpark(s.thread);
+                }
+            }
+        }
+
+        public String getName() { return name; }
+
+        public String getStats() {
+            return String.format("%-12s %,10d events in %,8d batches (avg %.1f, max %d), %d failed",
+                name, events, batches, batches == 0 ? 0.0 : (double) events / batches, largestBatch, failures);
+        }
+    }
+
+    // Subscribers must all be added before the first publish.
+    public synchronized Subscriber subscribe(String name, Handler handler, Subscriber... after) {
+        Subscriber s = new Subscriber(name, handler, after);
+        subscribers.add(s);
+        s.thread.start();
+        return s;
+    }
+
+    // ====================== PUBLISHING ======================
+
+    private long minimumSequence() {
+        long min = cursor.get();
+        for (Subscriber s : subscribers) min = Math.min(min, s.sequence.get());
+        return min;
+    }
+
+    public synchronized void publish(Kind kind, UserAccount account, String counterparty, double amount, int points, long txnId) {
+        long seq = cursor.get() + 1;
+        while (seq - ring.length > minimumSequence()) LockSupport.parkNanos(1_000);
+        Event e = ring[(int) (seq & mask)];
+        e.kind = kind;
+        e.account = account;
+        e.counterparty = counterparty;
+        e.amount = amount;
+        e.points = points;
+        e.txnId = txnId;
+        e.publishedNanos = System.nanoTime();
+        cursor.set(seq);
+        for (Subscriber s : subscribers) {
+            if (s.parked) LockSupport.unpark(s.thread);
+        }
+    }
+
+    // Blocks until every subscriber has handled everything published so far.
+    public void awaitIdle() {
+        long target = cursor.get();
+        while (minimumSequence() < target) LockSupport.parkNanos(50_000);
+    }
+
+    public void close() {
+        awaitIdle();
+        running = false;
+        for (Subscriber s : subscribers) {
+            LockSupport.unpark(s.thread);
+            try {
+                s.thread.join(2000);
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
+    // ====================== STATISTICS ======================
+
+    public int getCapacity() { return ring.length; }
+    public long getPublished() { return cursor.get() + 1; }
+    public long getBacklog() { return cursor.get() - minimumSequence(); }
+
+    public List<Subscriber> getSubscribers() {
+        return List.copyOf(subscribers);
+    }
+}
@@ -2,154 +2,463 @@ package azurewallet.system;
 
 import java.io.*;
 import java.util.*;
+import azurewallet.models.PointsLots;
 import azurewallet.models.UserAccount;
+import azurewallet.models.VoucherSystem;
+import azurewallet.storage.AccountStore;
+import azurewallet.storage.LogStore;
+import azurewallet.storage.Storage;
+import azurewallet.storage.TextLogStore;
 import java.text.DecimalFormat;
 
 public class FileManager {
 
     private static final String DATA_DIR = System.getProperty("user.dir") + "/src/azurewallet/data/";
-    private static final String USERS_FILE = DATA_DIR + "users.txt";
-    private static final String TRANSACTIONS_FILE = DATA_DIR + "transactions.txt";
-    private static final String VOUCHERS_FILE = DATA_DIR + "vouchers.txt";
-    private static final String VOUCHER_LOG_FILE = DATA_DIR + "voucher_log.txt";
-    private static final String POINTS_LOG_FILE = DATA_DIR + "points_log.txt";
-    private static final String INTEREST_LOG_FILE = DATA_DIR + "interest_log.txt";
-    private static final String SYSTEM_REVENUE_FILE = DATA_DIR + "system_revenue.txt";
-    private static final String SCHEDULER_FILE = DATA_DIR + "scheduler_log.txt";
+    private static final String TRANSACTIONS_LOG = "transactions.txt";
+    // Prefix of the transaction type on a line that cancels an earlier leg.
+    public static final String REVERSAL = "Reversal of ";
+    private static final String VOUCHER_LOG = "voucher_log.txt";
+    private static final String POINTS_LOG = "points_log.txt";
+    private static final String INTEREST_LOG = "interest_log.txt";
+    private static final String SYSTEM_REVENUE_LOG = "system_revenue.txt";
+    private static final String SCHEDULER_LOG = "scheduler_log.txt";
+    private static final String MERCHANT_PAYMENTS_FILE = DATA_DIR + "merchant_payments.txt";
+    private static final String MERCHANT_TOTALS_FILE = DATA_DIR + "merchant_totals.txt";
+    private static final String SETTLEMENTS_DIR = DATA_DIR + "settlements/";
+    private static final String CHANGES_FILE = DATA_DIR + "changes.log";
 
     private final DecimalFormat df = new DecimalFormat("#,##0.00");
+    private final ShardRouter shards = new ShardRouter(DATA_DIR, Integer.getInteger("azure.shards", 1));
+    // Backend chosen with -Dazure.storage=text|memory|mmap (default text).
+    private final Storage storage = Storage.open(System.getProperty("azure.storage", "text"), DATA_DIR, shards);
+    private final LogStore logs = storage.logStore();
+    private final Ledger ledger = new Ledger(storage.ledgerStore());
+    private final TxnIds txnIds = new TxnIds(logs);
+    // One index per backend, since each backend keeps its own id counter and logs.
+    private final TxnIndex txnIndex = new TxnIndex(
+        DATA_DIR + (storage.name().equals("text") ? "txn_index.dat" : "txn_index_" + storage.name() + ".dat"));
+    private final Analytics analytics = new Analytics(DATA_DIR + "analytics/" + storage.name() + "/");
+    // The idempotency window and balance checkpoints seek within their files, so the memory
+    // backend passes them a null path: a temp file deleted on exit, so nothing outlives the process.
+    // Dedup window for request keys: -Dazure.idempotency.size cached keys (default 10000), kept
+    // for -Dazure.idempotency.hours (default 24).
+    private final Idempotency idempotency = new Idempotency(
+        storage.name().equals("memory") ? null : DATA_DIR + "idempotency_" + storage.name() + ".txt",
+        Integer.getInteger("azure.idempotency.size", 10_000),
+        Long.getLong("azure.idempotency.hours", 24) * 3_600_000L);
+    private final SegmentIndex segments = new SegmentIndex();
+    private final BalanceCheckpoints checkpoints = new BalanceCheckpoints(
+        storage.name().equals("memory") ? null : DATA_DIR + "checkpoints_" + storage.name() + ".dat");
+    private final AdmissionControl admission = new AdmissionControl(AdmissionControl.Limits.fromSystemProperties());
+    private MerchantPayments merchantPayments;
+    private ChangeStream changes;
 
     public FileManager() {
         try {
             File folder = new File(DATA_DIR);
             if (!folder.exists()) folder.mkdirs();
 
-            new File(USERS_FILE).createNewFile();
-            new File(TRANSACTIONS_FILE).createNewFile();
-            new File(VOUCHERS_FILE).createNewFile();
-            new File(VOUCHER_LOG_FILE).createNewFile();
-            new File(POINTS_LOG_FILE).createNewFile();
-            new File(INTEREST_LOG_FILE).createNewFile();
-            new File(SYSTEM_REVENUE_FILE).createNewFile();
-            new File(SCHEDULER_FILE).createNewFile();
+            new File(MERCHANT_PAYMENTS_FILE).createNewFile();
+            VoucherSystem.init(storage.voucherStore());
+            VoucherSystem.setHolderListener(segments::setVoucherHolder);
 
             System.out.println("+----------------------------------------------------------+");
             System.out.println("| Data directory initialized: " + DATA_DIR);
+            System.out.println("| Storage backend: " + storage.name());
             System.out.println("+----------------------------------------------------------+");
+            if (storage.name().equals("text")) verifyDataFiles();
+            // Ids start again at 1 (always, for the memory backend), so older slots would
+            // point into logs that no longer hold them.
+            if (txnIds.isFresh()) txnIndex.clear();
+            // Nothing of the memory backend survives a restart, so neither does its analytics.
+            if (storage.name().equals("memory")) analytics.clear();
+            analytics.backfill(logs);
         } catch (IOException e) {
             System.out.println("| Error initializing data files: " + e.getMessage());
         }
     }
 
+    // Runs before the account stores are indexed and before anything is appended, so a torn
+    // last record is cut off instead of having the next record written onto it.
+    private void verifyDataFiles() {
+        long start = System.currentTimeMillis();
+        List<Fsck.FileReport> reports = Fsck.verify(Fsck.files(DATA_DIR), true);
+        if (reports.stream().allMatch(r -> r.isClean() && r.truncatedBytes() == 0)) return;
+        // Receipts indexed into a cut-off tail would otherwise point at whatever is appended next.
+        for (Fsck.FileReport r : reports) {
+            if (r.truncatedBytes() == 0 || !r.file().getName().equals(TRANSACTIONS_LOG)) continue;
+            String dir = r.file().getParentFile().getName();
+            int fileIndex = dir.matches("shard-\\d+") ? Integer.parseInt(dir.substring(6)) + 1 : 0;
+            int dropped = txnIndex.removeIf(p -> TextLogStore.isPast(p, fileIndex, r.length()));
+            if (dropped > 0) System.out.println("| Dropped " + dropped + " receipt index leg(s) past the cut in " + r.file().getPath());
+        }
+        System.out.println("| Integrity check found damaged records:");
+        Fsck.print(reports, false);
+        System.out.println("| Checked in " + (System.currentTimeMillis() - start) + " ms; run admin fsck for details.");
+        System.out.println("+----------------------------------------------------------+");
+    }
+
     // ====================== USER MANAGEMENT ======================
 
     public Map<String, UserAccount> loadUsers() {
         Map<String, UserAccount> users = new HashMap<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(USERS_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] p = line.split(",");
-                if (p.length >= 9) {
-                    UserAccount acc = new UserAccount(
-                        p[0], p[1], p[2],
-                        Double.parseDouble(p[3]),
-                        Integer.parseInt(p[4]),
-                        Double.parseDouble(p[5]),
-                        p[6],
-                        Integer.parseInt(p[7]),
-                        Long.parseLong(p[8])
-                    );
-                    users.put(p[0], acc);
-                }
+        for (AccountStore store : storage.accountStores()) {
+            for (String username : store.usernames()) {
+                UserAccount acc = store.read(username);
+                if (acc != null) users.put(acc.getUsername(), acc);
             }
-        } catch (IOException e) {
-            System.out.println("| Error loading users.                                    |");
         }
         return users;
     }
 
+    // Opens the tiered account store: hot accounts in a bounded LRU cache, the rest paged
+    // in from the storage backend on demand. Capacity comes from -Dazure.cache.size
+    // (default 1024); with -Dazure.shards=K the text users files live in K shard directories.
+    public AccountCache openAccountCache() {
+        AccountCache cache = new AccountCache(storage.accountStores(), Integer.getInteger("azure.cache.size", 1024));
+        boolean baseline = getChangeStream().isEmpty();
+        cache.setChangeStream(changes);
+        ledger.setChangeStream(changes);
+        segments.rebuild(storage.accountStores(), logs);
+        cache.setSegments(segments);
+        if (baseline) {
+            // First start with replication: ship every existing account once.
+            List<String> accounts = new ArrayList<>();
+            for (UserAccount u : cache.values()) accounts.add(u.toFileFormat());
+            changes.appendAll(ChangeStream.ACCOUNT, accounts);
+        }
+        return cache;
+    }
+
     public void saveUsers(Map<String, UserAccount> users) {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(USERS_FILE))) {
-            for (UserAccount u : users.values()) {
-                pw.println(u.toFileFormat());
-            }
-        } catch (IOException e) {
-            System.out.println("| Error saving users.                                     |");
+        if (users instanceof AccountCache cache) {
+            cache.flush();
+            return;
+        }
+        for (UserAccount u : users.values()) {
+            storage.accountStores().get(ShardRouter.shardOf(u.getUsername(), storage.accountStores().size())).write(u);
         }
     }
 
+    public File getDataFile(String name) {
+        return new File(DATA_DIR + name);
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public ShardRouter getShards() {
+        return shards;
+    }
+
+    public synchronized ChangeStream getChangeStream() {
+        if (changes == null) changes = new ChangeStream(CHANGES_FILE);
+        return changes;
+    }
+
+    public static String getDataDir() {
+        return DATA_DIR;
+    }
+
+    // ====================== LEDGER ======================
+
+    public Ledger getLedger() {
+        return ledger;
+    }
+
+    public void reconcileLedger(Map<String, UserAccount> users) {
+        recoverTransfers();
+        ledger.reconcile(users, readLegacyRevenue());
+        saveUsers(users);
+        getChangeStream().append(ChangeStream.REVENUE, String.valueOf(readSystemRevenue()));
+    }
+
+    // ====================== MERCHANTS ======================
+
+    public synchronized MerchantPayments getMerchantPayments() {
+        if (merchantPayments == null) {
+            merchantPayments = new MerchantPayments(MERCHANT_PAYMENTS_FILE, MERCHANT_TOTALS_FILE, SETTLEMENTS_DIR);
+        }
+        return merchantPayments;
+    }
+
     // ====================== TRANSACTION LOGS ======================
 
-    public void logTransaction(String username, String type, double amount) {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(TRANSACTIONS_FILE, true))) {
-            pw.println(java.time.LocalDateTime.now() + " - " + username + ": " + type + " - PHP " + df.format(amount));
-        } catch (IOException e) {
-            System.out.println("| Error logging transaction.                              |");
+    // Every log record carries a transaction id right after its timestamp.
+    private String stamp(String now, long id) {
+        return now + " - " + TxnIds.format(id) + " - ";
+    }
+
+    private String transactionLine(String now, long id, String username, String type, double amount) {
+        return stamp(now, id) + username + ": " + type + " - PHP " + df.format(amount);
+    }
+
+    public long nextTxnId() {
+        return txnIds.next();
+    }
+
+    // Per-user logs are keyed by username so the backend can route them to the owning shard.
+    private void appendUserLog(String username, String logName, long id, String line, String error) {
+        if (logName.equals(TRANSACTIONS_LOG)) getChangeStream().append(ChangeStream.TXN, line);
+        try {
+            long position = logs.append(logName, username, line);
+            if (logName.equals(TRANSACTIONS_LOG)) txnIndex.put(id, position);
+        } catch (RuntimeException e) {
+            System.out.println(error);
+        }
+    }
+
+    // Returns the transaction id, for the receipt.
+    public long logTransaction(String username, String type, double amount) {
+        long id = txnIds.next();
+        appendUserLog(username, TRANSACTIONS_LOG, id, transactionLine(java.time.LocalDateTime.now().toString(), id, username, type, amount),
+            "| Error logging transaction.                              |");
+        record(username, type, amount);
+        return id;
+    }
+
+    // Entries sharing a txnId (the two legs of a transfer) are indexed together.
+    public record TransactionEntry(long txnId, String username, String type, double amount) {}
+
+    // Writes a whole batch of transaction lines with a single append (one batch per shard
+    // writer when sharded).
+    public void logTransactions(List<TransactionEntry> entries) {
+        String now = java.time.LocalDateTime.now().toString();
+        List<String> lines = new ArrayList<>(entries.size());
+        List<LogStore.LogLine> keyed = new ArrayList<>(entries.size());
+        for (TransactionEntry e : entries) {
+            String line = transactionLine(now, e.txnId(), e.username(), e.type(), e.amount());
+            lines.add(line);
+            keyed.add(new LogStore.LogLine(e.username(), line));
+        }
+        getChangeStream().appendAll(ChangeStream.TXN, lines);
+        try {
+            long[] positions = logs.appendAll(TRANSACTIONS_LOG, keyed);
+            for (int i = 0; i < positions.length; i++) txnIndex.put(entries.get(i).txnId(), positions[i]);
+        } catch (RuntimeException e) {
+            System.out.println("| Error logging transactions.                             |");
+        }
+        long millis = System.currentTimeMillis();
+        List<Analytics.Event> events = new ArrayList<>(entries.size());
+        for (TransactionEntry e : entries) {
+            Analytics.Event event = Analytics.fromTransaction(millis, e.username(), e.type(), e.amount());
+            if (event != null) events.add(event);
+        }
+        analytics.recordAll(events);
+    }
+
+    // Moves money between two users and logs both legs under one transaction id, which is
+    // returned, or -1 if nothing moved. The legs are written first; the ledger posting and
+    // applyBalances run once they are durable. When the users live on different shards the
+    // text backend runs this through the router's ordered two-shard commit.
+    public long commitTransfer(String from, String to, double amount, Runnable applyBalances) {
+        long id = txnIds.next();
+        String now = java.time.LocalDateTime.now().toString();
+        String fromLine = transactionLine(now, id, from, "Sent to " + to, amount);
+        String toLine = transactionLine(now, id, to, "Received from " + from, amount);
+        Runnable apply = () -> {
+            if (postTransfer(id, from, to, amount) < 0) throw new IllegalStateException("ledger write failed");
+            applyBalances.run();
+        };
+        try {
+            long[] positions = logs.commitTransfer(TRANSACTIONS_LOG, id, amount,
+                from, fromLine, reversalLine(id, from, "Sent to " + to, amount),
+                to, toLine, reversalLine(id, to, "Received from " + from, amount), apply);
+            txnIndex.put(id, positions[0], positions[1]);
+            getChangeStream().appendAll(ChangeStream.TXN, List.of(fromLine, toLine));
+        } catch (RuntimeException e) {
+            System.out.println("| Error committing transfer; no money was moved.          |");
+            return -1;
+        }
+        long millis = System.currentTimeMillis();
+        analytics.recordAll(List.of(
+            Analytics.fromTransaction(millis, from, "Sent to " + to, amount),
+            Analytics.fromTransaction(millis, to, "Received from " + from, amount)));
+        return id;
+    }
+
+    private long postTransfer(long id, String from, String to, double amount) {
+        return ledger.post(Ledger.Type.TRANSFER, Ledger.Unit.PHP, Ledger.user(from), Ledger.user(to), amount,
+            "Transfer " + TxnIds.format(id));
+    }
+
+    // Cancels a transfer leg that was logged but never applied.
+    private String reversalLine(long id, String username, String type, double amount) {
+        return transactionLine(java.time.LocalDateTime.now().toString(), id, username, REVERSAL + type, amount);
+    }
+
+    // Finishes the two-shard transfers a crash left open. Uncommitted ones are aborted by
+    // reversing whichever legs reached the logs; committed ones get their ledger posting if
+    // it is missing, and reconcile then brings both balances in line with the ledger.
+    private void recoverTransfers() {
+        List<ShardRouter.PendingTransfer> pending = shards.isSharded() ? shards.pendingTransfers() : List.of();
+        if (pending.isEmpty()) return;
+        ledger.recover();
+        Set<String> posted = new HashSet<>();
+        if (pending.stream().anyMatch(ShardRouter.PendingTransfer::committed)) {
+            ledger.forEachPosting(0, Long.MAX_VALUE, p -> {
+                if (p.type() == Ledger.Type.TRANSFER && p.memo().startsWith("Transfer TX")) posted.add(p.memo());
+            });
+        }
+        int completed = 0, aborted = 0;
+        for (ShardRouter.PendingTransfer t : pending) {
+            String ref = TxnIds.format(t.txnId());
+            try {
+                if (t.committed()) {
+                    if (!posted.contains("Transfer " + ref) && postTransfer(t.txnId(), t.from(), t.to(), t.amount()) < 0) continue;
+                    shards.resolveTransfer(t.txnId(), true);
+                    completed++;
+                } else {
+                    undoLeg(t.txnId(), t.from(), "Sent to " + t.to(), t.amount());
+                    undoLeg(t.txnId(), t.to(), "Received from " + t.from(), t.amount());
+                    shards.resolveTransfer(t.txnId(), false);
+                    aborted++;
+                }
+            } catch (RuntimeException e) {
+                System.out.println("| Error recovering transfer " + ref + ": " + e.getMessage());
+            }
+        }
+        System.out.println("| Transfer recovery: " + completed + " completed, " + aborted + " aborted.");
+    }
+
+    // Appends a reversal for the leg if it is in the log and not already reversed.
+    private void undoLeg(long id, String username, String type, double amount) {
+        String leg = TxnIds.format(id) + " - " + username + ": " + type + " - ";
+        String reversal = TxnIds.format(id) + " - " + username + ": " + REVERSAL + type + " - ";
+        int[] count = new int[1];
+        logs.forEach(TRANSACTIONS_LOG, username, line -> {
+            if (line.contains(leg)) count[0]++;
+            else if (line.contains(reversal)) count[0]--;
+        });
+        if (count[0] > 0) logs.append(TRANSACTIONS_LOG, username, reversalLine(id, username, type, amount));
+    }
+
+    // Receipt lookup: one index seek, then one log seek per leg.
+    public List<String> findTransaction(String reference) {
+        List<String> lines = new ArrayList<>();
+        long id = TxnIds.parse(reference);
+        if (id < 0) return lines;
+        for (long position : txnIndex.get(id)) {
+            String line = logs.readAt(TRANSACTIONS_LOG, position);
+            if (line != null) lines.add(line);
         }
+        return lines;
+    }
+
+    public TxnIndex getTxnIndex() {
+        return txnIndex;
+    }
+
+    public Analytics getAnalytics() {
+        return analytics;
+    }
+
+    public Idempotency getIdempotency() {
+        return idempotency;
+    }
+
+    public SegmentIndex getSegments() {
+        return segments;
+    }
+
+    public AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    public BalanceCheckpoints getCheckpoints() {
+        return checkpoints;
+    }
+
+    // The user's balance and points as of the given epoch millis, from the nearest earlier
+    // checkpoint plus the ledger postings after it.
+    public BalanceCheckpoints.AsOf getBalanceAsOf(String username, long timestamp) {
+        return checkpoints.asOf(ledger, username, timestamp);
+    }
+
+    private void record(String username, String type, double amount) {
+        Analytics.Event event = Analytics.fromTransaction(System.currentTimeMillis(), username, type, amount);
+        if (event != null) analytics.recordAll(List.of(event));
     }
 
     public void logPoints(String username, String action, int points, String note) {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(POINTS_LOG_FILE, true))) {
-            pw.println(java.time.LocalDateTime.now() + " - " + username + " " + action + " " + points + " points (" + note + ")");
-        } catch (IOException e) {
+        long id = txnIds.next();
+        appendUserLog(username, POINTS_LOG, id,
+            stamp(java.time.LocalDateTime.now().toString(), id) + username + " " + action + " " + points + " points (" + note + ")",
+            "| Error logging points.                                   |");
+        Analytics.Type type = Analytics.pointsType(action);
+        if (type != null) analytics.record(System.currentTimeMillis(), username, type, null, points);
+    }
+
+    // One points log line per account, written with a single append.
+    public void logPointsExpiry(Map<String, Integer> expired) {
+        String now = java.time.LocalDateTime.now().toString();
+        List<LogStore.LogLine> lines = new ArrayList<>(expired.size());
+        List<Analytics.Event> events = new ArrayList<>(expired.size());
+        long millis = System.currentTimeMillis();
+        for (Map.Entry<String, Integer> e : expired.entrySet()) {
+            lines.add(new LogStore.LogLine(e.getKey(), stamp(now, txnIds.next()) + e.getKey() + " expired " + e.getValue()
+                + " points (older than " + PointsLots.EXPIRY_DAYS + " days)"));
+            events.add(new Analytics.Event(millis, e.getKey(), Analytics.Type.POINTS_EXPIRED, null, e.getValue()));
+        }
+        try {
+            logs.appendAll(POINTS_LOG, lines);
+        } catch (RuntimeException e) {
             System.out.println("| Error logging points.                                   |");
         }
+        analytics.recordAll(events);
     }
 
     public void logInterest(String username, double amount) {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(INTEREST_LOG_FILE, true))) {
-            pw.println(java.time.LocalDateTime.now() + " - " + username + ": +PHP " + df.format(amount));
-        } catch (IOException e) {
-            System.out.println("| Error logging interest.                                 |");
-        }
+        long id = txnIds.next();
+        appendUserLog(username, INTEREST_LOG, id,
+            stamp(java.time.LocalDateTime.now().toString(), id) + username + ": +PHP " + df.format(amount),
+            "| Error logging interest.                                 |");
     }
 
     public void logVoucher(String username, String code, double value) {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(VOUCHER_LOG_FILE, true))) {
-            pw.println(java.time.LocalDateTime.now() + " - " + username + " redeemed " + code + " (PHP " + df.format(value) + ")");
-        } catch (IOException e) {
-            System.out.println("| Error logging voucher redemption.                       |");
-        }
+        long id = txnIds.next();
+        appendUserLog(username, VOUCHER_LOG, id,
+            stamp(java.time.LocalDateTime.now().toString(), id) + username + " redeemed " + code + " (PHP " + df.format(value) + ")",
+            "| Error logging voucher redemption.                       |");
     }
 
-    public void logSystemRevenue(double fee) {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(SYSTEM_REVENUE_FILE, true))) {
-            pw.println(java.time.LocalDateTime.now() + " - +PHP " + df.format(fee));
-        } catch (IOException e) {
-            System.out.println("| Error logging system revenue.                           |");
-        }
+    public void logVoucherExpired(String username, String code, double value) {
+        long id = txnIds.next();
+        appendUserLog(username, VOUCHER_LOG, id,
+            stamp(java.time.LocalDateTime.now().toString(), id) + username + " expired " + code + " (PHP " + df.format(value) + ")",
+            "| Error logging voucher expiry.                           |");
     }
 
     // ====================== DATA READING ======================
 
+    // Fees are credited to the ledger's revenue account; system_revenue.txt is only read
+    // once, to carry its legacy total into the ledger as an opening posting.
     public double readSystemRevenue() {
-        double total = 0.0;
-        try (BufferedReader br = new BufferedReader(new FileReader(SYSTEM_REVENUE_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
+        return ledger.getSystemBalance(Ledger.SYSTEM_REVENUE);
+    }
+
+    private double readLegacyRevenue() {
+        double[] total = {0.0};
+        try {
+            logs.forEach(SYSTEM_REVENUE_LOG, null, line -> {
                 if (line.contains("PHP")) {
                     String amt = line.substring(line.indexOf("PHP") + 4).replace(",", "");
-                    total += Double.parseDouble(amt);
+                    total[0] += Double.parseDouble(amt);
                 }
-            }
+            });
         } catch (Exception ignored) {}
-        return total;
+        return total[0];
     }
 
     public int getTotalUsersCount() {
         int count = 0;
-        try (BufferedReader br = new BufferedReader(new FileReader(USERS_FILE))) {
-            while (br.readLine() != null) count++;
-        } catch (IOException e) {}
+        for (AccountStore store : storage.accountStores()) count += store.size();
         return count;
     }
 
     public int getTotalVouchersCount() {
-        int count = 0;
-        try (BufferedReader br = new BufferedReader(new FileReader(VOUCHERS_FILE))) {
-            while (br.readLine() != null) count++;
-        } catch (IOException e) {}
-        return count;
+        return VoucherSystem.getActiveVoucherCount();
     }
 
     // ====================== DISPLAY HELPERS ======================
@@ -158,12 +467,11 @@ public class FileManager {
         System.out.println("+==========================================================+");
         System.out.println("|                    TRANSACTION HISTORY                   |");
         System.out.println("+==========================================================+");
-        try (BufferedReader br = new BufferedReader(new FileReader(TRANSACTIONS_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
+        try {
+            logs.forEach(TRANSACTIONS_LOG, username, line -> {
                 if (line.contains(username)) System.out.println("| " + line);
-            }
-        } catch (IOException e) {
+            });
+        } catch (RuntimeException e) {
             System.out.println("| Error reading transactions.                             |");
         }
         System.out.println("+==========================================================+");
@@ -173,44 +481,32 @@ public class FileManager {
         System.out.println("+==========================================================+");
         System.out.println("|                       MY VOUCHERS                        |");
         System.out.println("+==========================================================+");
-        try (BufferedReader br = new BufferedReader(new FileReader(VOUCHERS_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
+        try {
+            storage.voucherStore().forEach(line -> {
                 if (line.startsWith(username + ",")) System.out.println("| " + line);
-            }
-        } catch (IOException e) {
+            });
+        } catch (RuntimeException e) {
             System.out.println("| Error reading vouchers.                                 |");
         }
         System.out.println("+==========================================================+");
     }
 
     public int countUserVouchers(String username) {
-        int count = 0;
-        try (BufferedReader br = new BufferedReader(new FileReader(VOUCHERS_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.startsWith(username + ",")) count++;
-            }
-        } catch (IOException e) {}
-        return count;
+        return VoucherSystem.countActiveVouchers(username);
     }
 
     // ====================== SCHEDULER LOGS ======================
 
     public void logSchedulerRun() {
-        try (PrintWriter pw = new PrintWriter(new FileWriter(SCHEDULER_FILE, true))) {
-            pw.println(java.time.LocalDateTime.now() + " - Scheduler executed");
-        } catch (IOException e) {
+        try {
+            logs.append(SCHEDULER_LOG, null, java.time.LocalDateTime.now() + " - Scheduler executed");
+        } catch (RuntimeException e) {
             System.out.println("| Error logging scheduler.                                |");
         }
     }
 
     public String readLastSchedulerRun() {
-        String last = "N/A";
-        try (BufferedReader br = new BufferedReader(new FileReader(SCHEDULER_FILE))) {
-            String line;
-            while ((line = br.readLine()) != null) last = line;
-        } catch (IOException e) {}
-        return last;
+        String last = logs.lastLine(SCHEDULER_LOG);
+        return last == null ? "N/A" : last;
     }
 }
\ No newline at end of file
@@ -0,0 +1,212 @@
+package azurewallet.system;
+
+import java.io.*;
+import java.util.*;
+import azurewallet.storage.LogChunks;
+import azurewallet.storage.RecordFrame;
+
+// Integrity check for the text backend's framed account and log files. Every file is cut
+// into chunks that are scanned in parallel through a fixed buffer, so no file is ever held on
+// the heap; each chunk reports its bad byte ranges and where its last good record ends. A bad
+// range that runs to the end of a file is a torn write, and repair truncates the file back to
+// the last good record, keeping the cut bytes in a .torn file beside it. Bad ranges further
+// in are only reported, since readers skip them. Also runs on its own:
+//   java -Dazure.shards=K azurewallet.system.Fsck [dataDir] [--repair]
+public class Fsck {
+    private static final long CHUNK_SIZE = 4L << 20;
+    private static final int MAX_LINE = 1 << 20;
+    private static final String[] FILES = {
+        "users.txt", "transactions.txt", "points_log.txt", "interest_log.txt", "voucher_log.txt",
+        "admin_log.txt", "scheduler_log.txt", "system_revenue.txt", "ledger.txt", "ledger_snapshot.txt"
+    };
+
+    public record Range(long start, long end) {}
+
+    public record FileReport(File file, long length, long records, long unframed, List<Range> corrupt, long lastGood, long truncatedBytes) {
+        public boolean isClean() { return corrupt.isEmpty(); }
+
+        // A bad range running to the end of the file.
+        public boolean hasTornTail() {
+            return !corrupt.isEmpty() && corrupt.get(corrupt.size() - 1).end() == length;
+        }
+    }
+
+    private record Task(int file, LogChunks.Chunk chunk) {}
+
+    private record ChunkResult(int file, long records, long unframed, List<Range> corrupt, long lastGood) {}
+
+    // The account and log files of the flat layout and of every shard-N directory.
+    public static List<File> files(String dataDir) {
+        List<File> dirs = new ArrayList<>();
+        dirs.add(new File(dataDir));
+        File[] shardDirs = new File(dataDir).listFiles(f -> f.isDirectory() && f.getName().matches("shard-\\d+"));
+        if (shardDirs != null) {
+            Arrays.sort(shardDirs, Comparator.comparingInt(f -> Integer.parseInt(f.getName().substring(6))));
+            dirs.addAll(Arrays.asList(shardDirs));
+        }
+        List<File> files = new ArrayList<>();
+        for (File dir : dirs) {
+            for (String name : FILES) {
+                File f = new File(dir, name);
+                if (f.isFile()) files.add(f);
+            }
+        }
+        return files;
+    }
+
+    // ====================== VERIFY ======================
+
+    public static List<FileReport> verify(List<File> files, boolean repair) {
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            for (LogChunks.Chunk c : LogChunks.split(files.get(i), CHUNK_SIZE)) tasks.add(new Task(i, c));
+        }
+        List<ChunkResult> results = tasks.parallelStream().map(t -> scan(t.file(), t.chunk())).toList();
+
+        List<FileReport> reports = new ArrayList<>(files.size());
+        int next = 0;
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            long records = 0, unframed = 0, lastGood = 0;
+            List<Range> corrupt = new ArrayList<>();
+            for (; next < results.size() && results.get(next).file() == i; next++) {
+                ChunkResult r = results.get(next);
+                records += r.records();
+                unframed += r.unframed();
+                lastGood = Math.max(lastGood, r.lastGood());
+                for (Range range : r.corrupt()) addRange(corrupt, range.start(), range.end());
+            }
+            FileReport report = new FileReport(file, file.length(), records, unframed, corrupt, lastGood, 0);
+            if (repair && report.hasTornTail()) report = truncate(report);
+            reports.add(report);
+        }
+        return reports;
+    }
+
+    // Joins a range onto the previous one when they touch.
+    private static void addRange(List<Range> ranges, long start, long end) {
+        if (!ranges.isEmpty() && ranges.get(ranges.size() - 1).end() == start) {
+            ranges.set(ranges.size() - 1, new Range(ranges.get(ranges.size() - 1).start(), end));
+        } else {
+            ranges.add(new Range(start, end));
+        }
+    }
+
+    // Owns every line that starts inside the chunk, like LogChunks. A line is kept in a
+    // reusable buffer; past MAX_LINE it is only measured, and counted as corrupt.
+    private static ChunkResult scan(int fileIndex, LogChunks.Chunk chunk) {
+        long records = 0, unframed = 0, lastGood = 0;
+        List<Range> corrupt = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(chunk.file(), "r")) {
+            long length = raf.length();
+            long pos = chunk.start();
+            if (pos > 0) {
+                raf.seek(pos - 1);
+                if (raf.read() != '\n') {
+                    int b;
+                    while ((b = raf.read()) != -1 && b != '\n') { }
+                    pos = raf.getFilePointer();
+                }
+            }
+            raf.seek(pos);
+            byte[] buf = new byte[64 * 1024];
+            byte[] line = new byte[4096];
+            int lineLength = 0;
+            boolean overflow = false;
+            long lineStart = pos;
+            int n;
+            outer:
+            while (lineStart < chunk.end() && (n = raf.read(buf)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    pos++;
+                    byte b = buf[i];
+                    if (b != '\n') {
+                        if (lineLength == line.length) {
+                            if (line.length >= MAX_LINE) overflow = true;
+                            else line = Arrays.copyOf(line, line.length * 2);
+                        }
+                        if (!overflow) line[lineLength++] = b;
+                        continue;
+                    }
+                    int len = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                    RecordFrame.Check check = overflow ? RecordFrame.Check.CORRUPT : RecordFrame.check(line, 0, len);
+                    if (check == RecordFrame.Check.CORRUPT) {
+                        addRange(corrupt, lineStart, pos);
+                    } else {
+                        if (len > 0) records++;
+                        if (len > 0 && check == RecordFrame.Check.UNFRAMED) unframed++;
+                        lastGood = pos;
+                    }
+                    lineLength = 0;
+                    overflow = false;
+                    lineStart = pos;
+                    if (lineStart >= chunk.end()) break outer;
+                }
+            }
+            // No newline before the end of the file: a write that never finished.
+            if (lineStart < chunk.end() && lineStart < length && pos == length) addRange(corrupt, lineStart, length);
+        } catch (IOException e) {
+            addRange(corrupt, chunk.start(), chunk.end());
+        }
+        return new ChunkResult(fileIndex, records, unframed, corrupt, lastGood);
+    }
+
+    // ====================== REPAIR ======================
+
+    private static FileReport truncate(FileReport report) {
+        File file = report.file();
+        File torn = new File(file.getPath() + ".torn-" + System.currentTimeMillis());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(torn))) {
+            raf.seek(report.lastGood());
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = raf.read(buf)) > 0) out.write(buf, 0, n);
+            raf.setLength(report.lastGood());
+        } catch (IOException e) {
+            System.out.println("| Error truncating " + file + ": " + e.getMessage());
+            return report;
+        }
+        List<Range> kept = new ArrayList<>(report.corrupt().subList(0, report.corrupt().size() - 1));
+        return new FileReport(file, report.lastGood(), report.records(), report.unframed(), kept, report.lastGood(),
+            report.length() - report.lastGood());
+    }
+
+    // ====================== REPORT ======================
+
+    public static void print(List<FileReport> reports, boolean all) {
+        long records = 0, unframed = 0, ranges = 0, truncated = 0;
+        for (FileReport r : reports) {
+            records += r.records();
+            unframed += r.unframed();
+            ranges += r.corrupt().size();
+            if (r.truncatedBytes() > 0) truncated++;
+            if (!all && r.isClean() && r.truncatedBytes() == 0) continue;
+            System.out.printf("%s: %,d bytes, %,d record(s), %,d unframed%n", r.file().getPath(), r.length(), r.records(), r.unframed());
+            for (Range range : r.corrupt()) {
+                System.out.printf("  corrupt bytes [%,d, %,d)%s%n", range.start(), range.end(),
+                    range.end() == r.length() ? " - torn tail, last good record ends at " + r.lastGood() : "");
+            }
+            if (r.truncatedBytes() > 0) {
+                System.out.printf("  truncated %,d torn byte(s) after the last good record at %,d%n", r.truncatedBytes(), r.lastGood());
+            }
+        }
+        System.out.printf("%d file(s), %,d record(s) (%,d unframed), %d corrupt range(s), %d file(s) truncated%n",
+            reports.size(), records, unframed, ranges, truncated);
+    }
+
+    public static void main(String[] args) {
+        String dataDir = FileManager.getDataDir();
+        boolean repair = false;
+        for (String arg : args) {
+            if (arg.equals("--repair")) repair = true;
+            else dataDir = arg.endsWith("/") ? arg : arg + "/";
+        }
+        long start = System.currentTimeMillis();
+        List<FileReport> reports = verify(files(dataDir), repair);
+        print(reports, true);
+        System.out.println("Checked in " + (System.currentTimeMillis() - start) + " ms");
+        boolean clean = reports.stream().allMatch(FileReport::isClean);
+        System.exit(clean ? 0 : 1);
+    }
+}
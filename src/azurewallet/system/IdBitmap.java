@@ -0,0 +1,302 @@
+package azurewallet.system;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// Compressed set of non-negative int ids, split into 65536-id blocks by the high 16 bits.
+// A block with up to 4096 ids is a sorted char array; a fuller block is a 1024-word bitset,
+// so sparse and dense segments both stay small and AND/OR/AND NOT work block by block.
+public class IdBitmap {
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    private char[] keys = new char[4];
+    private Object[] blocks = new Object[4];
+    private int[] counts = new int[4];
+    private int size;
+
+    // ====================== SINGLE IDS ======================
+
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    public void add(int id) {
+        char key = (char) (id >>> 16);
+        char low = (char) id;
+        int i = find(key);
+        if (i < 0) {
+            i = -i - 1;
+            insertBlock(i, key, new char[4], 0);
+        }
+        Object block = blocks[i];
+        if (block instanceof long[] words) {
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                words[low >>> 6] |= bit;
+                counts[i]++;
+            }
+            return;
+        }
+        char[] values = (char[]) block;
+        int n = counts[i];
+        int pos = Arrays.binarySearch(values, 0, n, low);
+        if (pos >= 0) return;
+        pos = -pos - 1;
+        if (n == ARRAY_MAX) {
+            long[] words = toWords(values, n);
+            words[low >>> 6] |= 1L << low;
+            blocks[i] = words;
+            counts[i] = n + 1;
+            return;
+        }
+        if (n == values.length) values = Arrays.copyOf(values, Math.min(ARRAY_MAX, n * 2));
+        System.arraycopy(values, pos, values, pos + 1, n - pos);
+        values[pos] = low;
+        blocks[i] = values;
+        counts[i] = n + 1;
+    }
+
+    public void remove(int id) {
+        int i = find((char) (id >>> 16));
+        if (i < 0) return;
+        char low = (char) id;
+        Object block = blocks[i];
+        if (block instanceof long[] words) {
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) return;
+            words[low >>> 6] &= ~bit;
+            if (--counts[i] <= ARRAY_MAX) blocks[i] = toValues(words, counts[i]);
+        } else {
+            char[] values = (char[]) block;
+            int n = counts[i];
+            int pos = Arrays.binarySearch(values, 0, n, low);
+            if (pos < 0) return;
+            System.arraycopy(values, pos + 1, values, pos, n - pos - 1);
+            counts[i]--;
+        }
+        if (counts[i] == 0) removeBlock(i);
+    }
+
+    public boolean contains(int id) {
+        int i = find((char) (id >>> 16));
+        if (i < 0) return false;
+        char low = (char) id;
+        if (blocks[i] instanceof long[] words) return (words[low >>> 6] & (1L << low)) != 0;
+        return Arrays.binarySearch((char[]) blocks[i], 0, counts[i], low) >= 0;
+    }
+
+    public void clear() {
+        Arrays.fill(blocks, 0, size, null);
+        size = 0;
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) total += counts[i];
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Ids in ascending order.
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            int base = keys[i] << 16;
+            if (blocks[i] instanceof long[] words) {
+                for (int w = 0; w < WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        action.accept(base | (w << 6) | Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                char[] values = (char[]) blocks[i];
+                for (int j = 0; j < counts[i]; j++) action.accept(base | values[j]);
+            }
+        }
+    }
+
+    public long sizeInBytes() {
+        long bytes = 16L * keys.length;
+        for (int i = 0; i < size; i++) bytes += blocks[i] instanceof long[] ? 8L * WORDS : 2L * ((char[]) blocks[i]).length;
+        return bytes;
+    }
+
+    public IdBitmap copy() {
+        IdBitmap b = new IdBitmap();
+        b.keys = Arrays.copyOf(keys, Math.max(4, size));
+        b.blocks = new Object[b.keys.length];
+        b.counts = Arrays.copyOf(counts, b.keys.length);
+        b.size = size;
+        for (int i = 0; i < size; i++) {
+            b.blocks[i] = blocks[i] instanceof long[] words ? words.clone() : Arrays.copyOf((char[]) blocks[i], counts[i]);
+        }
+        return b;
+    }
+
+    // ====================== SET OPERATIONS ======================
+
+    public static IdBitmap and(IdBitmap a, IdBitmap b) {
+        IdBitmap out = new IdBitmap();
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) i++;
+            else if (a.keys[i] > b.keys[j]) j++;
+            else {
+                out.appendBlock(a.keys[i], andBlocks(a.blocks[i], a.counts[i], b.blocks[j], b.counts[j]));
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    public static IdBitmap or(IdBitmap a, IdBitmap b) {
+        IdBitmap out = new IdBitmap();
+        int i = 0, j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                out.appendBlock(a.keys[i], copyBlock(a.blocks[i], a.counts[i]));
+                i++;
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                out.appendBlock(b.keys[j], copyBlock(b.blocks[j], b.counts[j]));
+                j++;
+            } else {
+                long[] words = words(a.blocks[i], a.counts[i]);
+                long[] other = b.blocks[j] instanceof long[] w ? w : toWords((char[]) b.blocks[j], b.counts[j]);
+                for (int w = 0; w < WORDS; w++) words[w] |= other[w];
+                out.appendBlock(a.keys[i], normalize(words));
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    // Ids in a that are not in b.
+    public static IdBitmap andNot(IdBitmap a, IdBitmap b) {
+        IdBitmap out = new IdBitmap();
+        int j = 0;
+        for (int i = 0; i < a.size; i++) {
+            while (j < b.size && b.keys[j] < a.keys[i]) j++;
+            if (j < b.size && b.keys[j] == a.keys[i]) {
+                long[] words = words(a.blocks[i], a.counts[i]);
+                long[] other = b.blocks[j] instanceof long[] w ? w : toWords((char[]) b.blocks[j], b.counts[j]);
+                for (int w = 0; w < WORDS; w++) words[w] &= ~other[w];
+                out.appendBlock(a.keys[i], normalize(words));
+            } else {
+                out.appendBlock(a.keys[i], copyBlock(a.blocks[i], a.counts[i]));
+            }
+        }
+        return out;
+    }
+
+    // A sorted-array block intersected with anything is filtered in place of a word loop.
+    private static Object[] andBlocks(Object x, int xCount, Object y, int yCount) {
+        if (x instanceof long[] xw && y instanceof long[] yw) {
+            long[] words = new long[WORDS];
+            for (int w = 0; w < WORDS; w++) words[w] = xw[w] & yw[w];
+            return normalize(words);
+        }
+        if (x instanceof long[]) return andBlocks(y, yCount, x, xCount);
+        char[] values = (char[]) x;
+        char[] out = new char[xCount];
+        int n = 0;
+        if (y instanceof long[] yw) {
+            for (int k = 0; k < xCount; k++) {
+                char v = values[k];
+                if ((yw[v >>> 6] & (1L << v)) != 0) out[n++] = v;
+            }
+        } else {
+            char[] other = (char[]) y;
+            int k = 0, m = 0;
+            while (k < xCount && m < yCount) {
+                if (values[k] < other[m]) k++;
+                else if (values[k] > other[m]) m++;
+                else {
+                    out[n++] = values[k];
+                    k++;
+                    m++;
+                }
+            }
+        }
+        return new Object[] { out, n };
+    }
+
+    private static Object[] copyBlock(Object block, int count) {
+        return new Object[] { block instanceof long[] w ? w.clone() : Arrays.copyOf((char[]) block, count), count };
+    }
+
+    private static long[] words(Object block, int count) {
+        return block instanceof long[] w ? w.clone() : toWords((char[]) block, count);
+    }
+
+    private static Object[] normalize(long[] words) {
+        int count = 0;
+        for (long w : words) count += Long.bitCount(w);
+        return new Object[] { count <= ARRAY_MAX ? toValues(words, count) : words, count };
+    }
+
+    // ====================== BLOCKS ======================
+
+    private static long[] toWords(char[] values, int n) {
+        long[] words = new long[WORDS];
+        for (int k = 0; k < n; k++) words[values[k] >>> 6] |= 1L << values[k];
+        return words;
+    }
+
+    private static char[] toValues(long[] words, int count) {
+        char[] values = new char[Math.max(4, count)];
+        int n = 0;
+        for (int w = 0; w < WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return values;
+    }
+
+    private void ensureCapacity() {
+        if (size < keys.length) return;
+        int cap = keys.length * 2;
+        keys = Arrays.copyOf(keys, cap);
+        blocks = Arrays.copyOf(blocks, cap);
+        counts = Arrays.copyOf(counts, cap);
+    }
+
+    private void insertBlock(int i, char key, Object block, int count) {
+        ensureCapacity();
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(blocks, i, blocks, i + 1, size - i);
+        System.arraycopy(counts, i, counts, i + 1, size - i);
+        keys[i] = key;
+        blocks[i] = block;
+        counts[i] = count;
+        size++;
+    }
+
+    private void removeBlock(int i) {
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(blocks, i + 1, blocks, i, size - i - 1);
+        System.arraycopy(counts, i + 1, counts, i, size - i - 1);
+        size--;
+        blocks[size] = null;
+    }
+
+    // Set operations produce blocks in key order, so they only ever append.
+    private void appendBlock(char key, Object[] blockAndCount) {
+        int count = (Integer) blockAndCount[1];
+        if (count == 0) return;
+        ensureCapacity();
+        keys[size] = key;
+        blocks[size] = blockAndCount[0];
+        counts[size] = count;
+        size++;
+    }
+}
@@ -0,0 +1,315 @@
+package azurewallet.system;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// Idempotency keys for money-moving operations. The first request with a given (user, key)
+// runs the operation; a retry with the same key gets the original transaction id back without
+// running it again, including a retry that arrives while the first attempt is still running.
+// Results live in a bounded concurrent cache that drops expired and then oldest entries, and in
+// an append-only dedup window file that outlives restarts and evictions. A primitive map from
+// key hash to file offset covers the whole window, so a cache miss costs at most one seek.
+public class Idempotency {
+
+    public enum Status { EXECUTED, REPLAYED, CONFLICT, REJECTED }
+
+    public record Result(Status status, long txnId) {}
+
+    private record Entry(String scope, String operation, double amount, long txnId, long createdMillis) {
+        String toFileFormat() {
+            return createdMillis + "|" + scope + "|" + operation + "|" + amount + "|" + txnId;
+        }
+
+        static Entry fromFileFormat(String line) {
+            String[] p = line.split("\\|");
+            if (p.length != 6) return null;
+            try {
+                return new Entry(p[1] + "|" + p[2], p[3], Double.parseDouble(p[4]), Long.parseLong(p[5]), Long.parseLong(p[0]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private final File file;
+    private final int capacity;
+    private final long ttlMillis;
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> cache = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong windowHits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // Guarded by this.
+    private OffsetMap windowKeys = new OffsetMap();
+    private OutputStream out;
+    private long length;
+    private long appended;
+    private long liveAtCompaction;
+
+    // A null path uses a temporary file.
+    public Idempotency(String path, int capacity, long ttlMillis) {
+        this.file = path == null ? tempFile() : new File(path);
+        this.capacity = Math.max(1, capacity);
+        this.ttlMillis = ttlMillis;
+        compact(true);
+    }
+
+    private static File tempFile() {
+        try {
+            File f = File.createTempFile("azure-idempotency", ".txt");
+            f.deleteOnExit();
+            return f;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static boolean isValidKey(String key) {
+        return key.matches("[A-Za-z0-9_-]{1,64}");
+    }
+
+    // ====================== EXECUTION ======================
+
+    // Runs the operation once per (username, key). The operation returns a transaction id, or
+    // -1 if it was turned down; turned-down attempts are not remembered so the caller can
+    // retry them with the same key.
+    public Result execute(String username, String key, String operation, double amount, LongSupplier action) {
+        String scope = username + "|" + key;
+        while (true) {
+            CompletableFuture<Entry> mine = new CompletableFuture<>();
+            CompletableFuture<Entry> existing = cache.putIfAbsent(scope, mine);
+            if (existing == null) {
+                Entry persisted = findInWindow(scope);
+                if (persisted != null && !expired(persisted)) {
+                    windowHits.incrementAndGet();
+                    mine.complete(persisted);
+                    order.add(scope);
+                    evict();
+                    return replay(persisted, operation, amount);
+                }
+                return run(scope, mine, operation, amount, action);
+            }
+            Entry prior = existing.join();
+            if (prior == null || expired(prior)) {
+                cache.remove(scope, existing);
+                continue;
+            }
+            return replay(prior, operation, amount);
+        }
+    }
+
+    private Result run(String scope, CompletableFuture<Entry> mine, String operation, double amount, LongSupplier action) {
+        long txnId;
+        try {
+            txnId = action.getAsLong();
+        } catch (RuntimeException e) {
+            cache.remove(scope, mine);
+            mine.complete(null);
+            throw e;
+        }
+        if (txnId < 0) {
+            cache.remove(scope, mine);
+            mine.complete(null);
+            return new Result(Status.REJECTED, -1);
+        }
+        Entry entry = new Entry(scope, operation, amount, txnId, System.currentTimeMillis());
+        persist(entry);
+        mine.complete(entry);
+        order.add(scope);
+        evict();
+        executed.incrementAndGet();
+        return new Result(Status.EXECUTED, txnId);
+    }
+
+    // A key reused for a different operation or amount is refused rather than replayed.
+    private Result replay(Entry prior, String operation, double amount) {
+        if (!prior.operation().equals(operation) || prior.amount() != amount) {
+            conflicts.incrementAndGet();
+            return new Result(Status.CONFLICT, prior.txnId());
+        }
+        replayed.incrementAndGet();
+        return new Result(Status.REPLAYED, prior.txnId());
+    }
+
+    private boolean expired(Entry e) {
+        return System.currentTimeMillis() - e.createdMillis() > ttlMillis;
+    }
+
+    // Oldest first; entries still in flight are put back at the tail.
+    private void evict() {
+        int attempts = cache.size();
+        while (cache.size() > capacity && attempts-- > 0) {
+            String scope = order.poll();
+            if (scope == null) return;
+            CompletableFuture<Entry> f = cache.get(scope);
+            if (f != null && !f.isDone()) {
+                order.add(scope);
+                continue;
+            }
+            if (f != null && cache.remove(scope, f)) evictions.incrementAndGet();
+        }
+    }
+
+    // ====================== DEDUP WINDOW ======================
+
+    private static long hash(String scope) {
+        long h = 1125899906842597L;
+        for (int i = 0; i < scope.length(); i++) h = 31 * h + scope.charAt(i);
+        return h;
+    }
+
+    // Written through before the caller is answered, so a retry after a crash still dedups.
+    private synchronized void persist(Entry entry) {
+        byte[] line = (entry.toFileFormat() + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            if (out == null) out = new FileOutputStream(file, true);
+            out.write(line);
+            windowKeys.put(hash(entry.scope()), length);
+            length += line.length;
+            appended++;
+        } catch (IOException e) {
+            System.out.println("| Error writing idempotency window.                       |");
+        }
+        if (appended > 2 * liveAtCompaction + 1024) compact(false);
+    }
+
+    private synchronized Entry findInWindow(String scope) {
+        long offset = windowKeys.get(hash(scope));
+        if (offset < 0) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(offset);
+            String line = raf.readLine();
+            Entry e = line == null ? null : Entry.fromFileFormat(new String(line.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8));
+            return e != null && e.scope().equals(scope) ? e : null;
+        } catch (IOException e) {
+            System.out.println("| Error reading idempotency window.                       |");
+            return null;
+        }
+    }
+
+    // Rewrites the window file with only unexpired entries and rebuilds the hash set. On
+    // startup the newest entries also warm the cache.
+    private synchronized void compact(boolean warm) {
+        List<Entry> live = new ArrayList<>();
+        if (file.length() > 0) {
+            try (BufferedReader br = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    Entry e = Entry.fromFileFormat(line);
+                    if (e != null && !expired(e)) live.add(e);
+                }
+            } catch (IOException e) {
+                System.out.println("| Error reading idempotency window.                       |");
+                return;
+            }
+        }
+        closeOut();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tmp, StandardCharsets.UTF_8)))) {
+            for (Entry e : live) pw.println(e.toFileFormat());
+        } catch (IOException e) {
+            System.out.println("| Error compacting idempotency window.                    |");
+            return;
+        }
+        if (!tmp.renameTo(file)) System.out.println("| Error replacing idempotency window.                     |");
+
+        OffsetMap keys = new OffsetMap();
+        long offset = 0;
+        for (Entry e : live) {
+            keys.put(hash(e.scope()), offset);
+            offset += (e.toFileFormat() + "\n").getBytes(StandardCharsets.UTF_8).length;
+        }
+        windowKeys = keys;
+        length = offset;
+        appended = 0;
+        liveAtCompaction = live.size();
+        if (warm) {
+            for (Entry e : live.subList(Math.max(0, live.size() - capacity), live.size())) {
+                if (cache.put(e.scope(), CompletableFuture.completedFuture(e)) == null) order.add(e.scope());
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+        order.clear();
+        windowKeys = new OffsetMap();
+        closeOut();
+        file.delete();
+        length = 0;
+        appended = 0;
+        liveAtCompaction = 0;
+    }
+
+    private void closeOut() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ignored) {}
+        out = null;
+    }
+
+    // Open-addressing map from 64-bit key hash to file offset in parallel primitive arrays.
+    // Zero marks an empty slot, so a zero hash is stored as one; a later entry with the same
+    // hash takes the slot over, and the lookup then rejects the line whose scope differs.
+    private static class OffsetMap {
+        private long[] hashes = new long[1024];
+        private long[] offsets = new long[1024];
+        private int size;
+
+        void put(long h, long offset) {
+            if (h == 0) h = 1;
+            if ((size + 1) * 2 > hashes.length) grow();
+            if (insert(hashes, offsets, h, offset)) size++;
+        }
+
+        long get(long h) {
+            if (h == 0) h = 1;
+            int mask = hashes.length - 1;
+            for (int i = (int) (h ^ (h >>> 32)) & mask; hashes[i] != 0; i = (i + 1) & mask) {
+                if (hashes[i] == h) return offsets[i];
+            }
+            return -1;
+        }
+
+        private static boolean insert(long[] hashes, long[] offsets, long h, long offset) {
+            int mask = hashes.length - 1;
+            int i = (int) (h ^ (h >>> 32)) & mask;
+            while (hashes[i] != 0 && hashes[i] != h) i = (i + 1) & mask;
+            boolean added = hashes[i] == 0;
+            hashes[i] = h;
+            offsets[i] = offset;
+            return added;
+        }
+
+        private void grow() {
+            long[] biggerHashes = new long[hashes.length * 2];
+            long[] biggerOffsets = new long[hashes.length * 2];
+            for (int i = 0; i < hashes.length; i++) {
+                if (hashes[i] != 0) insert(biggerHashes, biggerOffsets, hashes[i], offsets[i]);
+            }
+            hashes = biggerHashes;
+            offsets = biggerOffsets;
+        }
+
+        int size() { return size; }
+    }
+
+    // ====================== STATISTICS ======================
+
+    public long getExecuted() { return executed.get(); }
+    public long getReplayed() { return replayed.get(); }
+    public long getConflicts() { return conflicts.get(); }
+
+    public synchronized String getStats() {
+        return String.format("Cached %d/%d, window %d key(s), executed %d, replayed %d (%d from window), conflicts %d, evictions %d",
+            cache.size(), capacity, windowKeys.size(), executed.get(), replayed.get(), windowHits.get(), conflicts.get(), evictions.get());
+    }
+}
@@ -0,0 +1,333 @@
+package azurewallet.system;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import azurewallet.models.UserAccount;
+import azurewallet.storage.LedgerStore;
+
+// Append-only double-entry ledger. Every money or points movement is one posting that
+// debits one account and credits another; an account's position is credits minus debits.
+// Account state is rebuilt from the latest snapshot plus the postings written after it;
+// both live in the storage backend's LedgerStore.
+public class Ledger {
+
+    public enum Type { OPENING, DEPOSIT, WITHDRAW, FEE, PAYMENT, TRANSFER, INTEREST, VOUCHER, POINTS_EARNED, POINTS_REDEEMED, POINTS_EXPIRED }
+    public enum Unit { PHP, PTS }
+
+    public static final String CASH = "CASH";
+    public static final String EQUITY = "EQUITY";
+    public static final String SYSTEM_REVENUE = "SYSTEM_REVENUE";
+    public static final String INTEREST_EXPENSE = "INTEREST_EXPENSE";
+    public static final String VOUCHER_EXPENSE = "VOUCHER_EXPENSE";
+    public static final String POINTS_ISSUED = "POINTS_ISSUED";
+    public static final String POINTS_REDEMPTION = "POINTS_REDEMPTION";
+    private static final String USER_PREFIX = "user:";
+    private static final String MERCHANT_PREFIX = "merchant:";
+
+    public static String user(String username) { return USER_PREFIX + username; }
+    public static String merchant(String name) { return MERCHANT_PREFIX + name; }
+
+    // The username of a user account, or null for any other account.
+    public static String userOf(String account) {
+        return account.startsWith(USER_PREFIX) ? account.substring(USER_PREFIX.length()) : null;
+    }
+
+    public record Posting(long seq, long time, Type type, Unit unit, String debit, String credit, double amount, String memo) {
+        String toFileFormat() {
+            return seq + "|" + time + "|" + type + "|" + unit + "|" + debit + "|" + credit + "|" + amount + "|" + memo;
+        }
+
+        static Posting parse(String line) {
+            String[] p = line.split("\\|", 8);
+            if (p.length < 8) return null;
+            return new Posting(Long.parseLong(p[0]), Long.parseLong(p[1]), Type.valueOf(p[2]), Unit.valueOf(p[3]),
+                p[4], p[5], Double.parseDouble(p[6]), p[7]);
+        }
+    }
+
+    public static class Position {
+        private double balance;
+        private long points;
+
+        public double getBalance() { return balance; }
+        public long getPoints() { return points; }
+
+        void apply(Unit unit, double amount) {
+            if (unit == Unit.PTS) points += (long) amount;
+            else balance += amount;
+        }
+    }
+
+    private final LedgerStore store;
+    private final Map<String, Position> systemPositions = new HashMap<>();
+    private long lastSeq;
+    private long snapshotSeq;
+    private long snapshotOffset;
+    private long skippedPostings;
+    private ChangeStream changes;
+
+    public Ledger(LedgerStore store) {
+        this.store = store;
+    }
+
+    public synchronized void setChangeStream(ChangeStream changes) {
+        this.changes = changes;
+    }
+
+    // ====================== POSTING ======================
+
+    public record Entry(Type type, Unit unit, String debit, String credit, double amount, String memo) {}
+
+    public long post(Type type, Unit unit, String debit, String credit, double amount, String memo) {
+        return postAll(List.of(new Entry(type, unit, debit, credit, amount, memo)));
+    }
+
+    // Appends all entries with one write so a multi-leg operation commits as a unit.
+    // Returns the sequence number of the last posting, or -1 if nothing was written.
+    public synchronized long postAll(List<Entry> entries) {
+        if (entries.isEmpty()) return -1;
+        long now = System.currentTimeMillis();
+        List<Posting> postings = new ArrayList<>(entries.size());
+        List<String> records = new ArrayList<>(entries.size());
+        long seq = lastSeq;
+        for (Entry e : entries) {
+            Posting posting = new Posting(++seq, now, e.type(), e.unit(), e.debit(), e.credit(), e.amount(),
+                e.memo() == null ? "" : e.memo().replace('|', '/').replace('\n', ' '));
+            postings.add(posting);
+            records.add(posting.toFileFormat());
+        }
+        boolean written;
+        try {
+            written = store.append(records);
+        } catch (RuntimeException e) {
+            written = false;
+        }
+        if (!written) {
+            System.out.println("| Error writing ledger posting.                           |");
+            return -1;
+        }
+        lastSeq = seq;
+        boolean revenueChanged = false;
+        for (Posting posting : postings) {
+            applySystem(posting);
+            revenueChanged |= posting.credit().equals(SYSTEM_REVENUE) || posting.debit().equals(SYSTEM_REVENUE);
+        }
+        if (revenueChanged && changes != null) changes.append(ChangeStream.REVENUE, String.valueOf(getSystemBalance(SYSTEM_REVENUE)));
+        return seq;
+    }
+
+    private void applySystem(Posting posting) {
+        if (!posting.debit().startsWith(USER_PREFIX)) {
+            systemPositions.computeIfAbsent(posting.debit(), k -> new Position()).apply(posting.unit(), -posting.amount());
+        }
+        if (!posting.credit().startsWith(USER_PREFIX)) {
+            systemPositions.computeIfAbsent(posting.credit(), k -> new Position()).apply(posting.unit(), posting.amount());
+        }
+    }
+
+    public synchronized double getSystemBalance(String account) {
+        Position pos = systemPositions.get(account);
+        return pos == null ? 0.0 : pos.getBalance();
+    }
+
+    public synchronized long getLastSeq() { return lastSeq; }
+
+    // Postings the last recovery could not read.
+    public synchronized long getSkippedPostings() { return skippedPostings; }
+
+    // ====================== RECOVERY ======================
+
+    // Rebuilds every account position from the snapshot plus later postings. The postings
+    // are partitioned by account hash and each partition is replayed on its own core.
+    public synchronized Map<String, Position> recover() {
+        Map<String, Position> base = loadSnapshot();
+        List<Posting> tail = readPostings(snapshotOffset);
+        if (!tail.isEmpty()) lastSeq = tail.get(tail.size() - 1).seq();
+        else lastSeq = snapshotSeq;
+
+        int parts = Math.max(1, Runtime.getRuntime().availableProcessors());
+        List<Map<String, Position>> partitions = new ArrayList<>();
+        for (int i = 0; i < parts; i++) partitions.add(new HashMap<>());
+        for (Map.Entry<String, Position> e : base.entrySet()) {
+            partitions.get(partitionOf(e.getKey(), parts)).put(e.getKey(), e.getValue());
+        }
+
+        // Each leg is bucketed once here, so a worker replays only its own accounts.
+        List<List<Leg>> buckets = new ArrayList<>();
+        for (int i = 0; i < parts; i++) buckets.add(new ArrayList<>());
+        for (Posting posting : tail) {
+            buckets.get(partitionOf(posting.debit(), parts)).add(new Leg(posting.debit(), posting.unit(), -posting.amount()));
+            buckets.get(partitionOf(posting.credit(), parts)).add(new Leg(posting.credit(), posting.unit(), posting.amount()));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(parts);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < parts; i++) {
+                final List<Leg> legs = buckets.get(i);
+                final Map<String, Position> local = partitions.get(i);
+                futures.add(pool.submit(() -> {
+                    for (Leg leg : legs) {
+                        local.computeIfAbsent(leg.account(), k -> new Position()).apply(leg.unit(), leg.amount());
+                    }
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+        } catch (InterruptedException | ExecutionException e) {
+            System.out.println("| Error replaying ledger: " + e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+
+        Map<String, Position> state = new HashMap<>();
+        for (Map<String, Position> local : partitions) state.putAll(local);
+        systemPositions.clear();
+        for (Map.Entry<String, Position> e : state.entrySet()) {
+            if (!e.getKey().startsWith(USER_PREFIX)) systemPositions.put(e.getKey(), copyOf(e.getValue()));
+        }
+        return state;
+    }
+
+    private record Leg(String account, Unit unit, double amount) {}
+
+    private static int partitionOf(String account, int parts) {
+        return Math.floorMod(account.hashCode(), parts);
+    }
+
+    private static Position copyOf(Position pos) {
+        Position copy = new Position();
+        copy.balance = pos.balance;
+        copy.points = pos.points;
+        return copy;
+    }
+
+    // A posting that does not parse is skipped on its own, so one damaged record cannot cut
+    // off the rest of the ledger.
+    private List<Posting> readPostings(long fromOffset) {
+        List<Posting> postings = new ArrayList<>();
+        long[] skipped = new long[1];
+        try {
+            store.readFrom(fromOffset, line -> {
+                Posting posting = parseOrNull(line);
+                if (posting == null) skipped[0]++;
+                else if (posting.seq() > snapshotSeq) postings.add(posting);
+            });
+        } catch (RuntimeException e) {
+            System.out.println("| Error reading ledger: " + e.getMessage());
+        }
+        skippedPostings = skipped[0];
+        if (skipped[0] > 0) System.out.println("| Skipped " + skipped[0] + " unreadable ledger posting(s).");
+        return postings;
+    }
+
+    private static Posting parseOrNull(String line) {
+        if (line == null) return null;
+        try {
+            return Posting.parse(line);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Every position as of the last posting, with the log position the next posting goes to.
+    public record State(long seq, long position, long time, Map<String, Position> positions) {}
+
+    public synchronized State capture() {
+        Map<String, Position> state = recover();
+        return new State(lastSeq, store.position(), System.currentTimeMillis(), state);
+    }
+
+    // Postings stored in [from, to) of the log; to is a State position or Long.MAX_VALUE.
+    public void forEachPosting(long from, long to, Consumer<Posting> action) {
+        store.readRange(from, to, line -> {
+            Posting posting = parseOrNull(line);
+            if (posting != null) action.accept(posting);
+        });
+    }
+
+    // ====================== SNAPSHOTS ======================
+
+    private Map<String, Position> loadSnapshot() {
+        Map<String, Position> state = new HashMap<>();
+        snapshotSeq = 0;
+        snapshotOffset = 0;
+        try {
+            List<String> lines = store.readSnapshot();
+            if (lines == null || lines.isEmpty()) return state;
+            String[] h = lines.get(0).split("\\|");
+            snapshotSeq = Long.parseLong(h[0]);
+            snapshotOffset = Long.parseLong(h[1]);
+            // Snapshots written with an entry count are checked against it.
+            if (h.length > 2 && Long.parseLong(h[2]) != lines.size() - 1) throw new IllegalStateException("short snapshot");
+            for (String line : lines.subList(1, lines.size())) {
+                String[] p = line.split("\\|");
+                if (p.length < 3) continue;
+                Position pos = new Position();
+                pos.balance = Double.parseDouble(p[1]);
+                pos.points = Long.parseLong(p[2]);
+                state.put(p[0], pos);
+            }
+        } catch (RuntimeException e) {
+            System.out.println("| Error reading ledger snapshot, replaying from start.    |");
+            state.clear();
+            snapshotSeq = 0;
+            snapshotOffset = 0;
+        }
+        return state;
+    }
+
+    public synchronized void writeSnapshot() {
+        Map<String, Position> state = recover();
+        // A snapshot would hide the unreadable postings from every later recovery.
+        if (skippedPostings > 0) {
+            System.out.println("| Ledger snapshot skipped: " + skippedPostings + " unreadable posting(s).");
+            return;
+        }
+        List<String> lines = new ArrayList<>(state.size() + 1);
+        lines.add(lastSeq + "|" + store.position() + "|" + state.size());
+        for (Map.Entry<String, Position> e : state.entrySet()) {
+            lines.add(e.getKey() + "|" + e.getValue().balance + "|" + e.getValue().points);
+        }
+        boolean written;
+        try {
+            written = store.writeSnapshot(lines);
+        } catch (RuntimeException e) {
+            written = false;
+        }
+        if (!written) System.out.println("| Error writing ledger snapshot.                          |");
+    }
+
+    // ====================== STARTUP ======================
+
+    // Seeds opening balances the first time the ledger is used, then derives account state
+    // from it and repairs any account whose stored balance or points drifted.
+    public synchronized void reconcile(Map<String, UserAccount> users, double legacyRevenue) {
+        if (store.isEmpty() && store.readSnapshot() == null) {
+            for (UserAccount u : users.values()) {
+                if (u.getBalance() != 0) post(Type.OPENING, Unit.PHP, EQUITY, user(u.getUsername()), u.getBalance(), "opening balance");
+                if (u.getPoints() != 0) post(Type.OPENING, Unit.PTS, EQUITY, user(u.getUsername()), u.getPoints(), "opening points");
+            }
+            if (legacyRevenue != 0) post(Type.OPENING, Unit.PHP, EQUITY, SYSTEM_REVENUE, legacyRevenue, "system_revenue.txt");
+        }
+
+        Map<String, Position> state = recover();
+        // With postings missing the ledger is short, so it must not overwrite the accounts.
+        if (skippedPostings > 0) {
+            System.out.println("| Ledger has unreadable postings; accounts were not repaired from it. Run fsck.");
+            return;
+        }
+        int repaired = 0;
+        for (Map.Entry<String, Position> e : state.entrySet()) {
+            if (!e.getKey().startsWith(USER_PREFIX)) continue;
+            UserAccount acc = users.get(e.getKey().substring(USER_PREFIX.length()));
+            if (acc == null) continue;
+            Position pos = e.getValue();
+            if (Math.abs(acc.getBalance() - pos.balance) > 0.005 || acc.getPoints() != pos.points) {
+                acc.restoreFromLedger(pos.balance, (int) pos.points);
+                repaired++;
+            }
+        }
+        if (repaired > 0) System.out.println("| Ledger recovery repaired " + repaired + " account(s).");
+    }
+}
@@ -0,0 +1,205 @@
+package azurewallet.system;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+
+// Running per-merchant totals for payOnline. Each payment is appended to a journal and
+// applied to in-memory totals, so totals and unsettled amounts are O(1) lookups. Closing a
+// settlement batch writes one settlement file, appends a settlement marker to the journal,
+// resets the unsettled amounts and snapshots the totals so startup only replays payments made
+// since the last close. Without a usable snapshot the whole journal is replayed, and each
+// marker settles everything before it, so no payment is owed twice.
+public class MerchantPayments {
+
+    public static class MerchantTotals {
+        private final String id;
+        private final String displayName;
+        private double totalPaid;
+        private long paymentCount;
+        private double unsettled;
+        private long unsettledCount;
+
+        MerchantTotals(String id, String displayName) {
+            this.id = id;
+            this.displayName = displayName;
+        }
+
+        public String getId() { return id; }
+        public String getDisplayName() { return displayName; }
+        public double getTotalPaid() { return totalPaid; }
+        public long getPaymentCount() { return paymentCount; }
+        public double getUnsettled() { return unsettled; }
+        public long getUnsettledCount() { return unsettledCount; }
+    }
+
+    private final File journalFile;
+    private final File snapshotFile;
+    private final File settlementDir;
+    private final Map<String, MerchantTotals> merchants = new HashMap<>();
+    private long batchId = 1;
+
+    public MerchantPayments(String journalPath, String snapshotPath, String settlementDir) {
+        this.journalFile = new File(journalPath);
+        this.snapshotFile = new File(snapshotPath);
+        this.settlementDir = new File(settlementDir);
+        load();
+    }
+
+    private static final String SETTLED = "SETTLED";
+
+    public static String normalizeId(String merchant) {
+        String id = merchant.trim().toLowerCase().replaceAll("\\s+", "-").replaceAll("[^a-z0-9-]", "");
+        return id.isEmpty() ? "unknown" : id;
+    }
+
+    // ====================== PAYMENTS ======================
+
+    public synchronized void recordPayment(String username, String merchant, double amount) {
+        String id = normalizeId(merchant);
+        try (PrintWriter pw = new PrintWriter(new FileWriter(journalFile, StandardCharsets.UTF_8, true))) {
+            pw.println(System.currentTimeMillis() + "|" + batchId + "|" + id + "|" + username + "|" + amount + "|"
+                + merchant.trim().replace('|', '/'));
+        } catch (IOException e) {
+            System.out.println("| Error logging merchant payment.                         |");
+        }
+        apply(id, merchant.trim(), amount);
+    }
+
+    private void apply(String id, String displayName, double amount) {
+        MerchantTotals t = merchants.computeIfAbsent(id, k -> new MerchantTotals(k, displayName));
+        t.totalPaid += amount;
+        t.paymentCount++;
+        t.unsettled += amount;
+        t.unsettledCount++;
+    }
+
+    public synchronized MerchantTotals getTotals(String merchant) {
+        return merchants.get(normalizeId(merchant));
+    }
+
+    public synchronized List<MerchantTotals> getAllTotals() {
+        List<MerchantTotals> list = new ArrayList<>(merchants.values());
+        list.sort(Comparator.comparingDouble(MerchantTotals::getUnsettled).reversed());
+        return list;
+    }
+
+    public synchronized long getCurrentBatchId() { return batchId; }
+
+    // ====================== SETTLEMENT ======================
+
+    // Closes the current batch and returns the settlement file, or null when nothing is owed.
+    public synchronized File closeBatch() {
+        List<MerchantTotals> owed = new ArrayList<>();
+        for (MerchantTotals t : merchants.values()) if (t.unsettledCount > 0) owed.add(t);
+        if (owed.isEmpty()) return null;
+        owed.sort(Comparator.comparing(MerchantTotals::getId));
+
+        settlementDir.mkdirs();
+        File out = new File(settlementDir, "settlement_" + batchId + "_" + LocalDate.now() + ".txt");
+        double total = 0.0;
+        long count = 0;
+        try (PrintWriter pw = new PrintWriter(new FileWriter(out, StandardCharsets.UTF_8))) {
+            pw.println("SETTLEMENT BATCH " + batchId + " - " + LocalDate.now());
+            pw.println("merchant_id,merchant_name,payments,amount");
+            for (MerchantTotals t : owed) {
+                pw.printf("%s,%s,%d,%.2f%n", t.id, t.displayName.replace(',', ' '), t.unsettledCount, t.unsettled);
+                total += t.unsettled;
+                count += t.unsettledCount;
+            }
+            pw.printf("TOTAL,%d merchant(s),%d,%.2f%n", owed.size(), count, total);
+        } catch (IOException e) {
+            System.out.println("Error writing settlement file.");
+            return null;
+        }
+
+        // The marker is what makes the batch settled; if it cannot be written the batch stays
+        // open and the next close reissues it under the same id.
+        try (PrintWriter pw = new PrintWriter(new FileWriter(journalFile, StandardCharsets.UTF_8, true))) {
+            pw.println(System.currentTimeMillis() + "|" + SETTLED + "|" + batchId + "|" + journalFile.length());
+            if (pw.checkError()) throw new IOException("write failed");
+        } catch (IOException e) {
+            System.out.println("Error recording settlement; batch " + batchId + " stays open.");
+            return null;
+        }
+        settle();
+        batchId++;
+        writeSnapshot();
+        return out;
+    }
+
+    private void settle() {
+        for (MerchantTotals t : merchants.values()) {
+            t.unsettled = 0.0;
+            t.unsettledCount = 0;
+        }
+    }
+
+    // Drops every total after the journal has been wiped. Batch ids keep counting so new
+    // settlement files do not overwrite old ones.
+    public synchronized void clear() {
+        merchants.clear();
+        writeSnapshot();
+    }
+
+    // ====================== PERSISTENCE ======================
+
+    private void writeSnapshot() {
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        try (PrintWriter pw = new PrintWriter(new FileWriter(tmp, StandardCharsets.UTF_8))) {
+            pw.println(batchId + "|" + journalFile.length());
+            for (MerchantTotals t : merchants.values()) {
+                pw.println(t.id + "|" + t.totalPaid + "|" + t.paymentCount + "|" + t.unsettled + "|" + t.unsettledCount + "|" + t.displayName);
+            }
+        } catch (IOException e) {
+            System.out.println("Error writing merchant snapshot.");
+            return;
+        }
+        if (!tmp.renameTo(snapshotFile)) System.out.println("Error replacing merchant snapshot.");
+    }
+
+    private void load() {
+        long offset = 0;
+        if (snapshotFile.exists()) {
+            try (BufferedReader br = new BufferedReader(new FileReader(snapshotFile, StandardCharsets.UTF_8))) {
+                String[] h = br.readLine().split("\\|");
+                batchId = Long.parseLong(h[0]);
+                offset = Long.parseLong(h[1]);
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] p = line.split("\\|", 6);
+                    MerchantTotals t = new MerchantTotals(p[0], p[5]);
+                    t.totalPaid = Double.parseDouble(p[1]);
+                    t.paymentCount = Long.parseLong(p[2]);
+                    t.unsettled = Double.parseDouble(p[3]);
+                    t.unsettledCount = Long.parseLong(p[4]);
+                    merchants.put(t.id, t);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println("| Error reading merchant snapshot, replaying journal.     |");
+                merchants.clear();
+                batchId = 1;
+                offset = 0;
+            }
+        }
+        if (!journalFile.exists()) return;
+        try (FileInputStream in = new FileInputStream(journalFile);
+             BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            in.getChannel().position(Math.min(offset, journalFile.length()));
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] p = line.split("\\|", 6);
+                if (p.length >= 3 && p[1].equals(SETTLED)) {
+                    settle();
+                    batchId = Math.max(batchId, Long.parseLong(p[2]) + 1);
+                    continue;
+                }
+                if (p.length < 6) continue;
+                apply(p[2], p[5], Double.parseDouble(p[4]));
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("| Error replaying merchant payments.                      |");
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package azurewallet.system;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import azurewallet.models.UserAccount;
+
+// Expires points lots across every account. The cache sweeps accounts in memory in place
+// and each cold shard straight from its store, so the sweep never pages the whole user base
+// through the LRU. The expired lots are then posted to the ledger and the points log in
+// batches, one write each.
+public class PointsExpiry {
+    private static final int BATCH = 512;
+
+    public record Result(int accounts, int expiredAccounts, long points, long millis) {}
+
+    private final FileManager fileManager;
+
+    public PointsExpiry(FileManager fileManager) {
+        this.fileManager = fileManager;
+    }
+
+    public Result sweep(AccountCache users) {
+        long start = System.currentTimeMillis();
+        AtomicInteger accounts = new AtomicInteger();
+        Map<String, Integer> expired = new ConcurrentHashMap<>();
+        users.sweep(acc -> {
+            accounts.incrementAndGet();
+            int pts = acc.expirePoints(start);
+            if (pts > 0) expired.merge(acc.getUsername(), pts, Integer::sum);
+            return pts > 0;
+        });
+
+        long expiredPoints = 0;
+        List<Map.Entry<String, Integer>> all = new ArrayList<>(expired.entrySet());
+        for (int b = 0; b < all.size(); b += BATCH) {
+            Map<String, Integer> batch = new LinkedHashMap<>();
+            List<Ledger.Entry> postings = new ArrayList<>();
+            for (Map.Entry<String, Integer> e : all.subList(b, Math.min(all.size(), b + BATCH))) {
+                batch.put(e.getKey(), e.getValue());
+                postings.add(new Ledger.Entry(Ledger.Type.POINTS_EXPIRED, Ledger.Unit.PTS, Ledger.user(e.getKey()),
+                    Ledger.POINTS_ISSUED, e.getValue(), "expired"));
+                expiredPoints += e.getValue();
+            }
+            fileManager.getLedger().postAll(postings);
+            fileManager.logPointsExpiry(batch);
+        }
+
+        if (!expired.isEmpty()) fileManager.saveUsers(users);
+        return new Result(accounts.get(), expired.size(), expiredPoints, System.currentTimeMillis() - start);
+    }
+}
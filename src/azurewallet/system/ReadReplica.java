@@ -0,0 +1,229 @@
+package azurewallet.system;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import azurewallet.models.UserAccount;
+
+// Follower side of log shipping. A background thread tails the primary's changes.log and
+// applies complete records to this process's own copy of the accounts, transaction history
+// and revenue total, which it keeps in its own directory. Only read queries are served.
+public class ReadReplica {
+    private static final long POLL_MILLIS = 200;
+    private static final long CHECKPOINT_MILLIS = 5000;
+
+    private final File source;
+    private final File dir;
+    private final File usersFile;
+    private final File transactionsFile;
+    private final File checkpointFile;
+    private final Map<String, UserAccount> users = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService tailer;
+
+    private volatile double revenue;
+    private volatile long appliedSeq;
+    private volatile long appliedOffset;
+    private volatile long lastRecordMillis;
+    private volatile long lastPollMillis;
+    private volatile boolean caughtUp;
+    private long lastCheckpoint;
+    private PrintWriter transactionsOut;
+
+    public ReadReplica(String primaryDataDir, String replicaDir) {
+        this.source = new File(primaryDataDir + "changes.log");
+        this.dir = new File(replicaDir);
+        dir.mkdirs();
+        this.usersFile = new File(dir, "users.txt");
+        this.transactionsFile = new File(dir, "transactions.txt");
+        this.checkpointFile = new File(dir, "checkpoint.txt");
+        loadCheckpoint();
+        tailer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-tailer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        tailer.scheduleWithFixedDelay(this::poll, 0, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        tailer.shutdown();
+        try {
+            tailer.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {}
+        synchronized (this) {
+            checkpoint();
+            if (transactionsOut != null) transactionsOut.close();
+        }
+    }
+
+    // ====================== APPLY ======================
+
+    private synchronized void poll() {
+        try (RandomAccessFile raf = new RandomAccessFile(source, "r")) {
+            long length = raf.length();
+            if (length < appliedOffset) {
+                System.out.println("[replica] change stream truncated on primary; resync required.");
+                return;
+            }
+            raf.seek(appliedOffset);
+            byte[] buf = new byte[64 * 1024];
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            long pos = appliedOffset;
+            int n;
+            while (pos < length && (n = raf.read(buf, 0, (int) Math.min(buf.length, length - pos))) > 0) {
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] == '\n') {
+                        String record = line.toString(StandardCharsets.UTF_8);
+                        try {
+                            apply(record);
+                        } catch (RuntimeException e) {
+                            // A malformed record is skipped so it cannot stall the tailer.
+                            System.out.println("[replica] skipped bad record at byte " + appliedOffset + ": " + e);
+                        }
+                        line.reset();
+                        appliedOffset = pos + i + 1;
+                    } else {
+                        line.write(buf[i]);
+                    }
+                }
+                pos += n;
+            }
+            // A trailing partial line is left for the next poll.
+            caughtUp = appliedOffset == length;
+            lastPollMillis = System.currentTimeMillis();
+            if (transactionsOut != null) transactionsOut.flush();
+            if (lastPollMillis - lastCheckpoint >= CHECKPOINT_MILLIS) checkpoint();
+        } catch (FileNotFoundException e) {
+            caughtUp = false;
+        } catch (IOException e) {
+            System.out.println("[replica] error tailing change stream: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // An exception escaping a scheduled task cancels it, so the replica would stop
+            // following the primary without a word.
+            System.out.println("[replica] error applying change stream: " + e);
+        }
+    }
+
+    private void apply(String record) {
+        String[] p = record.split("\\|", 4);
+        if (p.length < 4) return;
+        long seq = Long.parseLong(p[0]);
+        if (seq <= appliedSeq) return;
+        switch (p[2]) {
+            case ChangeStream.ACCOUNT -> {
+                UserAccount acc = UserAccount.fromFileFormat(p[3]);
+                if (acc != null) users.put(acc.getUsername(), acc);
+            }
+            case ChangeStream.REMOVE -> users.remove(p[3]);
+            case ChangeStream.CLEAR -> users.clear();
+            case ChangeStream.TXN -> transactions().println(p[3]);
+            case ChangeStream.REVENUE -> revenue = Double.parseDouble(p[3]);
+            default -> { }
+        }
+        appliedSeq = seq;
+        lastRecordMillis = Long.parseLong(p[1]);
+    }
+
+    private PrintWriter transactions() {
+        if (transactionsOut == null) {
+            try {
+                transactionsOut = new PrintWriter(new BufferedWriter(new FileWriter(transactionsFile, StandardCharsets.UTF_8, true)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return transactionsOut;
+    }
+
+    // ====================== CHECKPOINTS ======================
+
+    private void checkpoint() {
+        if (transactionsOut != null) transactionsOut.flush();
+        File tmp = new File(dir, "users.txt.tmp");
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tmp, StandardCharsets.UTF_8)))) {
+            for (UserAccount u : users.values()) pw.println(u.toFileFormat());
+        } catch (IOException e) {
+            System.out.println("[replica] error writing checkpoint.");
+            return;
+        }
+        tmp.renameTo(usersFile);
+        try (PrintWriter pw = new PrintWriter(new FileWriter(checkpointFile))) {
+            pw.println(appliedSeq + "|" + appliedOffset + "|" + transactionsFile.length() + "|" + revenue + "|" + lastRecordMillis);
+        } catch (IOException e) {
+            System.out.println("[replica] error writing checkpoint.");
+        }
+        lastCheckpoint = System.currentTimeMillis();
+    }
+
+    // Restores the last checkpoint; transaction lines written after it are cut off so they
+    // are not duplicated when the stream is replayed from the checkpoint offset.
+    private void loadCheckpoint() {
+        if (!checkpointFile.exists()) return;
+        try (BufferedReader br = new BufferedReader(new FileReader(checkpointFile))) {
+            String[] p = br.readLine().split("\\|");
+            appliedSeq = Long.parseLong(p[0]);
+            appliedOffset = Long.parseLong(p[1]);
+            long txnLength = Long.parseLong(p[2]);
+            revenue = Double.parseDouble(p[3]);
+            lastRecordMillis = Long.parseLong(p[4]);
+            try (RandomAccessFile raf = new RandomAccessFile(transactionsFile, "rw")) {
+                if (raf.length() > txnLength) raf.setLength(txnLength);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("[replica] checkpoint unreadable, resyncing from the start.");
+            appliedSeq = 0;
+            appliedOffset = 0;
+            transactionsFile.delete();
+            return;
+        }
+        try (BufferedReader br = new BufferedReader(new FileReader(usersFile, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                UserAccount acc = UserAccount.fromFileFormat(line);
+                if (acc != null) users.put(acc.getUsername(), acc);
+            }
+        } catch (IOException e) {
+            System.out.println("[replica] error loading replica users.");
+        }
+    }
+
+    // ====================== READ QUERIES ======================
+
+    public Collection<UserAccount> getUsers() { return users.values(); }
+    public UserAccount getUser(String username) { return users.get(username); }
+    public double getRevenue() { return revenue; }
+    public long getAppliedSeq() { return appliedSeq; }
+
+    // Zero once every complete record on the primary has been applied; otherwise the age of
+    // the newest record applied so far.
+    public long getLagMillis() {
+        if (caughtUp) return 0;
+        return lastRecordMillis == 0 ? -1 : System.currentTimeMillis() - lastRecordMillis;
+    }
+
+    public long getBytesBehind() {
+        return Math.max(0, source.length() - appliedOffset);
+    }
+
+    public long getLastPollMillis() { return lastPollMillis; }
+
+    public List<String> getTransactions(String username) {
+        List<String> lines = new ArrayList<>();
+        synchronized (this) {
+            if (transactionsOut != null) transactionsOut.flush();
+        }
+        try (BufferedReader br = new BufferedReader(new FileReader(transactionsFile, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.contains(username)) lines.add(line);
+            }
+        } catch (IOException e) {
+            // Nothing replicated yet.
+        }
+        return lines;
+    }
+}
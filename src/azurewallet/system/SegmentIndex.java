@@ -0,0 +1,365 @@
+package azurewallet.system;
+
+import java.util.*;
+import azurewallet.models.UserAccount;
+import azurewallet.storage.AccountStore;
+import azurewallet.storage.LogStore;
+
+// Bitmap indexes over dense account ids for targeting voucher campaigns. Every account gets
+// an id on first sight, and its rank, balance bucket, day of last activity and voucher history
+// are kept as compressed bitmaps next to primitive per-id columns. The account cache updates
+// an account's bits whenever it writes the account back. Segment expressions such as
+//   rank>=gold AND active<=30 AND balance>10k
+// are evaluated with bitmap AND/OR/AND NOT; balance thresholds inside a bucket are resolved
+// against the balance column for that bucket's members only.
+public class SegmentIndex {
+    public static final String[] RANKS = { "Bronze", "Silver", "Gold", "Platinum" };
+    // Activity is only known for the 30 days the rolling windows cover.
+    public static final int RECENCY_DAYS = 30;
+    private static final double[] BUCKETS = { Double.NEGATIVE_INFINITY, 1_000, 5_000, 10_000, 50_000, 100_000, 500_000, 1_000_000 };
+    private static final long DAY = 86_400_000L;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private byte[] rank = new byte[1024];
+    private byte[] bucket = new byte[1024];
+    private int[] lastActiveDay = new int[1024];
+    private double[] balance = new double[1024];
+
+    private final IdBitmap live = new IdBitmap();
+    private final IdBitmap[] byRank = new IdBitmap[RANKS.length];
+    private final IdBitmap[] byBucket = new IdBitmap[BUCKETS.length];
+    private final TreeMap<Integer, IdBitmap> byLastActive = new TreeMap<>();
+    private final IdBitmap holding = new IdBitmap();
+    private final IdBitmap redeemed = new IdBitmap();
+
+    public SegmentIndex() {
+        for (int i = 0; i < byRank.length; i++) byRank[i] = new IdBitmap();
+        for (int i = 0; i < byBucket.length; i++) byBucket[i] = new IdBitmap();
+    }
+
+    // ====================== MAINTENANCE ======================
+
+    private int idOf(String username) {
+        Integer id = ids.get(username);
+        if (id != null) return id;
+        id = names.size();
+        ids.put(username, id);
+        names.add(username);
+        if (id == rank.length) {
+            int cap = id * 2;
+            rank = Arrays.copyOf(rank, cap);
+            bucket = Arrays.copyOf(bucket, cap);
+            lastActiveDay = Arrays.copyOf(lastActiveDay, cap);
+            balance = Arrays.copyOf(balance, cap);
+        }
+        lastActiveDay[id] = -1;
+        return id;
+    }
+
+    private static int rankIndex(String rank) {
+        for (int i = 0; i < RANKS.length; i++) if (RANKS[i].equalsIgnoreCase(rank)) return i;
+        return 0;
+    }
+
+    private static int bucketOf(double amount) {
+        int b = 0;
+        while (b + 1 < BUCKETS.length && amount >= BUCKETS[b + 1]) b++;
+        return b;
+    }
+
+    public void update(UserAccount acc) {
+        long lastActive = acc.getLastActive();
+        set(acc.getUsername(), acc.getRank(), acc.getBalance(), lastActive < 0 ? -1 : (int) (lastActive / DAY));
+    }
+
+    private synchronized void set(String username, String rankName, double amount, int day) {
+        int id = idOf(username);
+        boolean known = live.contains(id);
+        int r = rankIndex(rankName);
+        int b = bucketOf(amount);
+        if (!known || rank[id] != r) {
+            if (known) byRank[rank[id]].remove(id);
+            byRank[r].add(id);
+            rank[id] = (byte) r;
+        }
+        if (!known || bucket[id] != b) {
+            if (known) byBucket[bucket[id]].remove(id);
+            byBucket[b].add(id);
+            bucket[id] = (byte) b;
+        }
+        if (!known || lastActiveDay[id] != day) {
+            IdBitmap old = byLastActive.get(lastActiveDay[id]);
+            if (old != null) old.remove(id);
+            if (day >= 0) byLastActive.computeIfAbsent(day, k -> new IdBitmap()).add(id);
+            lastActiveDay[id] = day;
+        }
+        balance[id] = amount;
+        live.add(id);
+    }
+
+    public synchronized void remove(String username) {
+        Integer id = ids.get(username);
+        if (id == null || !live.contains(id)) return;
+        byRank[rank[id]].remove(id);
+        byBucket[bucket[id]].remove(id);
+        IdBitmap day = byLastActive.get(lastActiveDay[id]);
+        if (day != null) day.remove(id);
+        holding.remove(id);
+        redeemed.remove(id);
+        live.remove(id);
+    }
+
+    public synchronized void setVoucherHolder(String username, boolean holds) {
+        if (holds) holding.add(idOf(username));
+        else if (ids.containsKey(username)) holding.remove(ids.get(username));
+    }
+
+    public synchronized void voucherRedeemed(String username) {
+        redeemed.add(idOf(username));
+    }
+
+    public synchronized void clear() {
+        for (IdBitmap b : byRank) b.clear();
+        for (IdBitmap b : byBucket) b.clear();
+        byLastActive.clear();
+        live.clear();
+        holding.clear();
+        redeemed.clear();
+    }
+
+    // Startup: one reader per store collects the indexed fields, then the voucher log adds
+    // redemption history. Voucher holders arrive from the voucher index as it loads.
+    public void rebuild(List<AccountStore> stores, LogStore logs) {
+        record Row(String username, String rank, double balance, int day) {}
+        List<Row> rows = stores.parallelStream()
+            .flatMap(store -> {
+                List<Row> part = new ArrayList<>();
+                for (String username : store.usernames()) {
+                    UserAccount acc = store.read(username);
+                    if (acc == null) continue;
+                    long lastActive = acc.getLastActive();
+                    part.add(new Row(acc.getUsername(), acc.getRank(), acc.getBalance(), lastActive < 0 ? -1 : (int) (lastActive / DAY)));
+                }
+                return part.stream();
+            })
+            .toList();
+        for (Row r : rows) set(r.username(), r.rank(), r.balance(), r.day());
+        try {
+            logs.forEach("voucher_log.txt", null, line -> {
+                String[] words = body(line).split(" ");
+                if (words.length >= 2 && words[1].equals("redeemed")) voucherRedeemed(words[0]);
+            });
+        } catch (RuntimeException e) {
+            System.out.println("| Error reading voucher history for segments.             |");
+        }
+    }
+
+    // Strips "timestamp - " and the transaction id, if any, from a log line.
+    private static String body(String line) {
+        int sep = line.indexOf(" - ");
+        if (sep < 0) return line;
+        String body = line.substring(sep + 3);
+        int next = body.indexOf(" - ");
+        return next > 0 && TxnIds.parse(body.substring(0, next)) >= 0 ? body.substring(next + 3) : body;
+    }
+
+    // ====================== LOOKUPS ======================
+
+    public synchronized String nameOf(int id) {
+        return names.get(id);
+    }
+
+    public synchronized String rankOf(int id) {
+        return RANKS[rank[id]];
+    }
+
+    public synchronized IdBitmap rank(String rankName) {
+        return IdBitmap.and(byRank[rankIndex(rankName)], live);
+    }
+
+    public synchronized IdBitmap all() {
+        return live.copy();
+    }
+
+    // ====================== SEGMENT EXPRESSIONS ======================
+
+    // expr := term (OR term)*, term := factor (AND factor)*, factor := NOT factor | (expr) | predicate
+    // Predicates: rank = != > >= < <= bronze|silver|gold|platinum; balance <op> amount (10k, 2.5m);
+    // active <= N / < N / > N / >= N days (N up to 30); voucher = holding|redeemed.
+    // Throws IllegalArgumentException on a malformed expression.
+    public synchronized IdBitmap evaluate(String expression) {
+        pruneActivity();
+        Parser p = new Parser(expression);
+        IdBitmap result = p.expr();
+        if (p.pos < p.tokens.size()) throw new IllegalArgumentException("Unexpected '" + p.tokens.get(p.pos) + "'");
+        return IdBitmap.and(result, live);
+    }
+
+    private void pruneActivity() {
+        int today = (int) (System.currentTimeMillis() / DAY);
+        byLastActive.headMap(today - RECENCY_DAYS + 1).clear();
+    }
+
+    private class Parser {
+        final List<String> tokens = new ArrayList<>();
+        int pos;
+
+        Parser(String text) {
+            java.util.regex.Matcher m = java.util.regex.Pattern.compile("\\s*(>=|<=|!=|&&|\\|\\||[()=<>!]|[A-Za-z0-9_.]+)").matcher(text);
+            int at = 0;
+            while (at < text.length() && m.find(at) && m.start() == at) {
+                tokens.add(m.group(1));
+                at = m.end();
+            }
+            if (!text.substring(at).isBlank()) throw new IllegalArgumentException("Cannot read '" + text.substring(at).trim() + "'");
+        }
+
+        private String peek() {
+            return pos < tokens.size() ? tokens.get(pos) : "";
+        }
+
+        private String next() {
+            if (pos >= tokens.size()) throw new IllegalArgumentException("Expression ends too early");
+            return tokens.get(pos++);
+        }
+
+        IdBitmap expr() {
+            IdBitmap left = term();
+            while (peek().equalsIgnoreCase("OR") || peek().equals("||")) {
+                pos++;
+                left = IdBitmap.or(left, term());
+            }
+            return left;
+        }
+
+        IdBitmap term() {
+            IdBitmap left = factor();
+            while (peek().equalsIgnoreCase("AND") || peek().equals("&&")) {
+                pos++;
+                left = IdBitmap.and(left, factor());
+            }
+            return left;
+        }
+
+        IdBitmap factor() {
+            String t = next();
+            if (t.equalsIgnoreCase("NOT") || t.equals("!")) return IdBitmap.andNot(live, factor());
+            if (t.equals("(")) {
+                IdBitmap inner = expr();
+                if (!next().equals(")")) throw new IllegalArgumentException("Missing ')'");
+                return inner;
+            }
+            String op = next();
+            String value = next();
+            return switch (t.toLowerCase()) {
+                case "rank" -> rankPredicate(op, value);
+                case "balance" -> balancePredicate(op, parseAmount(value));
+                case "active" -> activePredicate(op, value);
+                case "voucher" -> voucherPredicate(op, value);
+                default -> throw new IllegalArgumentException("Unknown field '" + t + "'");
+            };
+        }
+    }
+
+    private static boolean compare(double a, String op, double b) {
+        return switch (op) {
+            case "=" -> a == b;
+            case "!=" -> a != b;
+            case ">" -> a > b;
+            case ">=" -> a >= b;
+            case "<" -> a < b;
+            case "<=" -> a <= b;
+            default -> throw new IllegalArgumentException("Unknown operator '" + op + "'");
+        };
+    }
+
+    private IdBitmap rankPredicate(String op, String value) {
+        int target = -1;
+        for (int i = 0; i < RANKS.length; i++) if (RANKS[i].equalsIgnoreCase(value)) target = i;
+        if (target < 0) throw new IllegalArgumentException("Unknown rank '" + value + "'");
+        IdBitmap out = new IdBitmap();
+        for (int i = 0; i < RANKS.length; i++) {
+            if (compare(i, op, target)) out = IdBitmap.or(out, byRank[i]);
+        }
+        return out;
+    }
+
+    private static double parseAmount(String value) {
+        String v = value.toLowerCase();
+        double scale = v.endsWith("k") ? 1_000 : v.endsWith("m") ? 1_000_000 : 1;
+        if (scale > 1) v = v.substring(0, v.length() - 1);
+        try {
+            return Double.parseDouble(v) * scale;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid amount '" + value + "'");
+        }
+    }
+
+    // Whole buckets on one side of the threshold are taken or skipped as bitmaps; only the
+    // bucket the threshold falls in is checked id by id.
+    private IdBitmap balancePredicate(String op, double threshold) {
+        if (op.equals("=") || op.equals("!=")) throw new IllegalArgumentException("Use <, <=, > or >= with balance");
+        IdBitmap out = new IdBitmap();
+        for (int b = 0; b < BUCKETS.length; b++) {
+            double lo = BUCKETS[b];
+            double hi = b + 1 < BUCKETS.length ? Math.nextDown(BUCKETS[b + 1]) : Double.MAX_VALUE;
+            boolean low = compare(lo, op, threshold);
+            boolean high = compare(hi, op, threshold);
+            if (low && high) {
+                out = IdBitmap.or(out, byBucket[b]);
+            } else if (low || high) {
+                IdBitmap partial = new IdBitmap();
+                byBucket[b].forEach(id -> {
+                    if (compare(balance[id], op, threshold)) partial.add(id);
+                });
+                out = IdBitmap.or(out, partial);
+            }
+        }
+        return out;
+    }
+
+    private IdBitmap activePredicate(String op, String value) {
+        int days;
+        try {
+            days = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number of days '" + value + "'");
+        }
+        // Normalize to "active within N days" and its complement.
+        boolean within = op.equals("<=") || op.equals("<");
+        if (op.equals("<")) days--;
+        if (op.equals(">=")) days--;
+        if (!within && !op.equals(">") && !op.equals(">=")) throw new IllegalArgumentException("Use <, <=, > or >= with active");
+        if (days < 0 || days > RECENCY_DAYS) throw new IllegalArgumentException("active is tracked for up to " + RECENCY_DAYS + " days");
+        int today = (int) (System.currentTimeMillis() / DAY);
+        IdBitmap recent = new IdBitmap();
+        for (IdBitmap day : byLastActive.tailMap(today - days + 1).values()) recent = IdBitmap.or(recent, day);
+        return within ? recent : IdBitmap.andNot(live, recent);
+    }
+
+    private IdBitmap voucherPredicate(String op, String value) {
+        IdBitmap set = switch (value.toLowerCase()) {
+            case "holding" -> holding;
+            case "redeemed" -> redeemed;
+            default -> throw new IllegalArgumentException("voucher can be holding or redeemed");
+        };
+        return switch (op) {
+            case "=" -> set.copy();
+            case "!=" -> IdBitmap.andNot(live, set);
+            default -> throw new IllegalArgumentException("Use = or != with voucher");
+        };
+    }
+
+    // ====================== STATISTICS ======================
+
+    public synchronized String getStats() {
+        long bytes = live.sizeInBytes() + holding.sizeInBytes() + redeemed.sizeInBytes();
+        int bitmaps = 3 + byRank.length + byBucket.length + byLastActive.size();
+        for (IdBitmap b : byRank) bytes += b.sizeInBytes();
+        for (IdBitmap b : byBucket) bytes += b.sizeInBytes();
+        for (IdBitmap b : byLastActive.values()) bytes += b.sizeInBytes();
+        return String.format("%d account(s) indexed, %d bitmaps in %,d bytes (%d holding vouchers, %d have redeemed)",
+            live.cardinality(), bitmaps, bytes, holding.cardinality(), redeemed.cardinality());
+    }
+}
@@ -0,0 +1,338 @@
+package azurewallet.system;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import azurewallet.models.UserAccount;
+import azurewallet.storage.AccountFileStore;
+import azurewallet.storage.AccountStore;
+import azurewallet.storage.LogStore;
+import azurewallet.storage.RecordFrame;
+
+// Sharded storage layout. Accounts and their per-user logs are partitioned across K shard
+// directories by username hash; every shard has its own files, its own lock and a single
+// writer thread that appends queued log lines in batches. With K = 1 the legacy flat
+// DATA_DIR layout is used unchanged.
+public class ShardRouter {
+    public static final String[] USER_LOGS = {
+        "transactions.txt", "points_log.txt", "interest_log.txt", "voucher_log.txt"
+    };
+
+    private final String dataDir;
+    private final int shardCount;
+    private final List<Shard> shards = new ArrayList<>();
+
+    public ShardRouter(String dataDir, int shardCount) {
+        this.dataDir = dataDir;
+        this.shardCount = Math.max(1, shardCount);
+        if (isSharded()) {
+            for (int i = 0; i < this.shardCount; i++) shards.add(new Shard(i, new File(dataDir + "shard-" + i + "/")));
+        }
+    }
+
+    public static int shardOf(String username, int shardCount) {
+        return shardCount <= 1 ? 0 : Math.floorMod(username.hashCode(), shardCount);
+    }
+
+    public boolean isSharded() { return shardCount > 1; }
+    public int getShardCount() { return shardCount; }
+
+    // ====================== FILE LAYOUT ======================
+
+    public File usersFile(int shard) {
+        return isSharded() ? new File(shards.get(shard).dir, "users.txt") : new File(dataDir + "users.txt");
+    }
+
+    public File userLogFile(String username, String name) {
+        return isSharded() ? new File(shards.get(shardOf(username, shardCount)).dir, name) : new File(dataDir + name);
+    }
+
+    // Every file holding records of the given log: the legacy flat file plus one per shard.
+    public List<File> logFiles(String name) {
+        List<File> files = new ArrayList<>();
+        files.add(new File(dataDir + name));
+        for (Shard shard : shards) files.add(new File(shard.dir, name));
+        return files;
+    }
+
+    public List<AccountStore> openAccountStores() {
+        List<AccountStore> stores = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) stores.add(new AccountFileStore(usersFile(i).getPath()));
+        return stores;
+    }
+
+    // First sharded start: spreads the flat users.txt across the shard users files.
+    public void migrateLegacyUsers() {
+        if (!isSharded()) return;
+        File legacy = new File(dataDir + "users.txt");
+        if (legacy.length() == 0) return;
+        for (int i = 0; i < shardCount; i++) if (usersFile(i).length() > 0) return;
+
+        List<PrintWriter> writers = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(legacy, StandardCharsets.UTF_8))) {
+            for (int i = 0; i < shardCount; i++) {
+                writers.add(new PrintWriter(new BufferedWriter(new FileWriter(usersFile(i), StandardCharsets.UTF_8))));
+            }
+            String line;
+            int moved = 0;
+            while ((line = br.readLine()) != null) {
+                String payload = RecordFrame.decode(line);
+                int comma = payload == null ? -1 : payload.indexOf(',');
+                if (comma <= 0) continue;
+                writers.get(shardOf(payload.substring(0, comma), shardCount)).print(line + "\n");
+                moved++;
+            }
+            System.out.println("| Migrated " + moved + " account record(s) into " + shardCount + " shards.");
+        } catch (IOException e) {
+            System.out.println("| Error migrating users into shards.                      |");
+            return;
+        } finally {
+            for (PrintWriter pw : writers) pw.close();
+        }
+        if (!legacy.renameTo(new File(dataDir + "users_unsharded.txt.bak"))) {
+            System.out.println("| Error archiving unsharded users file.                   |");
+        }
+    }
+
+    // ====================== WRITES ======================
+
+    // Queues a line on the owning shard's writer thread and waits until it is on disk.
+    // Returns the line's byte offset in the shard's log file.
+    public long append(String username, String logName, String line) {
+        Shard shard = shards.get(shardOf(username, shardCount));
+        return shard.submit(new File(shard.dir, logName), line).join();
+    }
+
+    // Offsets line up with the input lines; each is relative to its own shard's file.
+    public long[] appendAll(List<LogStore.LogLine> lines, String logName) {
+        List<CompletableFuture<Long>> pending = new ArrayList<>(lines.size());
+        for (LogStore.LogLine l : lines) {
+            Shard shard = shards.get(shardOf(l.key(), shardCount));
+            pending.add(shard.submit(new File(shard.dir, logName), l.line()));
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+        long[] offsets = new long[pending.size()];
+        for (int i = 0; i < offsets.length; i++) offsets[i] = pending.get(i).join();
+        return offsets;
+    }
+
+    // A transfer journaled in shard_transfers.txt that was never finished or aborted.
+    public record PendingTransfer(long txnId, String from, String to, double amount, boolean committed) {}
+
+    // Ordered two-shard commit for a transfer. Both shard locks are taken in shard order so
+    // concurrent transfers in opposite directions cannot deadlock. PREPARE is journaled with
+    // everything recovery needs, then both legs are written, then COMMIT; only after that does
+    // applyBalances move the money, and DONE closes the entry. If a leg or applyBalances fails,
+    // the legs that landed are undone with the given reversal lines, ABORT is journaled and
+    // the error is rethrown. Returns the byte offsets of the two legs in their shard files.
+    public long[] commitTransfer(long txnId, String from, String to, double amount, Runnable applyBalances,
+                                 String fromLine, String toLine, String fromReversal, String toReversal) {
+        Shard a = shards.get(shardOf(from, shardCount));
+        Shard b = shards.get(shardOf(to, shardCount));
+        Shard first = a.index <= b.index ? a : b;
+        Shard second = first == a ? b : a;
+
+        first.lock.lock();
+        if (second != first) second.lock.lock();
+        try {
+            journal("PREPARE|" + txnId + "|" + from + "|" + to + "|" + amount);
+            CompletableFuture<Long> left = a.submit(new File(a.dir, "transactions.txt"), fromLine);
+            CompletableFuture<Long> right = b.submit(new File(b.dir, "transactions.txt"), toLine);
+            try {
+                CompletableFuture.allOf(left, right).join();
+                journal("COMMIT|" + txnId);
+                applyBalances.run();
+            } catch (RuntimeException e) {
+                abort(txnId, a, b, left, right, fromReversal, toReversal);
+                throw e;
+            }
+            try {
+                journal("DONE|" + txnId);
+            } catch (UncheckedIOException e) {
+                // Recovery finds the ledger posting and closes the entry.
+            }
+            return new long[] { left.join(), right.join() };
+        } finally {
+            if (second != first) second.lock.unlock();
+            first.lock.unlock();
+        }
+    }
+
+    // Without ABORT in the journal, a failed reversal is retried by recovery at the next start.
+    private void abort(long txnId, Shard a, Shard b, CompletableFuture<Long> left, CompletableFuture<Long> right,
+                       String fromReversal, String toReversal) {
+        List<CompletableFuture<Long>> undo = new ArrayList<>();
+        if (!left.isCompletedExceptionally()) undo.add(a.submit(new File(a.dir, "transactions.txt"), fromReversal));
+        if (!right.isCompletedExceptionally()) undo.add(b.submit(new File(b.dir, "transactions.txt"), toReversal));
+        try {
+            CompletableFuture.allOf(undo.toArray(new CompletableFuture<?>[0])).join();
+            journal("ABORT|" + txnId);
+        } catch (RuntimeException e) {
+            System.out.println("| Error undoing transfer " + txnId + "; it is retried at the next start.");
+        }
+    }
+
+    private synchronized void journal(String record) {
+        try (PrintWriter pw = new PrintWriter(new FileWriter(dataDir + "shard_transfers.txt", true))) {
+            pw.println(System.currentTimeMillis() + "|" + record);
+            if (pw.checkError()) throw new IOException("write failed");
+        } catch (IOException e) {
+            System.out.println("| Error writing transfer journal.                         |");
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Transfers with a PREPARE but no DONE or ABORT. Entries written before the journal
+    // carried amounts cannot be recovered and are skipped.
+    public synchronized List<PendingTransfer> pendingTransfers() {
+        Map<Long, PendingTransfer> pending = new LinkedHashMap<>();
+        File file = new File(dataDir + "shard_transfers.txt");
+        if (!file.exists()) return new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] p = line.split("\\|");
+                if (p.length < 3) continue;
+                try {
+                    long txnId = Long.parseLong(p[2]);
+                    switch (p[1]) {
+                        case "PREPARE" -> {
+                            if (p.length == 6) pending.put(txnId, new PendingTransfer(txnId, p[3], p[4], Double.parseDouble(p[5]), false));
+                        }
+                        case "COMMIT" -> pending.computeIfPresent(txnId,
+                            (k, t) -> new PendingTransfer(t.txnId(), t.from(), t.to(), t.amount(), true));
+                        case "DONE", "ABORT" -> pending.remove(txnId);
+                        default -> { }
+                    }
+                } catch (NumberFormatException e) {
+                    // Torn journal line.
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("| Error reading transfer journal.                         |");
+        }
+        return new ArrayList<>(pending.values());
+    }
+
+    public void resolveTransfer(long txnId, boolean done) {
+        journal((done ? "DONE|" : "ABORT|") + txnId);
+    }
+
+    public void clearAll() {
+        for (Shard shard : shards) {
+            File[] files = shard.dir.listFiles();
+            if (files == null) continue;
+            for (File f : files) {
+                try (PrintWriter pw = new PrintWriter(f)) {
+                    pw.print("");
+                } catch (IOException e) {
+                    System.out.println("Error clearing " + f);
+                }
+            }
+        }
+    }
+
+    // ====================== AGGREGATES ======================
+
+    public record ShardStats(int shard, int users, double totalBalance, long totalPoints) {}
+
+    // Each shard's account store is summarized on its own thread and the results merged.
+    public static List<ShardStats> collectStats(List<AccountStore> stores) {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(stores.size(), Runtime.getRuntime().availableProcessors()));
+        List<Future<ShardStats>> futures = new ArrayList<>();
+        for (int i = 0; i < stores.size(); i++) {
+            final int shard = i;
+            futures.add(pool.submit(() -> summarize(shard, stores.get(shard))));
+        }
+        List<ShardStats> stats = new ArrayList<>();
+        try {
+            for (Future<ShardStats> f : futures) stats.add(f.get());
+        } catch (InterruptedException | ExecutionException e) {
+            System.out.println("Error collecting shard stats: " + e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        return stats;
+    }
+
+    private static ShardStats summarize(int shard, AccountStore store) {
+        double balance = 0.0;
+        long points = 0;
+        int users = 0;
+        for (String username : store.usernames()) {
+            UserAccount acc = store.read(username);
+            if (acc == null) continue;
+            balance += acc.getBalance();
+            points += acc.getPoints();
+            users++;
+        }
+        return new ShardStats(shard, users, balance, points);
+    }
+
+    // ====================== SHARD ======================
+
+    private record PendingWrite(File file, String line, CompletableFuture<Long> done) {}
+
+    private static class Shard {
+        final int index;
+        final File dir;
+        final ReentrantLock lock = new ReentrantLock();
+        final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+
+        Shard(int index, File dir) {
+            this.index = index;
+            this.dir = dir;
+            dir.mkdirs();
+            try {
+                new File(dir, "users.txt").createNewFile();
+                for (String log : USER_LOGS) new File(dir, log).createNewFile();
+            } catch (IOException e) {
+                System.out.println("| Error initializing shard " + index);
+            }
+            Thread writer = new Thread(this::drain, "shard-writer-" + index);
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        CompletableFuture<Long> submit(File file, String line) {
+            CompletableFuture<Long> done = new CompletableFuture<>();
+            queue.add(new PendingWrite(file, line, done));
+            return done;
+        }
+
+        // Drains whatever is queued, writes it grouped by file, then completes the batch with
+        // each line's offset. This thread is the only writer of the shard's files.
+        private void drain() {
+            List<PendingWrite> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch);
+                Map<File, List<PendingWrite>> byFile = new LinkedHashMap<>();
+                for (PendingWrite w : batch) byFile.computeIfAbsent(w.file(), k -> new ArrayList<>()).add(w);
+                for (Map.Entry<File, List<PendingWrite>> e : byFile.entrySet()) {
+                    long[] offsets = new long[e.getValue().size()];
+                    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(e.getKey(), true))) {
+                        long offset = e.getKey().length();
+                        for (int i = 0; i < offsets.length; i++) {
+                            byte[] bytes = (RecordFrame.encode(e.getValue().get(i).line()) + "\n").getBytes(StandardCharsets.UTF_8);
+                            offsets[i] = offset;
+                            out.write(bytes);
+                            offset += bytes.length;
+                        }
+                    } catch (IOException ex) {
+                        for (PendingWrite w : e.getValue()) w.done().completeExceptionally(ex);
+                        continue;
+                    }
+                    for (int i = 0; i < offsets.length; i++) e.getValue().get(i).done().complete(offsets[i]);
+                }
+                batch.clear();
+            }
+        }
+    }
+}
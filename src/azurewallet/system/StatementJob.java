@@ -0,0 +1,257 @@
+package azurewallet.system;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.*;
+import azurewallet.storage.LogStore;
+
+// Monthly statements for every user from one pass over the transaction log. Records of the
+// period are buffered up to a fixed size, sorted by user and spilled as runs; the runs are
+// merged into one file where each user's records are contiguous, and every statement copies
+// its user's byte range out of that file with FileChannel.transferTo.
+public class StatementJob {
+    private static final long CHUNK_SIZE = 8L * 1024 * 1024;
+    private static final long RUN_BYTES = 32L * 1024 * 1024;
+    private static final String RULE = "+==========================================================+\n";
+
+    private final FileManager fileManager;
+    private final Collection<String> usernames;
+    private final YearMonth period;
+
+    public StatementJob(FileManager fileManager, Collection<String> usernames, YearMonth period) {
+        this.fileManager = fileManager;
+        this.usernames = usernames;
+        this.period = period;
+    }
+
+    public record Result(int statements, long records, int runs, File dir, long millis) {
+        public double statementsPerSecond() {
+            return millis == 0 ? statements : statements * 1000.0 / millis;
+        }
+    }
+
+    private record Record(String user, long seq, String line) {}
+
+    // A user's records in the merged file, plus the totals printed in the footer.
+    private static class Range {
+        long start;
+        long end;
+        int count;
+        double moneyIn;
+        double moneyOut;
+    }
+
+    public Result run() {
+        long start = System.currentTimeMillis();
+        File dir = fileManager.getDataFile("statements/" + period);
+        File work = new File(dir, ".work");
+        work.mkdirs();
+        try {
+            List<File> runs = new ArrayList<>();
+            long records = spill(work, runs);
+            File merged = new File(work, "merged.txt");
+            Map<String, Range> ranges = merge(runs, merged);
+            int written = writeStatements(dir, merged, ranges);
+            return new Result(written, records, runs.size(), dir, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Statement run failed: " + e.getMessage());
+            return null;
+        } finally {
+            File[] files = work.listFiles();
+            if (files != null) for (File f : files) f.delete();
+            work.delete();
+        }
+    }
+
+    // ====================== PASS 1: SORTED RUNS ======================
+
+    private long spill(File work, List<File> runs) throws IOException {
+        String prefix = period.toString();
+        List<Record> buffer = new ArrayList<>();
+        long[] bufferedBytes = {0};
+        long[] seq = {0};
+        for (LogStore.Segment segment : fileManager.getStorage().logStore().segments("transactions.txt", CHUNK_SIZE)) {
+            segment.forEachLine(line -> {
+                if (!line.startsWith(prefix)) return;
+                String user = userOf(line);
+                if (user == null) return;
+                buffer.add(new Record(user, seq[0]++, line));
+                bufferedBytes[0] += line.length() + user.length() + 64;
+                if (bufferedBytes[0] >= RUN_BYTES) {
+                    writeRun(work, runs, buffer);
+                    bufferedBytes[0] = 0;
+                }
+            });
+        }
+        if (!buffer.isEmpty() || runs.isEmpty()) writeRun(work, runs, buffer);
+        return seq[0];
+    }
+
+    private static void writeRun(File work, List<File> runs, List<Record> buffer) {
+        buffer.sort(Comparator.comparing(Record::user).thenComparingLong(Record::seq));
+        File run = new File(work, "run-" + runs.size() + ".txt");
+        try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(run), StandardCharsets.UTF_8), 1 << 16)) {
+            for (Record r : buffer) {
+                out.write(r.user());
+                out.write('\t');
+                out.write(r.line());
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        runs.add(run);
+        buffer.clear();
+    }
+
+    private static String userOf(String line) {
+        int sep = line.indexOf(" - ");
+        if (sep < 0) return null;
+        String body = line.substring(sep + 3);
+        if (body.startsWith("TX")) {
+            int next = body.indexOf(" - ");
+            if (next < 0) return null;
+            body = body.substring(next + 3);
+        }
+        int colon = body.indexOf(": ");
+        return colon > 0 ? body.substring(0, colon) : null;
+    }
+
+    // ====================== PASS 2: MERGE ======================
+
+    private record Head(String user, String line, int run) {}
+
+    // Runs were cut in log order, so ties between runs are broken by run number and each
+    // user's records stay chronological.
+    private static Map<String, Range> merge(List<File> runs, File merged) throws IOException {
+        Map<String, Range> ranges = new HashMap<>();
+        List<BufferedReader> readers = new ArrayList<>();
+        PriorityQueue<Head> heads = new PriorityQueue<>(Comparator.comparing(Head::user).thenComparingInt(Head::run));
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(merged), 1 << 16)) {
+            for (int i = 0; i < runs.size(); i++) {
+                readers.add(new BufferedReader(new InputStreamReader(new FileInputStream(runs.get(i)), StandardCharsets.UTF_8), 1 << 16));
+                advance(readers.get(i), i, heads);
+            }
+            long pos = 0;
+            while (!heads.isEmpty()) {
+                Head h = heads.poll();
+                byte[] bytes = (h.line() + "\n").getBytes(StandardCharsets.UTF_8);
+                Range range = ranges.computeIfAbsent(h.user(), k -> new Range());
+                if (range.count == 0) range.start = pos;
+                pos += bytes.length;
+                range.end = pos;
+                range.count++;
+                tally(range, h.line());
+                out.write(bytes);
+                advance(readers.get(h.run()), h.run(), heads);
+            }
+        } finally {
+            for (BufferedReader r : readers) r.close();
+        }
+        return ranges;
+    }
+
+    private static void advance(BufferedReader reader, int run, PriorityQueue<Head> heads) throws IOException {
+        String next = reader.readLine();
+        if (next == null) return;
+        int tab = next.indexOf('\t');
+        heads.add(new Head(next.substring(0, tab), next.substring(tab + 1), run));
+    }
+
+    private static void tally(Range range, String line) {
+        int php = line.lastIndexOf(" - PHP ");
+        int colon = line.indexOf(": ");
+        if (php < 0 || colon < 0) return;
+        try {
+            double amount = Double.parseDouble(line.substring(php + 7).trim().replace(",", ""));
+            String type = line.substring(colon + 2, php);
+            if (type.startsWith(FileManager.REVERSAL)) {
+                type = type.substring(FileManager.REVERSAL.length());
+                amount = -amount;
+            }
+            if (type.equals("Deposit") || type.startsWith("Received from ")) range.moneyIn += amount;
+            else range.moneyOut += amount;
+        } catch (NumberFormatException ignored) {}
+    }
+
+    // ====================== PASS 3: STATEMENTS ======================
+
+    private int writeStatements(File dir, File merged, Map<String, Range> ranges) throws IOException {
+        String generated = LocalDateTime.now().toString();
+        int workers = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try (FileChannel source = FileChannel.open(merged.toPath(), StandardOpenOption.READ)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String user : usernames) {
+                Path path = statementPath(dir, user);
+                if (path == null) {
+                    System.out.println("Skipped statement for unsafe username: " + user);
+                    continue;
+                }
+                futures.add(pool.submit(() -> {
+                    writeStatement(path, user, ranges.get(user), source, generated);
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+            return futures.size();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException(e.getCause() == null ? e : e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Usernames are free text, so every byte outside [a-z0-9_-] is written as %XX; the
+    // result can hold no separator or dot segment and stays inside dir.
+    private static Path statementPath(File dir, String user) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : user.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == '-') name.append(c);
+            else name.append(String.format("%%%02X", b & 0xff));
+        }
+        if (name.length() == 0 || name.length() > 200) return null;
+        Path base = dir.toPath().toAbsolutePath().normalize();
+        Path path = base.resolve(name + ".txt").normalize();
+        return path.getParent().equals(base) ? path : null;
+    }
+
+    private void writeStatement(Path path, String user, Range range, FileChannel source, String generated) throws IOException {
+        String header = RULE
+            + "|                    MONTHLY STATEMENT                     |\n"
+            + RULE
+            + "| Account: " + user + "\n"
+            + "| Period: " + period + "\n"
+            + "| Generated: " + generated + "\n"
+            + RULE;
+        String footer;
+        if (range == null) {
+            footer = "| No transactions this period.\n" + RULE;
+        } else {
+            footer = RULE
+                + "| Transactions: " + range.count + "\n"
+                + String.format("| Money in: PHP %,.2f%n| Money out: PHP %,.2f%n", range.moneyIn, range.moneyOut)
+                + RULE;
+        }
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(out, header);
+            if (range != null) {
+                long pos = range.start;
+                while (pos < range.end) pos += source.transferTo(pos, range.end - pos, out);
+            }
+            write(out, footer);
+        }
+    }
+
+    private static void write(FileChannel out, String text) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) out.write(buf);
+    }
+}
@@ -0,0 +1,53 @@
+package azurewallet.system;
+
+import azurewallet.storage.LogStore;
+
+// Monotonic transaction ids. Ids are handed out from blocks whose upper bound is logged
+// before the first id of the block is used, so a restart resumes above anything that may
+// already be on disk (at worst skipping the unused rest of a block) and never reuses one.
+public class TxnIds {
+    private static final String LOG = "txn_ids.txt";
+    private static final long BLOCK = 1000;
+
+    private final LogStore logs;
+    private final boolean fresh;
+    private long next;
+    private long limit;
+
+    public TxnIds(LogStore logs) {
+        this.logs = logs;
+        String last = logs.lastLine(LOG);
+        fresh = last == null || last.isBlank();
+        next = limit = fresh ? 1 : Long.parseLong(last.trim());
+    }
+
+    // True when no block was ever reserved, so numbering starts again at 1.
+    public boolean isFresh() {
+        return fresh;
+    }
+
+    public synchronized long next() {
+        if (next >= limit) {
+            long reserved = next + BLOCK;
+            logs.append(LOG, null, String.valueOf(reserved));
+            limit = reserved;
+        }
+        return next++;
+    }
+
+    public static String format(long id) {
+        return String.format("TX%010d", id);
+    }
+
+    // Accepts "TX0000000042" or "42"; returns -1 if the text is not an id.
+    public static long parse(String text) {
+        String digits = text.trim().toUpperCase();
+        if (digits.startsWith("TX")) digits = digits.substring(2);
+        try {
+            long id = Long.parseLong(digits);
+            return id > 0 ? id : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package azurewallet.system;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.function.LongPredicate;
+
+// Direct-addressed id -> log position index for transactions.txt. Slot id sits at byte
+// id * 16 and holds the positions of up to two legs (+1, so 0 means empty), which makes a
+// lookup one seek here plus one seek in the log. Ids skipped after a restart leave holes.
+public class TxnIndex {
+    private static final int SLOT = 16;
+
+    private final File file;
+    private RandomAccessFile raf;
+
+    public TxnIndex(String path) {
+        this.file = new File(path);
+    }
+
+    private RandomAccessFile handle() throws IOException {
+        if (raf == null) raf = new RandomAccessFile(file, "rw");
+        return raf;
+    }
+
+    // Records a leg; the second leg recorded under the same id fills the second half.
+    public synchronized void put(long id, long position) {
+        try {
+            RandomAccessFile f = handle();
+            long slot = id * SLOT;
+            long first = 0;
+            if (slot + 8 <= f.length()) {
+                f.seek(slot);
+                first = f.readLong();
+            }
+            f.seek(first == 0 ? slot : slot + 8);
+            f.writeLong(position + 1);
+        } catch (IOException e) {
+            System.out.println("| Error indexing transaction " + TxnIds.format(id));
+        }
+    }
+
+    public synchronized void put(long id, long firstLeg, long secondLeg) {
+        try {
+            RandomAccessFile f = handle();
+            f.seek(id * SLOT);
+            f.writeLong(firstLeg + 1);
+            f.writeLong(secondLeg + 1);
+        } catch (IOException e) {
+            System.out.println("| Error indexing transaction " + TxnIds.format(id));
+        }
+    }
+
+    // Positions of the legs logged under this id; empty if the id was never indexed.
+    public synchronized long[] get(long id) {
+        try {
+            RandomAccessFile f = handle();
+            long slot = id * SLOT;
+            if (slot + 8 > f.length()) return new long[0];
+            f.seek(slot);
+            long a = f.readLong();
+            long b = slot + SLOT <= f.length() ? f.readLong() : 0;
+            if (a == 0) return new long[0];
+            return b == 0 ? new long[] { a - 1 } : new long[] { a - 1, b - 1 };
+        } catch (IOException e) {
+            return new long[0];
+        }
+    }
+
+    // Forgets every leg whose position matches; a transfer keeping one leg keeps it in the
+    // first half. Returns the number of legs dropped.
+    public synchronized int removeIf(LongPredicate stale) {
+        int dropped = 0;
+        try {
+            RandomAccessFile f = handle();
+            byte[] block = new byte[SLOT * 4096];
+            for (long start = 0; start < f.length(); start += block.length) {
+                f.seek(start);
+                int n = (int) Math.min(block.length, f.length() - start) / SLOT * SLOT;
+                f.readFully(block, 0, n);
+                ByteBuffer buf = ByteBuffer.wrap(block, 0, n);
+                boolean changed = false;
+                for (int slot = 0; slot < n; slot += SLOT) {
+                    long a = buf.getLong(slot), b = buf.getLong(slot + 8);
+                    boolean dropA = a != 0 && stale.test(a - 1), dropB = b != 0 && stale.test(b - 1);
+                    if (!dropA && !dropB) continue;
+                    if (dropA) a = 0;
+                    if (dropB) b = 0;
+                    buf.putLong(slot, a == 0 ? b : a).putLong(slot + 8, a == 0 ? 0 : b);
+                    dropped += (dropA ? 1 : 0) + (dropB ? 1 : 0);
+                    changed = true;
+                }
+                if (changed) {
+                    f.seek(start);
+                    f.write(block, 0, n);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error updating " + file);
+        }
+        return dropped;
+    }
+
+    public synchronized void clear() {
+        try {
+            handle().setLength(0);
+        } catch (IOException e) {
+            System.out.println("Error clearing " + file);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package azurewallet.system;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import azurewallet.models.UserAccount;
+
+// Self-check for AdmissionControl under a credential-stuffing wave. Attacker threads spray
+// wrong-PIN logins over many usernames as fast as they can, each admitted one costing a real
+// PIN hash, while a signed-in user keeps submitting transactions and another user tries to
+// log in now and then. Runs on a scratch AdmissionControl with the configured limits. The
+// flood has to be shed and every one of the signed-in user's transactions admitted.
+//
+// java -cp <classes> azurewallet.system.LoginFlood [seconds]   (default 10; exit 1 on failure)
+public class LoginFlood {
+
+    public record Result(long attempts, long accepted, long shedUserRate, long shedGlobalRate, long shedQueueFull,
+                         int transactions, int transactionsAdmitted, int logins, int loginsAdmitted, long millis) {
+        public boolean passed() {
+            return transactionsAdmitted == transactions && shedUserRate + shedGlobalRate + shedQueueFull > 0;
+        }
+    }
+
+    private static final int USERNAMES = 1000;
+
+    private final int seconds;
+    private final int threads;
+
+    public LoginFlood(int seconds, int threads) {
+        this.seconds = seconds;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        Result r = new LoginFlood(seconds, 16).run();
+        System.out.printf("Login attempts: %,d (16 attacker threads over 1,000 usernames, plus one customer)%n", r.attempts());
+        System.out.printf("Accepted: %,d, shed: user rate %,d, global rate %,d, queue full %,d%n",
+            r.accepted(), r.shedUserRate(), r.shedGlobalRate(), r.shedQueueFull());
+        System.out.println("Customer logins admitted: " + r.loginsAdmitted() + "/" + r.logins());
+        System.out.println("Signed-in transactions admitted: " + r.transactionsAdmitted() + "/" + r.transactions());
+        System.out.println("Completed in " + r.millis() + " ms - " + (r.passed() ? "PASSED" : "FAILED"));
+        System.exit(r.passed() ? 0 : 1);
+    }
+
+    public Result run() {
+        AdmissionControl admission = new AdmissionControl(AdmissionControl.Limits.fromSystemProperties());
+        UserAccount victim = new UserAccount("flood", "0000", "09000000000");
+        long end = System.currentTimeMillis() + seconds * 1000L;
+        AtomicLong attempts = new AtomicLong();
+
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            futures.add(pool.submit(() -> {
+                Random random = new Random(seed);
+                while (System.currentTimeMillis() < end) {
+                    String username = "user" + random.nextInt(USERNAMES);
+                    String pin = String.format("%04d", random.nextInt(10_000));
+                    admission.authenticate(username, () -> victim.verifyPin(pin));
+                    attempts.incrementAndGet();
+                }
+            }));
+        }
+
+        // A login every half second for a user outside the sprayed range.
+        Future<int[]> logins = pool.submit(() -> {
+            int[] triedAndAdmitted = new int[2];
+            while (System.currentTimeMillis() < end) {
+                triedAndAdmitted[0]++;
+                attempts.incrementAndGet();
+                if (admission.authenticate("customer", () -> victim.verifyPin("0000")).accepted()) triedAndAdmitted[1]++;
+                Thread.sleep(500);
+            }
+            return triedAndAdmitted;
+        });
+
+        // The signed-in user: one transaction every 150 ms, inside the per-user limit.
+        int transactions = 0, transactionsAdmitted = 0;
+        while (System.currentTimeMillis() < end) {
+            transactions++;
+            if (admission.admitTransaction("signed-in").accepted()) transactionsAdmitted++;
+            try {
+                Thread.sleep(150);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        int[] loginResult = new int[2];
+        try {
+            for (Future<?> f : futures) f.get();
+            loginResult = logins.get();
+        } catch (InterruptedException | ExecutionException e) {
+            System.out.println("Login flood worker failed: " + e.getMessage());
+        }
+        pool.shutdown();
+
+        AdmissionControl.Lane auth = AdmissionControl.Lane.AUTH;
+        return new Result(attempts.get(),
+            admission.getCount(auth, AdmissionControl.Status.ACCEPTED),
+            admission.getCount(auth, AdmissionControl.Status.USER_RATE),
+            admission.getCount(auth, AdmissionControl.Status.GLOBAL_RATE),
+            admission.getCount(auth, AdmissionControl.Status.QUEUE_FULL),
+            transactions, transactionsAdmitted, loginResult[0], loginResult[1],
+            System.currentTimeMillis() - start);
+    }
+}
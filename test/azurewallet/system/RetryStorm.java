@@ -0,0 +1,112 @@
+package azurewallet.system;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import azurewallet.models.UserAccount;
+
+// Self-check for Idempotency under concurrent retries. A pool of threads fires every request
+// several times, in shuffled order, at a scratch account and a scratch dedup window; each
+// key must debit exactly once. A second instance over the same window file then stands in
+// for a restart, and every key must replay without running again. The cache is kept smaller
+// than the key count so evicted keys have to be found in the window.
+//
+// java -cp <classes> azurewallet.system.RetryStorm [requests]   (default 1000; exit 1 on failure)
+public class RetryStorm {
+
+    public record Result(int keys, int attempts, long executed, long replayed, long conflicts,
+                         long restartExecuted, double expectedBalance, double balance, long millis) {
+        public boolean passed() {
+            return executed == keys && replayed == attempts - keys && conflicts == 0
+                && restartExecuted == 0 && Math.abs(expectedBalance - balance) < 0.005;
+        }
+    }
+
+    private static final double AMOUNT = 100.0;
+
+    private final int keys;
+    private final int retries;
+    private final int threads;
+
+    public RetryStorm(int keys, int retries, int threads) {
+        this.keys = keys;
+        this.retries = retries;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        Result r = new RetryStorm(keys, 8, 16).run();
+        System.out.println("Requests: " + r.keys() + ", attempts: " + r.attempts() + " (8 per request, 16 threads)");
+        System.out.println("Executed: " + r.executed() + ", replayed: " + r.replayed() + ", conflicts: " + r.conflicts());
+        System.out.println("Executed again after restart: " + r.restartExecuted());
+        System.out.printf("Balance: PHP %,.2f (expected PHP %,.2f)%n", r.balance(), r.expectedBalance());
+        System.out.println("Completed in " + r.millis() + " ms - " + (r.passed() ? "PASSED" : "FAILED"));
+        System.exit(r.passed() ? 0 : 1);
+    }
+
+    public Result run() {
+        File window = new File(System.getProperty("java.io.tmpdir"), "azure-retry-storm-" + System.nanoTime() + ".txt");
+        try {
+            return storm(window);
+        } finally {
+            window.delete();
+            new File(window.getPath() + ".tmp").delete();
+        }
+    }
+
+    private Result storm(File window) {
+        double opening = keys * AMOUNT * 2;
+        UserAccount acc = new UserAccount("storm", "0000", "09000000000");
+        acc.deposit(opening);
+        AtomicLong nextTxn = new AtomicLong();
+        Idempotency idempotency = new Idempotency(window.getPath(), Math.max(1, keys / 4), TimeUnit.HOURS.toMillis(1));
+
+        List<String> requests = new ArrayList<>(keys * retries);
+        for (int k = 0; k < keys; k++) {
+            for (int r = 0; r < retries; r++) requests.add("req-" + k);
+        }
+        Collections.shuffle(requests, new Random(42));
+
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        int perThread = (requests.size() + threads - 1) / threads;
+        for (int t = 0; t < threads; t++) {
+            List<String> mine = requests.subList(Math.min(requests.size(), t * perThread), Math.min(requests.size(), (t + 1) * perThread));
+            futures.add(pool.submit(() -> {
+                go.await();
+                for (String key : mine) {
+                    idempotency.execute(acc.getUsername(), key, "withdraw", AMOUNT, () -> {
+                        acc.withdraw(AMOUNT);
+                        return nextTxn.incrementAndGet();
+                    });
+                }
+                return null;
+            }));
+        }
+        go.countDown();
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println("Retry storm worker failed: " + e.getMessage());
+            }
+        }
+        pool.shutdown();
+        long millis = System.currentTimeMillis() - start;
+
+        Idempotency restarted = new Idempotency(window.getPath(), Math.max(1, keys / 4), TimeUnit.HOURS.toMillis(1));
+        for (int k = 0; k < keys; k++) {
+            restarted.execute(acc.getUsername(), "req-" + k, "withdraw", AMOUNT, () -> {
+                acc.withdraw(AMOUNT);
+                return nextTxn.incrementAndGet();
+            });
+        }
+
+        return new Result(keys, requests.size(), idempotency.getExecuted(), idempotency.getReplayed(), idempotency.getConflicts(),
+            restarted.getExecuted(), opening - keys * AMOUNT, acc.getBalance(), millis);
+    }
+}